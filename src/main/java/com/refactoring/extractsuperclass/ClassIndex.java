@@ -0,0 +1,477 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Supertype metadata of compiled classes outside the workspace, read straight from class-file headers so that a
+ * superclass from a dependency or the JDK resolves to its qualified name even when JDT could only recover its binding.
+ * Covers the jars and jmods {@link ClasspathBuilder#archivesFor} lists for the project roots and, looked at last, the
+ * running JDK's {@code jrt:/} image.
+ * <p>
+ * Every archive is indexed once: the name, access flags, superclass and interfaces of each of its classes are written
+ * below {@code ~/.extractsuperclass/class-index} (or the {@value #DIRECTORY_PROPERTY} system property) under a key of
+ * the archive's path, size and modification time, the JDK's under its home and runtime version, and later processes
+ * read them back from there. Loaded archives stay in memory until the {@link MemoryGovernor} sheds them.
+ */
+final class ClassIndex {
+	private static final Logger logger = LoggerFactory.getLogger(ClassIndex.class);
+	static final String DIRECTORY_PROPERTY = "extractsuperclass.classIndexDir";
+	private static final int MAGIC = 0x45534349; // "ESCI"
+	private static final int VERSION = 1;
+	private static final int CLASS_MAGIC = 0xCAFEBABE;
+	private static final int ACC_INTERFACE = 0x0200;
+	/** Rough heap cost of one indexed class. */
+	private static final int BYTES_PER_CLASS = 160;
+	private static final String JDK_LOCATION = "jrt:/";
+	/** Archives loaded in this process keyed by location; replaced when the archive's stamp changes. */
+	private static final Map<String, Archive> LOADED = new ConcurrentHashMap<>();
+
+	static {
+		MemoryGovernor.get().register(new MemoryGovernor.Sheddable() {
+			@Override
+			public String name() {
+				return "class indexes";
+			}
+
+			@Override
+			public MemoryGovernor.Tier tier() {
+				return MemoryGovernor.Tier.CLASS_INDEXES;
+			}
+
+			@Override
+			public long estimatedBytes() {
+				long bytes = 0;
+				for (Archive archive : LOADED.values()) {
+					bytes += (long) archive.classes.size() * BYTES_PER_CLASS;
+				}
+				return bytes;
+			}
+
+			@Override
+			public long shed() {
+				long bytes = estimatedBytes();
+				LOADED.clear();
+				return bytes;
+			}
+		});
+	}
+
+	/** Header of one class: binary name with {@code .} between packages (nested classes keep their {@code $}). */
+	static final class Header {
+		final String name;
+		final int access;
+		/** Binary name of the superclass; null for {@code java.lang.Object} and modules. */
+		final String superclass;
+		final List<String> interfaces;
+
+		Header(String name, int access, String superclass, List<String> interfaces) {
+			this.name = name;
+			this.access = access;
+			this.superclass = superclass;
+			this.interfaces = interfaces;
+		}
+
+		boolean isInterface() {
+			return (access & ACC_INTERFACE) != 0;
+		}
+
+		/** The name as source code writes it. */
+		String qualifiedName() {
+			return name.replace('$', '.');
+		}
+	}
+
+	private final List<File> roots;
+	/** Archives of the roots in lookup order, loaded on first use and dropped again by {@link #refresh}. */
+	private volatile List<Archive> archives;
+	/** The JDK, loaded only once a name is missing from every archive of the roots. */
+	private volatile Archive jdk;
+
+	ClassIndex(List<File> roots) {
+		this.roots = new ArrayList<>(roots);
+	}
+
+	/** Makes the next lookup list the roots' archives again and recheck their stamps. */
+	void refresh() {
+		archives = null;
+		jdk = null;
+	}
+
+	/**
+	 * Class with this name, given in binary form or as source writes it ({@code java.util.Map.Entry}); null when no
+	 * archive has it.
+	 */
+	Header find(String name) {
+		if (name == null || name.isEmpty()) {
+			return null;
+		}
+		List<String> candidates = binaryCandidates(name);
+		for (Archive archive : archives()) {
+			Header header = lookup(archive, candidates);
+			if (header != null) {
+				return header;
+			}
+		}
+		Archive runtime = jdk;
+		if (runtime == null) {
+			runtime = archive(JDK_LOCATION, null);
+			jdk = runtime;
+		}
+		return lookup(runtime, candidates);
+	}
+
+	boolean hasClass(String name) {
+		return find(name) != null;
+	}
+
+	/** Qualified name of the class's superclass, or null when it has none or is unknown. */
+	String superclassOf(String name) {
+		Header header = find(name);
+		return header == null || header.superclass == null ? null : header.superclass.replace('$', '.');
+	}
+
+	/** Qualified names of the interfaces the class implements directly; empty when it is unknown. */
+	List<String> interfacesOf(String name) {
+		Header header = find(name);
+		if (header == null) {
+			return Collections.emptyList();
+		}
+		List<String> interfaces = new ArrayList<>(header.interfaces.size());
+		for (String iface : header.interfaces) {
+			interfaces.add(iface.replace('$', '.'));
+		}
+		return interfaces;
+	}
+
+	boolean isInterface(String name) {
+		Header header = find(name);
+		return header != null && header.isInterface();
+	}
+
+	private List<Archive> archives() {
+		List<Archive> current = archives;
+		if (current == null) {
+			current = new ArrayList<>();
+			for (Path path : ClasspathBuilder.archivesFor(roots)) {
+				current.add(archive(path.toString(), path));
+			}
+			archives = current;
+		}
+		return current;
+	}
+
+	private static Header lookup(Archive archive, List<String> candidates) {
+		for (String candidate : candidates) {
+			Header header = archive.classes.get(candidate);
+			if (header != null) {
+				return header;
+			}
+		}
+		return null;
+	}
+
+	/** {@code a.b.C.D} may be {@code a.b.C$D} or {@code a.b$C$D}: try the name as given, then nest from the right. */
+	private static List<String> binaryCandidates(String name) {
+		List<String> candidates = new ArrayList<>();
+		candidates.add(name);
+		char[] chars = name.toCharArray();
+		for (int i = chars.length - 1; i > 0; i--) {
+			if (chars[i] == '.') {
+				chars[i] = '$';
+				candidates.add(new String(chars));
+			}
+		}
+		return candidates;
+	}
+
+	/** Archive at {@code path} ({@code null} for the JDK), from memory, the disk cache or by reading it. */
+	private static Archive archive(String location, Path path) {
+		String stamp = stamp(path);
+		Archive archive = LOADED.get(location);
+		if (archive != null && archive.stamp.equals(stamp)) {
+			return archive;
+		}
+		String key = location + "|" + stamp;
+		Path cacheFile = cacheFile(key);
+		Map<String, Header> classes = cacheFile == null ? null : readCache(cacheFile, key);
+		if (classes == null) {
+			long start = System.currentTimeMillis();
+			try {
+				classes = path == null ? indexJdk() : indexArchive(path);
+				logger.debug("Indexed {} class header(s) of {} in {}ms", classes.size(), location, System.currentTimeMillis() - start);
+				if (cacheFile != null) {
+					writeCache(cacheFile, key, classes);
+				}
+			} catch (IOException | RuntimeException ex) {
+				logger.debug("Skipping unreadable archive {}: {}", location, ex.getMessage());
+				classes = Collections.emptyMap();
+			}
+		}
+		archive = new Archive(stamp, classes);
+		LOADED.put(location, archive);
+		return archive;
+	}
+
+	private static String stamp(Path path) {
+		if (path == null) {
+			Path modules = Paths.get(System.getProperty("java.home"), "lib", "modules");
+			return System.getProperty("java.home") + "|" + Runtime.version() + "|" + modules.toFile().lastModified();
+		}
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+			return attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+		} catch (IOException ex) {
+			return "missing";
+		}
+	}
+
+	private static Map<String, Header> indexArchive(Path path) throws IOException {
+		boolean jmod = path.getFileName().toString().endsWith(".jmod");
+		Map<String, Header> classes = new HashMap<>();
+		// ZipFile skips the four-byte header that precedes a jmod's zip content.
+		try (ZipFile zip = new ZipFile(path.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if (jmod) {
+					if (!name.startsWith("classes/")) {
+						continue;
+					}
+					name = name.substring("classes/".length());
+				}
+				if (entry.isDirectory() || !isIndexedClassFile(name)) {
+					continue;
+				}
+				try (InputStream in = zip.getInputStream(entry)) {
+					add(classes, in.readAllBytes());
+				}
+			}
+		}
+		return classes;
+	}
+
+	private static Map<String, Header> indexJdk() throws IOException {
+		FileSystem jrt = FileSystems.getFileSystem(URI.create(JDK_LOCATION));
+		Map<String, Header> classes = new HashMap<>();
+		try (Stream<Path> modules = Files.list(jrt.getPath("/modules"))) {
+			for (Path module : (Iterable<Path>) modules::iterator) {
+				try (Stream<Path> files = Files.walk(module)) {
+					for (Path file : (Iterable<Path>) files::iterator) {
+						if (isIndexedClassFile(module.relativize(file).toString()) && Files.isRegularFile(file)) {
+							add(classes, Files.readAllBytes(file));
+						}
+					}
+				}
+			}
+		}
+		return classes;
+	}
+
+	/** Class files worth indexing: no module or package descriptors, versioned overrides or anonymous classes. */
+	private static boolean isIndexedClassFile(String name) {
+		if (!name.endsWith(".class") || name.startsWith("META-INF/")) {
+			return false;
+		}
+		String simple = name.substring(name.lastIndexOf('/') + 1, name.length() - ".class".length());
+		if (simple.equals("module-info") || simple.equals("package-info")) {
+			return false;
+		}
+		int nested = simple.lastIndexOf('$');
+		return nested < 0 || (nested + 1 < simple.length() && !Character.isDigit(simple.charAt(nested + 1)));
+	}
+
+	private static void add(Map<String, Header> classes, byte[] bytes) {
+		try {
+			Header header = readHeader(bytes);
+			classes.put(header.name, header);
+		} catch (IOException | RuntimeException ex) {
+			logger.trace("Skipping malformed class file: {}", ex.getMessage());
+		}
+	}
+
+	/** Reads the header of a class file: the constant pool is only walked to find the class names it refers to. */
+	static Header readHeader(byte[] bytes) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(bytes);
+		if (in.getInt() != CLASS_MAGIC) {
+			throw new IOException("Not a class file");
+		}
+		in.position(in.position() + 4); // minor and major version
+		int count = Short.toUnsignedInt(in.getShort());
+		int[] offsets = new int[count];
+		for (int i = 1; i < count; i++) {
+			int tag = Byte.toUnsignedInt(in.get());
+			offsets[i] = in.position();
+			switch (tag) {
+				case 1: // Utf8
+					in.position(in.position() + 2 + Short.toUnsignedInt(in.getShort(in.position())));
+					break;
+				case 7: case 8: case 16: case 19: case 20: // Class, String, MethodType, Module, Package
+					in.position(in.position() + 2);
+					break;
+				case 15: // MethodHandle
+					in.position(in.position() + 3);
+					break;
+				case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+					in.position(in.position() + 4);
+					break;
+				case 5: case 6: // Long and Double take two slots
+					in.position(in.position() + 8);
+					i++;
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag " + tag);
+			}
+		}
+		int access = Short.toUnsignedInt(in.getShort());
+		String name = className(bytes, offsets, Short.toUnsignedInt(in.getShort()));
+		int superIndex = Short.toUnsignedInt(in.getShort());
+		String superclass = superIndex == 0 ? null : className(bytes, offsets, superIndex);
+		int interfaceCount = Short.toUnsignedInt(in.getShort());
+		List<String> interfaces = new ArrayList<>(interfaceCount);
+		for (int i = 0; i < interfaceCount; i++) {
+			interfaces.add(className(bytes, offsets, Short.toUnsignedInt(in.getShort())));
+		}
+		return new Header(name, access, superclass, interfaces);
+	}
+
+	private static String className(byte[] bytes, int[] offsets, int classIndex) throws IOException {
+		int nameIndex = ByteBuffer.wrap(bytes, offsets[classIndex], 2).getShort() & 0xFFFF;
+		int offset = offsets[nameIndex];
+		int length = ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+		// Class file strings are modified UTF-8, which is what readUTF decodes.
+		String internal = new DataInputStream(new ByteArrayInputStream(bytes, offset, length + 2)).readUTF();
+		return internal.replace('/', '.');
+	}
+
+	static Path cacheDirectory() {
+		String configured = System.getProperty(DIRECTORY_PROPERTY);
+		if (configured != null && !configured.trim().isEmpty()) {
+			return Paths.get(configured.trim());
+		}
+		return Paths.get(System.getProperty("user.home"), IndexSnapshot.DIRECTORY, "class-index");
+	}
+
+	private static Path cacheFile(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder();
+			for (byte b : digest) {
+				name.append(String.format("%02x", b));
+			}
+			return cacheDirectory().resolve(name.append(".idx").toString());
+		} catch (NoSuchAlgorithmException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	/** Classes stored for {@code key}, or null when the file is missing, unreadable or belongs to another key. */
+	private static Map<String, Header> readCache(Path file, String key) {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+				return null;
+			}
+			int count = in.readInt();
+			Map<String, Header> classes = new HashMap<>(count * 2);
+			for (int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				int access = in.readUnsignedShort();
+				String superclass = in.readUTF();
+				int interfaceCount = in.readUnsignedShort();
+				List<String> interfaces = new ArrayList<>(interfaceCount);
+				for (int j = 0; j < interfaceCount; j++) {
+					interfaces.add(in.readUTF());
+				}
+				classes.put(name, new Header(name, access, superclass.isEmpty() ? null : superclass, interfaces));
+			}
+			return classes;
+		} catch (IOException ex) {
+			logger.debug("Ignoring unreadable class index {}: {}", file, ex.getMessage());
+			return null;
+		}
+	}
+
+	private static void writeCache(Path file, String key, Map<String, Header> classes) {
+		Path tmp = null;
+		try {
+			Files.createDirectories(file.getParent());
+			tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+				out.writeInt(classes.size());
+				for (Header header : classes.values()) {
+					out.writeUTF(header.name);
+					out.writeShort(header.access);
+					out.writeUTF(header.superclass == null ? "" : header.superclass);
+					out.writeShort(header.interfaces.size());
+					for (String iface : header.interfaces) {
+						out.writeUTF(iface);
+					}
+				}
+			}
+			try {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ex) {
+			logger.debug("Could not store class index {}: {}", file, ex.getMessage());
+		} finally {
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				} catch (IOException ignore) {
+					// best effort
+				}
+			}
+		}
+	}
+
+	private static final class Archive {
+		final String stamp;
+		final Map<String, Header> classes;
+
+		Archive(String stamp, Map<String, Header> classes) {
+			this.stamp = stamp;
+			this.classes = classes;
+		}
+	}
+}
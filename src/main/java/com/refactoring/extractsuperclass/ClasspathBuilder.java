@@ -0,0 +1,406 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Assembles the JDT classpath for a set of project roots: build output directories and jars of every root followed
+ * by the launcher's own {@code java.class.path}. Entries are de-duplicated by real path. JDK classes are not listed
+ * at all because every parser is created with {@code includeRunningVMBootclasspath}, which reads the running
+ * runtime's {@code jrt:/} image once.
+ * <p>
+ * Results are cached per set of roots and reused until the modification time of one of the probed directories
+ * changes, which happens whenever a jar or output directory is added to or removed from it.
+ * <p>
+ * {@link #archivesFor} lists the archives {@link ClassIndex} reads instead: only those of the roots themselves, plus
+ * the jars of the dependencies their poms declare as found in the local Maven repository.
+ */
+final class ClasspathBuilder {
+	private static final Logger logger = LoggerFactory.getLogger(ClasspathBuilder.class);
+	private static final String[] CLASS_DIRS = {
+		"target/classes",
+		"target/test-classes",
+		"build/classes/java/main",
+		"build/classes/java/test",
+		"out/production",
+		"out/test"
+	};
+	/** Directories whose jars, and the jars of their direct subdirectories, go on the classpath. */
+	private static final String[] JAR_DIRS = { "target", "lib" };
+
+	private static final Map<List<Path>, Cached> CACHE = new ConcurrentHashMap<>();
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]+)}");
+
+	private ClasspathBuilder() {
+	}
+
+	static String[] classpathFor(List<File> roots) {
+		List<Path> key = WorkspaceIndex.keyFor(roots);
+		Cached cached = CACHE.get(key);
+		if (cached != null && cached.isCurrent()) {
+			return cached.classpath;
+		}
+		Cached built = build(roots);
+		CACHE.put(key, built);
+		return built.classpath;
+	}
+
+	/** Drops the cached classpath for these roots so the next lookup rebuilds it. */
+	static void invalidate(List<File> roots) {
+		CACHE.remove(WorkspaceIndex.keyFor(roots));
+	}
+
+	/**
+	 * Jars and jmods the roots compile against: those {@link #classpathFor} finds below the roots, followed by the
+	 * jars of the dependencies declared in the roots' poms and their modules' poms. Dependencies are looked up in the
+	 * local repository only; nothing is downloaded, and one that is not there is skipped.
+	 */
+	static List<Path> archivesFor(List<File> roots) {
+		Set<String> launcher = new HashSet<>();
+		String systemClasspath = System.getProperty("java.class.path");
+		if (systemClasspath != null) {
+			for (String entry : systemClasspath.split(File.pathSeparator)) {
+				launcher.add(entry);
+			}
+		}
+		Set<Path> archives = new LinkedHashSet<>();
+		for (String entry : classpathFor(roots)) {
+			if ((entry.endsWith(".jar") || entry.endsWith(".jmod")) && !launcher.contains(entry)) {
+				archives.add(Paths.get(entry));
+			}
+		}
+		archives.addAll(dependencyJars(roots));
+		return new ArrayList<>(archives);
+	}
+
+	/** Jars of the dependencies the roots' poms declare, resolved in the local Maven repository. */
+	static List<Path> dependencyJars(List<File> roots) {
+		Path repository = localRepository();
+		Set<Path> jars = new LinkedHashSet<>();
+		Set<Path> visited = new HashSet<>();
+		for (File root : roots) {
+			collectDependencyJars(root.toPath().toAbsolutePath().normalize().resolve("pom.xml"), repository, jars, visited);
+		}
+		return new ArrayList<>(jars);
+	}
+
+	/** The {@code maven.repo.local} system property, else {@code ~/.m2/repository}. */
+	static Path localRepository() {
+		String configured = System.getProperty("maven.repo.local");
+		if (configured != null && !configured.trim().isEmpty()) {
+			return Paths.get(configured.trim());
+		}
+		return Paths.get(System.getProperty("user.home"), ".m2", "repository");
+	}
+
+	private static void collectDependencyJars(Path pom, Path repository, Set<Path> jars, Set<Path> visited) {
+		if (!visited.add(pom) || !Files.isRegularFile(pom)) {
+			return;
+		}
+		Element project = readPom(pom);
+		if (project == null) {
+			return;
+		}
+		Map<String, String> properties = new HashMap<>();
+		Map<String, String> managed = new HashMap<>();
+		inherit(pom, project, properties, managed, new HashSet<>());
+		Element dependencies = child(project, "dependencies");
+		for (Element dependency : dependencies == null ? Collections.<Element>emptyList() : children(dependencies, "dependency")) {
+			String scope = text(dependency, "scope");
+			String type = text(dependency, "type");
+			if ("system".equals(scope) || "import".equals(scope) || (type != null && !"jar".equals(type))) {
+				continue;
+			}
+			String groupId = resolve(text(dependency, "groupId"), properties);
+			String artifactId = resolve(text(dependency, "artifactId"), properties);
+			String version = resolve(text(dependency, "version"), properties);
+			if (version == null) {
+				version = managed.get(groupId + ":" + artifactId);
+			}
+			Path jar = locate(repository, groupId, artifactId, version, resolve(text(dependency, "classifier"), properties));
+			if (jar != null) {
+				jars.add(jar);
+			}
+		}
+		Element modules = child(project, "modules");
+		for (Element module : modules == null ? Collections.<Element>emptyList() : children(modules, "module")) {
+			String name = module.getTextContent().trim();
+			Path modulePath = pom.getParent().resolve(name).normalize();
+			collectDependencyJars(name.endsWith(".xml") ? modulePath : modulePath.resolve("pom.xml"), repository, jars, visited);
+		}
+	}
+
+	/**
+	 * Gathers the properties and managed dependency versions a pom sees: those of its parents inside the workspace
+	 * first, then its own, which override them.
+	 */
+	private static void inherit(Path pom, Element project, Map<String, String> properties, Map<String, String> managed,
+			Set<Path> seen) {
+		if (!seen.add(pom)) {
+			return;
+		}
+		Element parent = child(project, "parent");
+		if (parent != null) {
+			String relativePath = text(parent, "relativePath");
+			Path parentPom = pom.getParent().resolve(relativePath == null ? "../pom.xml" : relativePath).normalize();
+			if (Files.isDirectory(parentPom)) {
+				parentPom = parentPom.resolve("pom.xml");
+			}
+			Element parentProject = Files.isRegularFile(parentPom) ? readPom(parentPom) : null;
+			if (parentProject != null) {
+				inherit(parentPom, parentProject, properties, managed, seen);
+			}
+			putIfPresent(properties, "project.parent.version", text(parent, "version"));
+			putIfPresent(properties, "project.parent.groupId", text(parent, "groupId"));
+		}
+		String version = text(project, "version");
+		String groupId = text(project, "groupId");
+		putIfPresent(properties, "project.version", version != null ? version : parent == null ? null : text(parent, "version"));
+		putIfPresent(properties, "project.groupId", groupId != null ? groupId : parent == null ? null : text(parent, "groupId"));
+		Element ownProperties = child(project, "properties");
+		if (ownProperties != null) {
+			NodeList nodes = ownProperties.getChildNodes();
+			for (int i = 0; i < nodes.getLength(); i++) {
+				Node node = nodes.item(i);
+				if (node instanceof Element) {
+					properties.put(localName(node), node.getTextContent().trim());
+				}
+			}
+		}
+		Element management = child(project, "dependencyManagement");
+		Element managedDependencies = management == null ? null : child(management, "dependencies");
+		for (Element dependency : managedDependencies == null ? Collections.<Element>emptyList() : children(managedDependencies, "dependency")) {
+			String managedVersion = resolve(text(dependency, "version"), properties);
+			if (managedVersion != null) {
+				managed.put(resolve(text(dependency, "groupId"), properties) + ":" + resolve(text(dependency, "artifactId"), properties), managedVersion);
+			}
+		}
+	}
+
+	/**
+	 * Jar of an artifact in the local repository. Without a usable version, or when the declared version is not
+	 * there, the newest version present is taken; ranges and unresolved placeholders count as unusable.
+	 */
+	private static Path locate(Path repository, String groupId, String artifactId, String version, String classifier) {
+		if (groupId == null || artifactId == null || groupId.contains("${") || artifactId.contains("${")) {
+			return null;
+		}
+		Path artifactDir = repository.resolve(groupId.replace('.', File.separatorChar)).resolve(artifactId);
+		if (!Files.isDirectory(artifactDir)) {
+			return null;
+		}
+		boolean usable = version != null && !version.contains("${") && !version.startsWith("[") && !version.startsWith("(");
+		if (usable) {
+			Path jar = jarIn(artifactDir, artifactId, version, classifier);
+			if (jar != null) {
+				return jar;
+			}
+		}
+		List<String> versions = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(artifactDir, Files::isDirectory)) {
+			for (Path dir : stream) {
+				versions.add(dir.getFileName().toString());
+			}
+		} catch (IOException ex) {
+			logger.debug("Skipping unreadable repository directory {}: {}", artifactDir, ex.getMessage());
+		}
+		versions.sort(ClasspathBuilder::compareVersions);
+		for (int i = versions.size() - 1; i >= 0; i--) {
+			Path jar = jarIn(artifactDir, artifactId, versions.get(i), classifier);
+			if (jar != null) {
+				return jar;
+			}
+		}
+		return null;
+	}
+
+	private static Path jarIn(Path artifactDir, String artifactId, String version, String classifier) {
+		String name = artifactId + "-" + version + (classifier == null || classifier.isEmpty() ? "" : "-" + classifier) + ".jar";
+		Path jar = artifactDir.resolve(version).resolve(name);
+		return Files.isRegularFile(jar) ? jar : null;
+	}
+
+	/** Orders versions by their numeric parts, falling back to text for qualifiers. */
+	static int compareVersions(String a, String b) {
+		String[] left = a.split("[.\\-]");
+		String[] right = b.split("[.\\-]");
+		for (int i = 0; i < Math.min(left.length, right.length); i++) {
+			int result;
+			if (left[i].matches("\\d{1,9}") && right[i].matches("\\d{1,9}")) {
+				result = Integer.compare(Integer.parseInt(left[i]), Integer.parseInt(right[i]));
+			} else {
+				result = left[i].compareTo(right[i]);
+			}
+			if (result != 0) {
+				return result;
+			}
+		}
+		return Integer.compare(left.length, right.length);
+	}
+
+	private static String resolve(String value, Map<String, String> properties) {
+		if (value == null) {
+			return null;
+		}
+		String resolved = value;
+		// A few rounds cover properties defined in terms of other properties.
+		for (int round = 0; round < 5 && resolved.contains("${"); round++) {
+			Matcher matcher = PLACEHOLDER.matcher(resolved);
+			StringBuilder buffer = new StringBuilder();
+			while (matcher.find()) {
+				String replacement = properties.get(matcher.group(1));
+				matcher.appendReplacement(buffer, Matcher.quoteReplacement(replacement != null ? replacement : matcher.group()));
+			}
+			matcher.appendTail(buffer);
+			if (buffer.toString().equals(resolved)) {
+				break;
+			}
+			resolved = buffer.toString();
+		}
+		return resolved;
+	}
+
+	private static void putIfPresent(Map<String, String> properties, String name, String value) {
+		if (value != null && !value.isEmpty()) {
+			properties.put(name, value);
+		}
+	}
+
+	private static Element readPom(Path pom) {
+		try {
+			return PomCache.document(pom).getDocumentElement();
+		} catch (Exception ex) {
+			logger.debug("Ignoring unreadable pom {}: {}", pom, ex.getMessage());
+			return null;
+		}
+	}
+
+	private static Element child(Element parent, String name) {
+		List<Element> matches = children(parent, name);
+		return matches.isEmpty() ? null : matches.get(0);
+	}
+
+	private static List<Element> children(Element parent, String name) {
+		List<Element> result = new ArrayList<>();
+		NodeList nodes = parent.getChildNodes();
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Node node = nodes.item(i);
+			if (node instanceof Element && name.equals(localName(node))) {
+				result.add((Element) node);
+			}
+		}
+		return result;
+	}
+
+	private static String localName(Node node) {
+		return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+	}
+
+	private static String text(Element parent, String name) {
+		Element child = child(parent, name);
+		if (child == null) {
+			return null;
+		}
+		String value = child.getTextContent().trim();
+		return value.isEmpty() ? null : value;
+	}
+
+	private static Cached build(List<File> roots) {
+		Set<Path> seen = new HashSet<>();
+		List<String> entries = new ArrayList<>();
+		Map<File, Long> stamps = new LinkedHashMap<>();
+		for (File root : roots) {
+			for (String dir : CLASS_DIRS) {
+				File classes = new File(root, dir);
+				stamps.put(classes, classes.lastModified());
+				if (classes.exists()) {
+					add(classes, seen, entries);
+				}
+			}
+			for (String dir : JAR_DIRS) {
+				addJarsUnder(new File(root, dir), seen, entries, stamps);
+			}
+		}
+		String systemClasspath = System.getProperty("java.class.path");
+		if (systemClasspath != null) {
+			for (String entry : systemClasspath.split(File.pathSeparator)) {
+				if (!entry.isEmpty()) {
+					add(new File(entry), seen, entries);
+				}
+			}
+		}
+		return new Cached(entries.toArray(new String[0]), stamps);
+	}
+
+	private static void addJarsUnder(File dir, Set<Path> seen, List<String> entries, Map<File, Long> stamps) {
+		stamps.put(dir, dir.lastModified());
+		if (!dir.isDirectory()) {
+			return;
+		}
+		addJarsIn(dir, seen, entries);
+		File[] subs = dir.listFiles(File::isDirectory);
+		if (subs != null) {
+			Arrays.sort(subs);
+			for (File sub : subs) {
+				stamps.put(sub, sub.lastModified());
+				addJarsIn(sub, seen, entries);
+			}
+		}
+	}
+
+	private static void addJarsIn(File dir, Set<Path> seen, List<String> entries) {
+		File[] jars = dir.listFiles((d, n) -> n.endsWith(".jar"));
+		if (jars != null) {
+			Arrays.sort(jars);
+			for (File jar : jars) {
+				add(jar, seen, entries);
+			}
+		}
+	}
+
+	private static void add(File entry, Set<Path> seen, List<String> entries) {
+		Path path = entry.toPath().toAbsolutePath().normalize();
+		try {
+			path = path.toRealPath();
+		} catch (IOException ignore) {
+			// missing entries keep their normalized path
+		}
+		if (seen.add(path)) {
+			entries.add(path.toString());
+		}
+	}
+
+	private static final class Cached {
+		final String[] classpath;
+		/** Modification time of every probed directory when the classpath was built; 0 for missing ones. */
+		final Map<File, Long> stamps;
+
+		Cached(String[] classpath, Map<File, Long> stamps) {
+			this.classpath = classpath;
+			this.stamps = stamps;
+		}
+
+		boolean isCurrent() {
+			for (Map.Entry<File, Long> stamp : stamps.entrySet()) {
+				if (stamp.getKey().lastModified() != stamp.getValue()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -59,8 +59,99 @@ public class ExtractSuperclassCLI implements Callable<Integer> {
     )
     private boolean verbose = false;
 
+    @Option(
+        names = {"--indexParallelism", "-j"},
+        description = "Number of threads used to parse sources while indexing (default: number of processors)"
+    )
+    private int indexParallelism = 0;
+
+    @Option(
+        names = {"--indexMode"},
+        description = "How sources are handed to the parser while indexing: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})"
+    )
+    private IndexOptions.Mode indexMode = IndexOptions.Mode.HEADERS;
+
+    @Option(
+        names = {"--indexBatchSize"},
+        description = "Compilation units per batched parser call (default: sized from free heap)"
+    )
+    private int indexBatchSize = 0;
+
+    @Option(
+        names = {"--noIndexSnapshot"},
+        description = "Do not load or save the persistent type index under <projectRoot>/.extractsuperclass; skipped files are then only remembered for the run"
+    )
+    private boolean noIndexSnapshot = false;
+
+    @Option(
+        names = {"--indexIgnore"},
+        description = "Comma-separated directory names skipped when searching for modules and sources (replaces the defaults: target, build, out, bin, node_modules, VCS and IDE directories)",
+        split = ","
+    )
+    private List<String> indexIgnore;
+
+    @Option(
+        names = {"--indexWorkers"},
+        description = "Worker JVMs the index parse is sharded across, each with its own heap (default: ${DEFAULT-VALUE}, parse in this process)"
+    )
+    private int indexWorkers = 0;
+
+    @Option(
+        names = {"--indexInvalidation"},
+        description = "How the persistent index detects changed files: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})"
+    )
+    private IndexOptions.Invalidation indexInvalidation = IndexOptions.Invalidation.MTIME;
+
+    @Option(
+        names = {"--indexMaxFileBytes"},
+        description = "Source files larger than this are quarantined instead of indexed; 0 disables the limit (default: ${DEFAULT-VALUE})"
+    )
+    private long indexMaxFileBytes = IndexOptions.DEFAULT_MAX_FILE_BYTES;
+
+    @Option(
+        names = {"--indexParseTimeout"},
+        description = "Milliseconds a single file's parse may take before it is abandoned and the file quarantined; 0 disables the limit (default: ${DEFAULT-VALUE})"
+    )
+    private long indexParseTimeout = IndexOptions.DEFAULT_PARSE_TIMEOUT_MILLIS;
+
+    @Option(
+        names = {"--indexGenerated"},
+        description = "Also index files whose top-level types are annotated @Generated"
+    )
+    private boolean indexGenerated = false;
+
+    @Option(
+        names = {"--includePackages"},
+        description = "Comma-separated package trees to index; files in other packages are left out of the index",
+        split = ","
+    )
+    private List<String> includePackages = new ArrayList<>();
+
+    @Option(
+        names = {"--excludePackages"},
+        description = "Comma-separated package trees left out of the index",
+        split = ","
+    )
+    private List<String> excludePackages = new ArrayList<>();
+
+    @Option(
+        names = {"--includePaths"},
+        description = "Comma-separated globs over source file paths to index; relative globs match at any depth",
+        split = ","
+    )
+    private List<String> includePaths = new ArrayList<>();
+
+    @Option(
+        names = {"--excludePaths"},
+        description = "Comma-separated globs over source file paths left out of the index",
+        split = ","
+    )
+    private List<String> excludePaths = new ArrayList<>();
+
     public static void main(String[] args) {
-        int exitCode = new CommandLine(new ExtractSuperclassCLI()).execute(args);
+        int exitCode = new CommandLine(new ExtractSuperclassCLI())
+            .setCaseInsensitiveEnumValuesAllowed(true)
+            .execute(args);
         System.exit(exitCode);
     }
 
@@ -91,11 +182,55 @@ public class ExtractSuperclassCLI implements Callable<Integer> {
                 }
             }
 
+            if (indexParallelism < 0) {
+                logger.error("indexParallelism cannot be negative: {}", indexParallelism);
+                return 1;
+            }
+            if (indexBatchSize < 0) {
+                logger.error("indexBatchSize cannot be negative: {}", indexBatchSize);
+                return 1;
+            }
+            if (indexWorkers < 0) {
+                logger.error("indexWorkers cannot be negative: {}", indexWorkers);
+                return 1;
+            }
+            if (indexMaxFileBytes < 0) {
+                logger.error("indexMaxFileBytes cannot be negative: {}", indexMaxFileBytes);
+                return 1;
+            }
+            if (indexParseTimeout < 0) {
+                logger.error("indexParseTimeout cannot be negative: {}", indexParseTimeout);
+                return 1;
+            }
+            IndexOptions.Builder indexOptionsBuilder = IndexOptions.builder()
+                .parallelism(indexParallelism)
+                .mode(indexMode)
+                .batchSize(indexBatchSize)
+                .persistentIndex(!noIndexSnapshot)
+                .workers(indexWorkers)
+                .invalidation(indexInvalidation)
+                .maxFileBytes(indexMaxFileBytes)
+                .parseTimeoutMillis(indexParseTimeout)
+                .skipGenerated(!indexGenerated);
+            if (indexIgnore != null) {
+                indexOptionsBuilder.ignoredDirectories(indexIgnore);
+            }
+            IndexOptions indexOptions = indexOptionsBuilder.build();
+
+            SourceFilter sourceFilter = SourceFilter.builder()
+                .includePackages(includePackages)
+                .excludePackages(excludePackages)
+                .includePaths(includePaths)
+                .excludePaths(excludePaths)
+                .build();
+
             ExtractSuperclassRequest request = new ExtractSuperclassRequest(
                 classNamesList,
                 superQualifiedName,
                 dryRun,
-                verbose
+                verbose,
+                indexOptions,
+                sourceFilter
             );
 
             // Perform refactoring
@@ -114,10 +249,12 @@ public class ExtractSuperclassCLI implements Callable<Integer> {
                         logger.info("  - {}", file);
                     }
                 }
+                logQuarantine(result);
                 logger.info("Execution time: {}ms", result.getExecutionTimeMs());
                 return 0;
             } else {
                 logger.error("Extract Superclass refactoring failed: {}", result.getErrorMessage());
+                logQuarantine(result);
                 return 1;
             }
 
@@ -126,4 +263,13 @@ public class ExtractSuperclassCLI implements Callable<Integer> {
             return 1;
         }
     }
+
+    private static void logQuarantine(ExtractSuperclassResult result) {
+        if (!result.getQuarantinedFiles().isEmpty()) {
+            logger.warn("Files skipped while indexing:");
+            for (String file : result.getQuarantinedFiles()) {
+                logger.warn("  - {}", file);
+            }
+        }
+    }
 }
@@ -8,24 +8,41 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class ExtractSuperclassMcpServer {
 	private static final Logger logger = LoggerFactory.getLogger(ExtractSuperclassMcpServer.class);
 	private static final String SERVER_NAME = "Extract Superclass Refactoring MCP Server";
 	private static final String VERSION = "1.0.0";
+	/** System property with the number of requests handled at once; defaults to the processor count, at least 2. */
+	static final String THREADS_PROPERTY = "extractsuperclass.serverThreads";
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final BufferedInputStream inputStream = new BufferedInputStream(System.in);
-    private final PrintWriter writer = new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), true);
+    private final JsonRpcTransport transport = new JsonRpcTransport(System.in, System.out, objectMapper);
+	/** Warm index, module scan and class index per set of project roots, reused across tool calls. */
+	private final WorkspaceSessions sessions = WorkspaceSessions.fromSystemProperties();
+	/**
+	 * Runs requests off the stdin thread, so a slow refactoring holds up neither calls on other workspaces nor
+	 * {@code tools/list}. Responses go out as they complete, matched to their request by id.
+	 */
+	private final ExecutorService dispatcher = Executors.newFixedThreadPool(
+		Math.max(1, Integer.getInteger(THREADS_PROPERTY, Math.max(2, Runtime.getRuntime().availableProcessors()))),
+		runnable -> {
+			Thread thread = new Thread(runnable, "mcp-request");
+			thread.setDaemon(true);
+			return thread;
+		});
+	/** Progress of every tool call read but not yet answered, by request id, for {@code notifications/cancelled}. */
+	private final Map<JsonNode, Progress> inFlight = new ConcurrentHashMap<>();
 
 	public static void main(String[] args) {
 		new ExtractSuperclassMcpServer().run();
@@ -33,128 +50,192 @@ public class ExtractSuperclassMcpServer {
 
 	public void run() {
 		logger.info("Starting MCP Server: {}", SERVER_NAME);
+		sessions.start();
 		try {
 			while (true) {
-				String payload;
+				JsonNode request;
 				try {
-					payload = readFrame();
+					request = transport.read();
+				} catch (JsonProcessingException parseEx) {
+					logger.error("Received malformed JSON-RPC payload: {}", parseEx.getOriginalMessage(), parseEx);
+					continue;
 				} catch (IOException readEx) {
 					logger.error("Failed to read JSON-RPC input: {}", readEx.getMessage(), readEx);
 					return;
 				}
 
-				if (payload == null) {
+				if (request == null) {
 					return;
 				}
 
-				JsonNode request;
-				try {
-					request = objectMapper.readTree(payload);
-				} catch (JsonProcessingException parseEx) {
-					logger.error("Received malformed JSON-RPC payload: {}", parseEx.getOriginalMessage(), parseEx);
-					continue;
-				}
-
-				JsonNode response = handleRequest(request);
-				if (response == null) {
-					continue;
+				if (request.isArray()) {
+					dispatchBatch(request);
+				} else {
+					dispatch(request).thenAccept(response -> {
+						if (response != null) {
+							send(response);
+						}
+					});
 				}
-				writer.println(objectMapper.writeValueAsString(response));
-				writer.flush();
 			}
-		} catch (IOException ioEx) {
-			logger.error("IO error: {}", ioEx.getMessage(), ioEx);
+		} finally {
+			drain();
+			sessions.close();
 		}
 	}
 
-	private String readFrame() throws IOException {
-		while (true) {
-			int contentLength = -1;
-
-			while (true) {
-				String headerLine = readHeaderLine();
-				if (headerLine == null) {
-					return null;
-				}
-
-				if (headerLine.isEmpty()) {
-					if (contentLength >= 0) {
-						break;
-					}
-					continue;
-				}
-
-				int colonIndex = headerLine.indexOf(':');
-				if (colonIndex <= 0 || !isHeaderName(headerLine, colonIndex)) {
-					String trimmed = headerLine.trim();
-					if (!trimmed.isEmpty() && (trimmed.startsWith("{") || trimmed.startsWith("["))) {
-						return trimmed;
-					}
-					logger.warn("Ignoring unrecognised header line: {}", headerLine);
-					continue;
-				}
-
-				String headerName = headerLine.substring(0, colonIndex).trim().toLowerCase(Locale.ROOT);
-				String headerValue = headerLine.substring(colonIndex + 1).trim();
+	/**
+	 * Hands a request to the dispatcher and returns its response, or null when it gets none. Calls that write files
+	 * are queued per project root and run in the order they arrived; everything else, dry runs included, starts right
+	 * away. The refactorer's root locks keep writes exclusive and let dry runs share the roots, whichever session
+	 * serves them.
+	 */
+	private CompletableFuture<JsonNode> dispatch(JsonNode request) {
+		if ("notifications/cancelled".equals(request.path("method").asText(null))) {
+			// Handled on the reading thread, so it reaches a call that is still queued or running.
+			cancel(request.path("params"));
+			return CompletableFuture.completedFuture(null);
+		}
+		Progress progress = track(request);
+		List<File> roots = writingRoots(request);
+		if (roots == null) {
+			return CompletableFuture.supplyAsync(() -> respond(request, progress), dispatcher);
+		}
+		return sessions.locks().queueWrite(roots, () -> respond(request, progress), dispatcher);
+	}
 
-				if ("content-length".equals(headerName)) {
-					try {
-						contentLength = Integer.parseInt(headerValue);
-					} catch (NumberFormatException nfEx) {
-						throw new IOException("Invalid Content-Length header value: " + headerValue, nfEx);
-					}
+	/**
+	 * Dispatches every call of a JSON-RPC batch as if it had arrived on its own, so calls on different workspaces,
+	 * and dry runs on the same one, run in parallel. Once the last call has finished the responses go out as one
+	 * array, in the order of the batch. Notifications and cancelled calls have no entry, and a batch with nothing
+	 * to answer gets no response at all. An empty batch is answered with a single Invalid Request error.
+	 */
+	private void dispatchBatch(JsonNode batch) {
+		if (batch.isEmpty()) {
+			send(createErrorResponse(null, -32600, "Invalid Request", "Empty batch"));
+			return;
+		}
+		List<CompletableFuture<JsonNode>> calls = new ArrayList<>();
+		for (JsonNode request : batch) {
+			calls.add(request.isObject()
+				? dispatch(request)
+				: CompletableFuture.completedFuture(createErrorResponse(null, -32600, "Invalid Request", "Batch entries must be objects")));
+		}
+		logger.debug("Dispatched a batch of {} request(s)", calls.size());
+		CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, failure) -> {
+			ArrayNode responses = objectMapper.createArrayNode();
+			for (CompletableFuture<JsonNode> call : calls) {
+				JsonNode response = call.isCompletedExceptionally() ? null : call.join();
+				if (response != null) {
+					responses.add(response);
 				}
 			}
-
-			if (contentLength < 0) {
-				logger.warn("Missing Content-Length header; waiting for the next frame.");
-				continue;
+			if (!responses.isEmpty()) {
+				send(responses);
 			}
+		});
+	}
 
-			byte[] payload = inputStream.readNBytes(contentLength);
-			if (payload.length < contentLength) {
-				throw new IOException("Unexpected end of stream while reading JSON-RPC payload.");
+	/** Project roots of an {@code extract_superclass} call that may write files, or null for any other request. */
+	private List<File> writingRoots(JsonNode request) {
+		JsonNode params = request.path("params");
+		if (!"tools/call".equals(request.path("method").asText(null))
+			|| !"extract_superclass".equals(params.path("name").asText(null))) {
+			return null;
+		}
+		JsonNode arguments = params.path("arguments");
+		if (arguments.path("dryRun").asBoolean(false)) {
+			return null;
+		}
+		List<File> roots = new ArrayList<>();
+		List<String> paths = new ArrayList<>(collectStringValues(arguments.path("projectRoot")));
+		paths.addAll(collectStringValues(arguments.path("projectRoots")));
+		for (String root : paths) {
+			if (!root.isEmpty()) {
+				roots.add(new File(root));
 			}
-			return new String(payload, StandardCharsets.UTF_8);
 		}
+		return roots.isEmpty() ? null : roots;
 	}
 
-	private String readHeaderLine() throws IOException {
-		StringBuilder line = new StringBuilder();
-		int ch;
-		boolean seenCarriageReturn = false;
-		while ((ch = inputStream.read()) != -1) {
-			if (ch == '\r') {
-				seenCarriageReturn = true;
-				continue;
-			}
-			if (ch == '\n') {
-				break;
+	/**
+	 * The progress of a tool call with an id, registered so that the call can be cancelled; calls that asked for
+	 * progress with {@code _meta.progressToken} get {@code notifications/progress} sent as they run. Other requests
+	 * get {@link Progress#NONE}.
+	 */
+	private Progress track(JsonNode request) {
+		JsonNode id = extractId(request);
+		if (id == null || !"tools/call".equals(request.path("method").asText(null))) {
+			return Progress.NONE;
+		}
+		JsonNode token = request.path("params").path("_meta").get("progressToken");
+		Progress progress = new Progress(token != null && (token.isTextual() || token.isNumber()) ? new ProgressNotifier(token) : null);
+		inFlight.put(id, progress);
+		return progress;
+	}
+
+	/** Cancels the call named by a {@code notifications/cancelled}; unknown or finished calls are ignored. */
+	private void cancel(JsonNode params) {
+		JsonNode requestId = params.path("requestId");
+		Progress progress = inFlight.get(requestId);
+		if (progress == null) {
+			logger.debug("Ignoring cancellation of request {}, which is not in flight", requestId);
+			return;
+		}
+		logger.info("Cancelling request {}: {}", requestId, params.path("reason").asText("no reason given"));
+		progress.cancel();
+	}
+
+	/** Handles a request on the calling thread and returns its response, or null when it gets none. */
+	private JsonNode respond(JsonNode request, Progress progress) {
+		JsonNode id = extractId(request);
+		JsonNode response = null;
+		try {
+			if (!progress.isCancelled()) {
+				response = handleRequest(request, progress);
 			}
-			if (seenCarriageReturn) {
-				line.append('\r');
-				seenCarriageReturn = false;
+		} catch (RuntimeException ex) {
+			logger.error("Request failed with exception", ex);
+			response = respondOrIgnore(id, -32603, "Internal error", ex.getMessage());
+		} finally {
+			if (id != null) {
+				inFlight.remove(id, progress);
 			}
-			line.append((char) ch);
 		}
-
-		if (ch == -1 && line.length() == 0 && !seenCarriageReturn) {
+		if (progress.isCancelled()) {
+			// A cancelled request gets no response.
+			logger.debug("Request {} was cancelled; not responding", id);
 			return null;
 		}
-		return line.toString();
+		return response;
+	}
+
+	/** Writes one message; the only place output is written, so concurrent responses never interleave. */
+	private void send(JsonNode response) {
+		try {
+			transport.write(response);
+		} catch (IOException ex) {
+			logger.error("Failed to write response: {}", ex.getMessage(), ex);
+		}
 	}
 
-	private boolean isHeaderName(String headerLine, int colonIndex) {
-		for (int i = 0; i < colonIndex; i++) {
-			char ch = headerLine.charAt(i);
-			if (!Character.isLetter(ch) && ch != '-' && ch != '_') {
-				return false;
+	/** Lets every request already read finish and answer before the server exits. */
+	private void drain() {
+		List<CompletableFuture<?>> pending = sessions.locks().pendingWrites();
+		for (CompletableFuture<?> queued : pending) {
+			queued.handle((ignored, failure) -> null).join();
+		}
+		dispatcher.shutdown();
+		try {
+			if (!dispatcher.awaitTermination(1, TimeUnit.HOURS)) {
+				logger.warn("Requests still running at shutdown were abandoned");
 			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
 		}
-		return true;
 	}
 
-	private JsonNode handleRequest(JsonNode request) {
+	private JsonNode handleRequest(JsonNode request, Progress progress) {
 		JsonNode id = extractId(request);
 		String method = request.path("method").asText(null);
 		JsonNode params = request.path("params");
@@ -169,7 +250,7 @@ public class ExtractSuperclassMcpServer {
 			case "tools/list":
 				return handleToolsList(id);
 			case "tools/call":
-				return handleToolsCall(id, params);
+				return handleToolsCall(id, params, progress);
 			default:
 				return respondOrIgnore(id, -32601, "Method not found", "Unknown method: " + method);
 		}
@@ -243,6 +324,75 @@ public class ExtractSuperclassMcpServer {
 		properties.set("superQualifiedName", createStringProperty("Optional fully qualified name for the new superclass.", false));
 		properties.set("superName", createStringProperty("Alias for superQualifiedName to match CLI arguments.", false));
 
+		ObjectNode indexParallelismProperty = objectMapper.createObjectNode();
+		indexParallelismProperty.put("type", "integer");
+		indexParallelismProperty.put("description", "Optional number of threads used to parse sources while indexing. Defaults to the number of processors.");
+		indexParallelismProperty.put("minimum", 0);
+		properties.set("indexParallelism", indexParallelismProperty);
+
+		ObjectNode indexModeProperty = createStringProperty("Optional indexing mode: HEADERS (default) parses each file without method bodies, PER_FILE parses each file including method bodies, BATCHED parses batches of files in one parser call. Bindings are resolved for the target classes only.", false);
+		ArrayNode indexModes = objectMapper.createArrayNode();
+		for (IndexOptions.Mode mode : IndexOptions.Mode.values()) {
+			indexModes.add(mode.name());
+		}
+		indexModeProperty.set("enum", indexModes);
+		properties.set("indexMode", indexModeProperty);
+
+		ObjectNode indexBatchSizeProperty = objectMapper.createObjectNode();
+		indexBatchSizeProperty.put("type", "integer");
+		indexBatchSizeProperty.put("description", "Optional number of compilation units per batched parser call. Defaults to a size derived from free heap.");
+		indexBatchSizeProperty.put("minimum", 0);
+		properties.set("indexBatchSize", indexBatchSizeProperty);
+
+		ObjectNode indexSnapshotProperty = objectMapper.createObjectNode();
+		indexSnapshotProperty.put("type", "boolean");
+		indexSnapshotProperty.put("description", "Whether to reuse and update the persistent type index and quarantine stored under <projectRoot>/.extractsuperclass; without them skipped files are only remembered by the session. Defaults to true.");
+		properties.set("indexSnapshot", indexSnapshotProperty);
+
+		ObjectNode indexIgnoreProperty = objectMapper.createObjectNode();
+		indexIgnoreProperty.put("type", "array");
+		indexIgnoreProperty.put("description", "Optional directory names skipped when searching for modules and sources. Replaces the defaults (target, build, out, bin, node_modules, VCS and IDE directories).");
+		ObjectNode indexIgnoreItems = objectMapper.createObjectNode();
+		indexIgnoreItems.put("type", "string");
+		indexIgnoreProperty.set("items", indexIgnoreItems);
+		properties.set("indexIgnore", indexIgnoreProperty);
+
+		ObjectNode indexWorkersProperty = objectMapper.createObjectNode();
+		indexWorkersProperty.put("type", "integer");
+		indexWorkersProperty.put("description", "Optional number of worker JVMs the index parse is sharded across, each with its own heap. Defaults to 0 (parse in the server process).");
+		indexWorkersProperty.put("minimum", 0);
+		properties.set("indexWorkers", indexWorkersProperty);
+
+		ObjectNode indexInvalidationProperty = createStringProperty("Optional way the persistent index detects changed files: MTIME (default) compares size and modification time, GIT reuses files that the root's .git index reports unmodified by blob id without reading them.", false);
+		ArrayNode indexInvalidations = objectMapper.createArrayNode();
+		for (IndexOptions.Invalidation invalidation : IndexOptions.Invalidation.values()) {
+			indexInvalidations.add(invalidation.name());
+		}
+		indexInvalidationProperty.set("enum", indexInvalidations);
+		properties.set("indexInvalidation", indexInvalidationProperty);
+
+		ObjectNode indexMaxFileBytesProperty = objectMapper.createObjectNode();
+		indexMaxFileBytesProperty.put("type", "integer");
+		indexMaxFileBytesProperty.put("description", "Optional size in bytes above which a source file is quarantined instead of indexed; 0 disables the limit. Defaults to " + IndexOptions.DEFAULT_MAX_FILE_BYTES + ".");
+		indexMaxFileBytesProperty.put("minimum", 0);
+		properties.set("indexMaxFileBytes", indexMaxFileBytesProperty);
+
+		ObjectNode indexParseTimeoutProperty = objectMapper.createObjectNode();
+		indexParseTimeoutProperty.put("type", "integer");
+		indexParseTimeoutProperty.put("description", "Optional milliseconds a single file's parse may take before it is abandoned and the file quarantined; 0 disables the limit. Defaults to " + IndexOptions.DEFAULT_PARSE_TIMEOUT_MILLIS + ".");
+		indexParseTimeoutProperty.put("minimum", 0);
+		properties.set("indexParseTimeoutMs", indexParseTimeoutProperty);
+
+		ObjectNode indexSkipGeneratedProperty = objectMapper.createObjectNode();
+		indexSkipGeneratedProperty.put("type", "boolean");
+		indexSkipGeneratedProperty.put("description", "Whether files whose top-level types are annotated @Generated are left out of the index. Defaults to true.");
+		properties.set("indexSkipGenerated", indexSkipGeneratedProperty);
+
+		properties.set("includePackages", createStringArrayProperty("Optional package trees to index (each covers its subpackages). When given, files in other packages are not indexed; bindings still resolve against every source directory."));
+		properties.set("excludePackages", createStringArrayProperty("Optional package trees left out of indexing."));
+		properties.set("includePaths", createStringArrayProperty("Optional globs over absolute source file paths to index; a glob not starting with / or ** matches at any depth."));
+		properties.set("excludePaths", createStringArrayProperty("Optional globs over absolute source file paths left out of indexing."));
+
 		inputSchema.set("properties", properties);
 		tool.set("inputSchema", inputSchema);
 
@@ -253,7 +403,7 @@ public class ExtractSuperclassMcpServer {
 		return response;
 	}
 
-	private JsonNode handleToolsCall(JsonNode id, JsonNode params) {
+	private JsonNode handleToolsCall(JsonNode id, JsonNode params, Progress progress) {
 		String toolName = params.path("name").asText();
 		JsonNode arguments = params.path("arguments");
 		logger.info("Calling tool: {}", toolName);
@@ -263,13 +413,13 @@ public class ExtractSuperclassMcpServer {
 		}
 
 		if ("extract_superclass".equals(toolName)) {
-			return handleExtractSuperclass(id, arguments);
+			return handleExtractSuperclass(id, arguments, progress);
 		}
 
 		return respondOrIgnore(id, -32601, "Tool not found", "Unknown tool: " + toolName);
 	}
 
-	private JsonNode handleExtractSuperclass(JsonNode id, JsonNode arguments) {
+	private JsonNode handleExtractSuperclass(JsonNode id, JsonNode arguments, Progress progress) {
 		List<String> projectRoots = new ArrayList<>();
 		projectRoots.addAll(collectStringValues(arguments.path("projectRoot")));
 		projectRoots.addAll(collectStringValues(arguments.path("projectRoots")));
@@ -293,6 +443,46 @@ public class ExtractSuperclassMcpServer {
 
 		boolean dryRun = arguments.path("dryRun").asBoolean(false);
 		boolean verbose = arguments.path("verbose").asBoolean(false);
+		int indexParallelism = arguments.path("indexParallelism").asInt(0);
+		if (indexParallelism < 0) {
+			return respondOrIgnore(id, -32602, "Invalid parameters", "indexParallelism cannot be negative: " + indexParallelism);
+		}
+		int indexBatchSize = arguments.path("indexBatchSize").asInt(0);
+		if (indexBatchSize < 0) {
+			return respondOrIgnore(id, -32602, "Invalid parameters", "indexBatchSize cannot be negative: " + indexBatchSize);
+		}
+		int indexWorkers = arguments.path("indexWorkers").asInt(0);
+		if (indexWorkers < 0) {
+			return respondOrIgnore(id, -32602, "Invalid parameters", "indexWorkers cannot be negative: " + indexWorkers);
+		}
+		long indexMaxFileBytes = arguments.path("indexMaxFileBytes").asLong(IndexOptions.DEFAULT_MAX_FILE_BYTES);
+		if (indexMaxFileBytes < 0) {
+			return respondOrIgnore(id, -32602, "Invalid parameters", "indexMaxFileBytes cannot be negative: " + indexMaxFileBytes);
+		}
+		long indexParseTimeout = arguments.path("indexParseTimeoutMs").asLong(IndexOptions.DEFAULT_PARSE_TIMEOUT_MILLIS);
+		if (indexParseTimeout < 0) {
+			return respondOrIgnore(id, -32602, "Invalid parameters", "indexParseTimeoutMs cannot be negative: " + indexParseTimeout);
+		}
+		boolean indexSkipGenerated = arguments.path("indexSkipGenerated").asBoolean(true);
+		boolean indexSnapshot = arguments.path("indexSnapshot").asBoolean(true);
+		IndexOptions.Mode indexMode = IndexOptions.Mode.HEADERS;
+		String indexModeText = optionalText(arguments, "indexMode");
+		if (indexModeText != null) {
+			try {
+				indexMode = IndexOptions.Mode.parse(indexModeText);
+			} catch (IllegalArgumentException ex) {
+				return respondOrIgnore(id, -32602, "Invalid parameters", ex.getMessage());
+			}
+		}
+		IndexOptions.Invalidation indexInvalidation = IndexOptions.Invalidation.MTIME;
+		String indexInvalidationText = optionalText(arguments, "indexInvalidation");
+		if (indexInvalidationText != null) {
+			try {
+				indexInvalidation = IndexOptions.Invalidation.parse(indexInvalidationText);
+			} catch (IllegalArgumentException ex) {
+				return respondOrIgnore(id, -32602, "Invalid parameters", ex.getMessage());
+			}
+		}
 
 		List<File> projectRootFiles = new ArrayList<>();
 		List<String> invalidRoots = new ArrayList<>();
@@ -325,18 +515,47 @@ public class ExtractSuperclassMcpServer {
 		);
 
 		ExtractSuperclassResult result;
+		WorkspaceSessions.Session session = null;
 		try {
-			ExtractSuperclassRefactorer refactorer = new ExtractSuperclassRefactorer(projectRootFiles);
+			IndexOptions.Builder indexOptionsBuilder = IndexOptions.builder()
+				.parallelism(indexParallelism)
+				.mode(indexMode)
+				.batchSize(indexBatchSize)
+				.persistentIndex(indexSnapshot)
+				.workers(indexWorkers)
+				.invalidation(indexInvalidation)
+				.maxFileBytes(indexMaxFileBytes)
+				.parseTimeoutMillis(indexParseTimeout)
+				.skipGenerated(indexSkipGenerated);
+			if (arguments.has("indexIgnore")) {
+				indexOptionsBuilder.ignoredDirectories(collectStringValues(arguments.path("indexIgnore")));
+			}
+			IndexOptions indexOptions = indexOptionsBuilder.build();
+			SourceFilter sourceFilter = SourceFilter.builder()
+				.includePackages(collectStringValues(arguments.path("includePackages")))
+				.excludePackages(collectStringValues(arguments.path("excludePackages")))
+				.includePaths(collectStringValues(arguments.path("includePaths")))
+				.excludePaths(collectStringValues(arguments.path("excludePaths")))
+				.build();
 			ExtractSuperclassRequest request = new ExtractSuperclassRequest(
 				classNames,
 				superQualifiedName,
 				dryRun,
-				verbose
+				verbose,
+				indexOptions,
+				sourceFilter
 			);
-			result = refactorer.performRefactoring(request);
+			// Dry runs get read-only sessions of their own, whose rescans never save a snapshot into the roots.
+			session = sessions.acquire(projectRootFiles, request.indexOptions());
+			result = session.refactorer.performRefactoring(request, progress);
 		} catch (Exception ex) {
 			logger.error("Refactoring failed with exception", ex);
 			return respondOrIgnore(id, -32603, "Internal error", ex.getMessage());
+		} finally {
+			if (session != null) {
+				sessions.release(session);
+			}
+			logger.debug("Heap held by caches: {}", MemoryGovernor.get().report());
 		}
 
 		if (id == null) {
@@ -380,6 +599,12 @@ public class ExtractSuperclassMcpServer {
 			}
 			resultText.append("  ").append(errorMessage).append("\n");
 		}
+		if (!result.getQuarantinedFiles().isEmpty()) {
+			resultText.append("  Files skipped while indexing:\n");
+			for (String file : result.getQuarantinedFiles()) {
+				resultText.append("    ").append(file).append("\n");
+			}
+		}
 
 		textContent.put("text", resultText.toString());
 		content.add(textContent);
@@ -398,6 +623,11 @@ public class ExtractSuperclassMcpServer {
 			}
 		}
 		toolResult.set("modifiedFiles", modifiedFiles);
+		ArrayNode quarantinedFiles = objectMapper.createArrayNode();
+		for (String file : result.getQuarantinedFiles()) {
+			quarantinedFiles.add(file);
+		}
+		toolResult.set("quarantinedFiles", quarantinedFiles);
 
 		response.set("result", toolResult);
 		return response;
@@ -423,6 +653,8 @@ public class ExtractSuperclassMcpServer {
 		response.put("jsonrpc", "2.0");
 		if (id != null) {
 			response.set("id", id);
+		} else {
+			response.putNull("id");
 		}
 
 		ObjectNode error = objectMapper.createObjectNode();
@@ -465,6 +697,16 @@ public class ExtractSuperclassMcpServer {
 		return property;
 	}
 
+	private ObjectNode createStringArrayProperty(String description) {
+		ObjectNode property = objectMapper.createObjectNode();
+		property.put("type", "array");
+		property.put("description", description);
+		ObjectNode items = objectMapper.createObjectNode();
+		items.put("type", "string");
+		property.set("items", items);
+		return property;
+	}
+
 	private List<String> collectStringValues(JsonNode node) {
 		List<String> values = new ArrayList<>();
 		if (node == null || node.isMissingNode() || node.isNull()) {
@@ -504,4 +746,59 @@ public class ExtractSuperclassMcpServer {
 		String text = value.asText("").trim();
 		return text.isEmpty() ? null : text;
 	}
+
+	/**
+	 * Sends {@code notifications/progress} for one call as a percentage of the whole request: poms scanned cover the
+	 * first 10, files indexed up to 90 and targets rewritten the rest. A stage reported after a later one, such as the
+	 * pom scan that places the superclass once the index is built, only sends when it moves the percentage forward,
+	 * so the progress the client sees never goes back.
+	 */
+	private final class ProgressNotifier implements Progress.Listener {
+		private final JsonNode token;
+		/** Last percentage sent; guarded by this, which is held while sending so notifications go out in order. */
+		private int sent;
+
+		ProgressNotifier(JsonNode token) {
+			this.token = token;
+		}
+
+		@Override
+		public synchronized void report(Progress.Stage stage, int done, int total) {
+			int from;
+			int span;
+			String message;
+			switch (stage) {
+				case POMS:
+					from = 0;
+					span = 10;
+					message = "Scanned " + done + " of " + total + " module pom(s)";
+					break;
+				case INDEXING:
+					from = 10;
+					span = 80;
+					message = "Indexed " + done + " of " + total + " source file(s)";
+					break;
+				default:
+					from = 90;
+					span = 10;
+					message = "Rewrote " + done + " of " + total + " target class(es)";
+					break;
+			}
+			int percent = from + (total <= 0 ? span : (int) ((long) span * Math.min(done, total) / total));
+			if (percent <= sent) {
+				return;
+			}
+			sent = percent;
+			ObjectNode notification = objectMapper.createObjectNode();
+			notification.put("jsonrpc", "2.0");
+			notification.put("method", "notifications/progress");
+			ObjectNode params = objectMapper.createObjectNode();
+			params.set("progressToken", token);
+			params.put("progress", percent);
+			params.put("total", 100);
+			params.put("message", message);
+			notification.set("params", params);
+			send(notification);
+		}
+	}
 }
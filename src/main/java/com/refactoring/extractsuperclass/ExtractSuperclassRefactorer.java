@@ -8,33 +8,135 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class ExtractSuperclassRefactorer {
 	private static final Logger logger = LoggerFactory.getLogger(ExtractSuperclassRefactorer.class);
 
 	private final List<File> projectRoots;
 	private final ModuleDependencyManager moduleDependencyManager;
+	private final WorkspaceIndex workspaceIndex;
+	/** Per-root locks shared with the other sessions of the MCP server; see {@link WorkspaceLocks}. */
+	private final WorkspaceLocks workspaceLocks;
+	/** Compiled supertypes of the roots' dependencies and the JDK, for superclasses JDT could not bind. */
+	private final ClassIndex classIndex;
 
 	public ExtractSuperclassRefactorer(List<File> projectRoots) {
+		this(projectRoots, null);
+	}
+
+	/**
+	 * Creates a refactorer that reads types from a live workspace index instead of scanning the roots per request.
+	 */
+	ExtractSuperclassRefactorer(List<File> projectRoots, WorkspaceIndex workspaceIndex) {
+		this(projectRoots, workspaceIndex, new WorkspaceLocks());
+	}
+
+	/**
+	 * Creates a refactorer over a live workspace index that, before it uses the index, locks its roots in
+	 * {@code workspaceLocks} against calls on the same roots served by other indexes.
+	 */
+	ExtractSuperclassRefactorer(List<File> projectRoots, WorkspaceIndex workspaceIndex, WorkspaceLocks workspaceLocks) {
 		this.projectRoots = new ArrayList<>(projectRoots);
-		this.moduleDependencyManager = new ModuleDependencyManager(this.projectRoots, logger);
+		this.moduleDependencyManager = workspaceIndex == null
+			? new ModuleDependencyManager(this.projectRoots, logger)
+			: new ModuleDependencyManager(this.projectRoots, logger, workspaceIndex::buildFileGeneration);
+		this.workspaceIndex = workspaceIndex;
+		this.workspaceLocks = workspaceLocks;
+		this.classIndex = new ClassIndex(this.projectRoots);
 	}
 
 	public ExtractSuperclassResult performRefactoring(ExtractSuperclassRequest request) {
+		return performRefactoring(request, Progress.NONE);
+	}
+
+	/**
+	 * Performs the refactoring, reporting indexing, pom and rewrite progress to {@code progress}. Once it is cancelled
+	 * the refactoring stops at its next checkpoint, restores the files it already rewrote, deletes the superclass
+	 * file it created and fails with a cancellation message.
+	 */
+	ExtractSuperclassResult performRefactoring(ExtractSuperclassRequest request, Progress progress) {
+		if (workspaceIndex == null) {
+			return refactor(request, progress);
+		}
+		// Other sessions may serve the same roots from an index of their own; the root locks keep a write exclusive
+		// against their calls as well.
+		WorkspaceLocks.Held roots = workspaceLocks.lock(projectRoots, !request.dryRun());
+		try {
+			return refactorOnIndex(request, progress);
+		} finally {
+			roots.close();
+		}
+	}
+
+	private ExtractSuperclassResult refactorOnIndex(ExtractSuperclassRequest request, Progress progress) {
+		// The watcher thread updates the live index in place; hold it steady for the whole request. Writes run alone,
+		// dry runs share the index with each other.
+		ReentrantReadWriteLock lock = workspaceIndex.requestLock();
+		if (!request.dryRun()) {
+			lock.writeLock().lock();
+			try {
+				return refactor(request, progress);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		if (lock.writeLock().tryLock()) {
+			// No one else is using the index: apply queued file events first, then downgrade to a shared lock.
+			try {
+				workspaceIndex.flush();
+				lock.readLock().lock();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} else {
+			lock.readLock().lock();
+		}
+		try {
+			return refactor(request, progress);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private ExtractSuperclassResult refactor(ExtractSuperclassRequest request, Progress progress) {
 		long start = System.currentTimeMillis();
+		// Original content of every file written so far, or null for files this request created.
+		Map<Path, String> journal = new LinkedHashMap<>();
 		try {
-			RefEnv env = RefEnv.build(projectRoots);
+			progress.checkpoint();
+			classIndex.refresh();
+			// Target-first: unless a finished workspace index is at hand, index only where the targets are likely to be
+			// and start planning as soon as they and their superclasses resolve there. A request with its own source
+			// filter indexes just its slice; the shared workspace index always covers everything.
+			SourceFilter filter = request.sourceFilter();
+			boolean live = workspaceIndex != null && filter.isAll();
+			RefEnv env = live && workspaceIndex.ready()
+				? workspaceIndex.env()
+				: RefEnv.buildScoped(projectRoots, request.indexOptions(), filter, request.classNames(), moduleDependencyManager, progress);
+			SourceLoader.Cache sources = new SourceLoader.Cache();
 			List<String> resolvedFqns = resolveInputClassNames(env, request.classNames());
 			List<TargetType> targets = resolveTargets(env, resolvedFqns);
+			if (env.scoped && !resolvedWithinScope(env, request.classNames(), targets)) {
+				logger.info("Resolution needs modules outside the dependency closure; waiting for the whole workspace index");
+				env = live ? workspaceIndex.env() : RefEnv.build(projectRoots, request.indexOptions(), filter, progress);
+				resolvedFqns = resolveInputClassNames(env, request.classNames());
+				targets = resolveTargets(env, resolvedFqns);
+			}
+			List<String> quarantined = describeQuarantine(env);
 			if (targets.size() < 2) {
-				return ExtractSuperclassResult.failure("Could not resolve two or more classes").executionTimeMs(elapsed(start)).build();
+				return ExtractSuperclassResult.failure("Could not resolve two or more classes")
+					.quarantinedFiles(quarantined)
+					.executionTimeMs(elapsed(start))
+					.build();
 			}
 
 			// Determine existing superclass situation
@@ -47,32 +149,40 @@ public class ExtractSuperclassRefactorer {
 				// Create new abstract superclass and set for all
 				NameParts plannedName = planSuperclassName(request, targets);
 				if (plannedName.simple == null || plannedName.simple.isEmpty()) {
-					return ExtractSuperclassResult.failure("Invalid superclass name plan").executionTimeMs(elapsed(start)).build();
+					return ExtractSuperclassResult.failure("Invalid superclass name plan").quarantinedFiles(quarantined).executionTimeMs(elapsed(start)).build();
 				}
 				boolean allowPackageInference = request.superQualifiedName() == null || request.superQualifiedName().isEmpty();
-				SuperclassPlacement placement = moduleDependencyManager.planSuperclassPlacement(env, plannedName, targets, allowPackageInference);
+				SuperclassPlacement placement = moduleDependencyManager.planSuperclassPlacement(env, plannedName, targets, allowPackageInference, progress);
 				NameParts name = placement.name;
 				resultingSuperName = name.qualified();
 				Path superFile = null;
 				if (!request.dryRun()) {
 					TargetType anchor = targets.isEmpty() ? null : targets.get(0);
-					superFile = ensureSuperclassFile(env, placement, anchor, null, true);
+					superFile = ensureSuperclassFile(env, placement, anchor, null, true, journal);
 					if (superFile != null) modified.add(superFile.toString());
-					for (TargetType t : targets) {
+					for (int i = 0; i < targets.size(); i++) {
+						progress.checkpoint();
+						progress.report(Progress.Stage.REWRITING, i, targets.size());
+						TargetType t = targets.get(i);
 						Path p = t.filePath;
-						String original = Files.readString(p, StandardCharsets.UTF_8);
-						String updated = rewriteTypeToExtend(original, t.typeDecl, name.qualified(), /*allowReplace*/ false);
+						String original = sources.text(p);
+						String updated = rewriteTypeToExtend(original, t, name.qualified(), /*allowReplace*/ false);
 						if (!Objects.equals(original, updated)) {
+							journal.putIfAbsent(p, original);
 							Files.writeString(p, updated, StandardCharsets.UTF_8);
+							sources.update(p, updated);
 							modified.add(p.toString());
-							try { organizeImports(env, p, updated, Collections.emptyList()); } catch (Throwable ex) { logger.debug("Import organization skipped for {}: {}", p, String.valueOf(ex.getMessage())); }
+							try { organizeImports(env, sources, p, updated, Collections.emptyList()); } catch (Throwable ex) { logger.debug("Import organization skipped for {}: {}", p, String.valueOf(ex.getMessage())); }
 						}
 					}
+					progress.report(Progress.Stage.REWRITING, targets.size(), targets.size());
 					try {
-						List<Path> updatedPoms = moduleDependencyManager.ensureModuleDependencies(superFile, targets);
+						List<Path> updatedPoms = moduleDependencyManager.ensureModuleDependencies(superFile, targets, progress);
 						for (Path pomPath : updatedPoms) {
 							modified.add(pomPath.toString());
 						}
+					} catch (CancellationException ex) {
+						throw ex;
 					} catch (Exception ex) {
 						logger.warn("Failed to update module dependencies", ex);
 					}
@@ -81,19 +191,22 @@ public class ExtractSuperclassRefactorer {
 				// Do not create a new class; make those without extends directly extend the superclass of the one that has it
 				TargetType pivot = situation.oneWith;
 				// Determine pivot's current superclass name (prefer FQN if resolvable)
-				String pivotSuperSimple = pivot.typeDecl.getSuperclassType() != null ? pivot.typeDecl.getSuperclassType().toString() : null;
+				String pivotSuperSimple = pivot.superclassName;
 				String pivotSuperFqn = resolveExistingSuperclassQualifiedName(env, pivot);
 				if (pivotSuperFqn == null) {
 					pivotSuperFqn = resolveTypeNameToFqn(env, pivotSuperSimple, pivot.packageName);
 				}
 				resultingSuperName = pivotSuperFqn != null ? pivotSuperFqn : pivotSuperSimple;
 				if (!request.dryRun()) {
-					for (TargetType t : targets) {
+					for (int i = 0; i < targets.size(); i++) {
+						progress.checkpoint();
+						progress.report(Progress.Stage.REWRITING, i, targets.size());
+						TargetType t = targets.get(i);
 						if (t == pivot) continue;
 						// Only update if the target currently has no superclass
-						if (t.typeDecl.getSuperclassType() != null) continue;
+						if (t.hasSuperclass()) continue;
 						Path p = t.filePath;
-						String original = Files.readString(p, StandardCharsets.UTF_8);
+						String original = sources.text(p);
 						String superNameToUse;
 						if (pivotSuperFqn != null) {
 							NameParts parts = NameParts.fromQualified(pivotSuperFqn);
@@ -104,9 +217,11 @@ public class ExtractSuperclassRefactorer {
 						if (superNameToUse == null || superNameToUse.isEmpty()) {
 							continue; // nothing to do if we cannot determine a superclass
 						}
-						String updated = rewriteTypeToExtend(original, t.typeDecl, superNameToUse, /*allowReplace*/ false);
+						String updated = rewriteTypeToExtend(original, t, superNameToUse, /*allowReplace*/ false);
 						if (!Objects.equals(original, updated)) {
+							journal.putIfAbsent(p, original);
 							Files.writeString(p, updated, StandardCharsets.UTF_8);
+							sources.update(p, updated);
 							modified.add(p.toString());
 							try {
 								List<String> ensureImports = Collections.emptyList();
@@ -116,52 +231,61 @@ public class ExtractSuperclassRefactorer {
 										ensureImports = Collections.singletonList(pivotSuperFqn);
 									}
 								}
-								organizeImports(env, p, updated, ensureImports);
+								organizeImports(env, sources, p, updated, ensureImports);
 							} catch (Throwable ex) { logger.debug("Import organization skipped for {}: {}", p, String.valueOf(ex.getMessage())); }
 						}
 					}
+					progress.report(Progress.Stage.REWRITING, targets.size(), targets.size());
 				}
 			} else {
 				String sharedSuper = findCommonSuperclassQualifiedName(env, targets);
 				if (sharedSuper != null) {
 					NameParts plannedName = planSuperclassName(request, targets);
 					if (plannedName.simple == null || plannedName.simple.isEmpty()) {
-						return ExtractSuperclassResult.failure("Invalid superclass name plan").executionTimeMs(elapsed(start)).build();
+						return ExtractSuperclassResult.failure("Invalid superclass name plan").quarantinedFiles(quarantined).executionTimeMs(elapsed(start)).build();
 					}
 					boolean allowPackageInference = request.superQualifiedName() == null || request.superQualifiedName().isEmpty();
-					SuperclassPlacement placement = moduleDependencyManager.planSuperclassPlacement(env, plannedName, targets, allowPackageInference);
+					SuperclassPlacement placement = moduleDependencyManager.planSuperclassPlacement(env, plannedName, targets, allowPackageInference, progress);
 					NameParts name = placement.name;
 					resultingSuperName = name.qualified();
 					Path superFile = null;
 					if (!request.dryRun()) {
 						TargetType anchor = targets.isEmpty() ? null : targets.get(0);
-						superFile = ensureSuperclassFile(env, placement, anchor, sharedSuper, true);
+						superFile = ensureSuperclassFile(env, placement, anchor, sharedSuper, true, journal);
 						if (superFile != null) {
 							modified.add(superFile.toString());
 						}
-						for (TargetType t : targets) {
+						for (int i = 0; i < targets.size(); i++) {
+							progress.checkpoint();
+							progress.report(Progress.Stage.REWRITING, i, targets.size());
+							TargetType t = targets.get(i);
 							Path p = t.filePath;
-							String original = Files.readString(p, StandardCharsets.UTF_8);
-							String updated = rewriteTypeToExtend(original, t.typeDecl, name.simple, /*allowReplace*/ true);
+							String original = sources.text(p);
+							String updated = rewriteTypeToExtend(original, t, name.simple, /*allowReplace*/ true);
 							if (!Objects.equals(original, updated)) {
+								journal.putIfAbsent(p, original);
 								Files.writeString(p, updated, StandardCharsets.UTF_8);
+								sources.update(p, updated);
 								modified.add(p.toString());
 								try {
 									List<String> ensureImports = Collections.emptyList();
 									if (!name.pkg.isEmpty() && !name.pkg.equals(t.packageName)) {
 										ensureImports = Collections.singletonList(name.qualified());
 									}
-									organizeImports(env, p, updated, ensureImports);
+									organizeImports(env, sources, p, updated, ensureImports);
 								} catch (Throwable ex) {
 									logger.debug("Import organization skipped for {}: {}", p, String.valueOf(ex.getMessage()));
 								}
 							}
 						}
+						progress.report(Progress.Stage.REWRITING, targets.size(), targets.size());
 						try {
-							List<Path> updatedPoms = moduleDependencyManager.ensureModuleDependencies(superFile, targets);
+							List<Path> updatedPoms = moduleDependencyManager.ensureModuleDependencies(superFile, targets, progress);
 							for (Path pomPath : updatedPoms) {
 								modified.add(pomPath.toString());
 							}
+						} catch (CancellationException ex) {
+							throw ex;
 						} catch (Exception ex) {
 							logger.warn("Failed to update module dependencies", ex);
 						}
@@ -169,15 +293,15 @@ public class ExtractSuperclassRefactorer {
 				} else {
 					NameParts plannedName = planSuperclassName(request, targets);
 					if (plannedName.simple == null || plannedName.simple.isEmpty()) {
-						return ExtractSuperclassResult.failure("Invalid superclass name plan").executionTimeMs(elapsed(start)).build();
+						return ExtractSuperclassResult.failure("Invalid superclass name plan").quarantinedFiles(quarantined).executionTimeMs(elapsed(start)).build();
 					}
 					boolean allowPackageInference = request.superQualifiedName() == null || request.superQualifiedName().isEmpty();
-					SuperclassPlacement placement = moduleDependencyManager.planSuperclassPlacement(env, plannedName, targets, allowPackageInference);
+					SuperclassPlacement placement = moduleDependencyManager.planSuperclassPlacement(env, plannedName, targets, allowPackageInference, progress);
 					NameParts name = placement.name;
 					resultingSuperName = name.qualified();
 					if (!request.dryRun()) {
 						TargetType anchor = targets.isEmpty() ? null : targets.get(0);
-						Path superFile = ensureSuperclassFile(env, placement, anchor, null, false);
+						Path superFile = ensureSuperclassFile(env, placement, anchor, null, false, journal);
 						if (superFile != null) {
 							modified.add(superFile.toString());
 						}
@@ -185,17 +309,73 @@ public class ExtractSuperclassRefactorer {
 				}
 			}
 
+			if (workspaceIndex != null && !modified.isEmpty()) {
+				// Our own writes are applied right away rather than waiting for the watcher's debounce.
+				List<Path> written = new ArrayList<>();
+				for (String file : modified) {
+					written.add(Path.of(file));
+				}
+				workspaceIndex.refresh(written);
+			}
 			return ExtractSuperclassResult.success()
 				.superclassQualifiedName(resultingSuperName)
 				.modifiedFiles(modified)
+				.quarantinedFiles(quarantined)
 				.executionTimeMs(elapsed(start))
 				.build();
+		} catch (CancellationException e) {
+			rollBack(journal);
+			logger.info("extractsuperclass cancelled; restored {} file(s)", journal.size());
+			return ExtractSuperclassResult.failure(e.getMessage()).executionTimeMs(elapsed(start)).build();
 		} catch (Exception e) {
 			logger.error("extractsuperclass failed", e);
 			return ExtractSuperclassResult.failure(e.getMessage()).executionTimeMs(elapsed(start)).build();
 		}
 	}
 
+	/**
+	 * Undoes the writes of a cancelled request: files it rewrote get their original content back and files it created
+	 * are deleted. The live index is refreshed right away, as after any write.
+	 */
+	private void rollBack(Map<Path, String> journal) {
+		for (Map.Entry<Path, String> entry : journal.entrySet()) {
+			try {
+				if (entry.getValue() == null) {
+					Files.deleteIfExists(entry.getKey());
+				} else {
+					Files.writeString(entry.getKey(), entry.getValue(), StandardCharsets.UTF_8);
+				}
+			} catch (IOException ex) {
+				logger.warn("Could not restore {} after cancellation: {}", entry.getKey(), ex.getMessage());
+			}
+		}
+		if (workspaceIndex != null && !journal.isEmpty()) {
+			workspaceIndex.refresh(new ArrayList<>(journal.keySet()));
+		}
+	}
+
+	/** Quarantined files of the environment as {@code path: reason} lines. */
+	private static List<String> describeQuarantine(RefEnv env) {
+		List<String> lines = new ArrayList<>();
+		for (Map.Entry<Path, String> entry : env.quarantined.entrySet()) {
+			lines.add(entry.getKey() + ": " + entry.getValue());
+		}
+		return lines;
+	}
+
+	/** Whether a scoped environment resolved every target and every superclass a target already extends. */
+	private boolean resolvedWithinScope(RefEnv env, List<String> classNames, List<TargetType> targets) {
+		if (targets.size() < classNames.size()) {
+			return false;
+		}
+		for (TargetType target : targets) {
+			if (target.hasSuperclass() && resolveExistingSuperclassQualifiedName(env, target) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private static long elapsed(long start) { return Math.max(1, System.currentTimeMillis() - start); }
 
 	private static List<TargetType> resolveTargets(RefEnv env, List<String> fqns) {
@@ -204,7 +384,7 @@ public class ExtractSuperclassRefactorer {
 			TargetType t = env.findTypeByFqn(fqn);
 			if (t != null) list.add(t);
 		}
-		return list;
+		return env.bindTargets(list);
 	}
 
 	/**
@@ -214,14 +394,9 @@ public class ExtractSuperclassRefactorer {
 	private static List<String> resolveInputClassNames(RefEnv env, List<String> inputNames) {
 		List<String> result = new ArrayList<>();
 		if (inputNames == null) return result;
-		Map<String, List<String>> simpleToFqns = new HashMap<>();
-		for (String fqn : env.fqnToType.keySet()) {
-			String simple = fqn.contains(".") ? fqn.substring(fqn.lastIndexOf('.') + 1) : fqn;
-			simpleToFqns.computeIfAbsent(simple, k -> new ArrayList<>()).add(fqn);
-		}
 
-		String preferredPackage = mostFrequentPackage(env.fqnToType.keySet());
-		logger.info("Available classes: {}", env.fqnToType.keySet());
+		String preferredPackage = env.index.mostFrequentPackage();
+		logger.info("Indexed classes: {}", env.fqnToType.size());
 		logger.info("Preferred package: {}", preferredPackage);
 
 		for (String name : inputNames) {
@@ -231,7 +406,7 @@ public class ExtractSuperclassRefactorer {
 				logger.info("Added FQN: {}", name);
 				continue;
 			}
-			List<String> candidates = simpleToFqns.getOrDefault(name, Collections.emptyList());
+			List<String> candidates = env.index.fqnsForSimpleName(name);
 			logger.info("Candidates for {}: {}", name, candidates);
 			if (candidates.isEmpty()) {
 				logger.warn("No candidates found for class name: {}", name);
@@ -252,16 +427,6 @@ public class ExtractSuperclassRefactorer {
 		return result;
 	}
 
-	private static String mostFrequentPackage(Collection<String> fqns) {
-		Map<String, Integer> count = new HashMap<>();
-		for (String fqn : fqns) {
-			int i = fqn.lastIndexOf('.');
-			String pkg = i > 0 ? fqn.substring(0, i) : "";
-			count.merge(pkg, 1, Integer::sum);
-		}
-		return count.entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse("");
-	}
-
 	private static NameParts planSuperclassName(ExtractSuperclassRequest req, List<TargetType> targets) {
 		if (req.superQualifiedName() != null && !req.superQualifiedName().isEmpty()) {
 			return NameParts.fromQualified(req.superQualifiedName());
@@ -273,12 +438,12 @@ public class ExtractSuperclassRefactorer {
 		return new NameParts(pkg, simple);
 	}
 
-	private static String commonPackage(List<TargetType> types) {
-		Map<String, Long> counts = types.stream()
-			.collect(Collectors.groupingBy(t -> t.packageName, Collectors.counting()));
-		return counts.entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse("");
-	}
-
+	private static String commonPackage(List<TargetType> types) {
+		Map<String, Long> counts = types.stream()
+			.collect(Collectors.groupingBy(t -> t.packageName, Collectors.counting()));
+		return counts.entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse("");
+	}
+
 	private static String commonSimplePrefix(List<TargetType> types) {
 		List<String> names = types.stream().map(t -> t.simpleName).collect(Collectors.toList());
 		if (names.isEmpty()) return "";
@@ -308,7 +473,7 @@ public class ExtractSuperclassRefactorer {
 		}
 		String common = null;
 		for (TargetType target : targets) {
-			if (target == null || target.typeDecl == null || target.typeDecl.getSuperclassType() == null) {
+			if (target == null || !target.hasSuperclass()) {
 				return null;
 			}
 			String identifier = determineSuperclassIdentifier(env, target);
@@ -329,11 +494,10 @@ public class ExtractSuperclassRefactorer {
 		if (resolved != null && !resolved.isEmpty()) {
 			return resolved;
 		}
-		Type superType = target.typeDecl.getSuperclassType();
-		if (superType == null) {
+		if (!target.hasSuperclass()) {
 			return null;
 		}
-		String raw = baseTypeName(superType.toString());
+		String raw = baseTypeName(target.superclassName);
 		if (raw == null || raw.isEmpty()) {
 			return null;
 		}
@@ -344,14 +508,17 @@ public class ExtractSuperclassRefactorer {
 		return raw;
 	}
 
-	private Path ensureSuperclassFile(RefEnv env, SuperclassPlacement placement, TargetType anchor, String extendsQualifiedName, boolean makeAbstract) throws Exception {
+	/** Creates the superclass file unless it exists; a created file is entered in {@code journal} with no original. */
+	private Path ensureSuperclassFile(RefEnv env, SuperclassPlacement placement, TargetType anchor, String extendsQualifiedName, boolean makeAbstract,
+			Map<Path, String> journal) throws Exception {
 		if (placement.explicitPath != null) {
-			return ensureSuperclassFileAtExplicitPath(placement, extendsQualifiedName, makeAbstract);
+			return ensureSuperclassFileAtExplicitPath(placement, extendsQualifiedName, makeAbstract, journal);
 		}
-		return ensureSuperclassFileNearType(env, placement.name, anchor, extendsQualifiedName, makeAbstract);
+		return ensureSuperclassFileNearType(env, placement.name, anchor, extendsQualifiedName, makeAbstract, journal);
 	}
 
-	private Path ensureSuperclassFileAtExplicitPath(SuperclassPlacement placement, String extendsQualifiedName, boolean makeAbstract) throws Exception {
+	private Path ensureSuperclassFileAtExplicitPath(SuperclassPlacement placement, String extendsQualifiedName, boolean makeAbstract,
+			Map<Path, String> journal) throws Exception {
 		Path file = placement.explicitPath;
 		Path parent = file.getParent();
 		if (parent == null) {
@@ -360,6 +527,7 @@ public class ExtractSuperclassRefactorer {
 		Files.createDirectories(parent);
 		if (!Files.exists(file)) {
 			String content = renderSuperclass(placement.name, extendsQualifiedName, makeAbstract);
+			journal.put(file, null);
 			Files.writeString(file, content, StandardCharsets.UTF_8);
 			logger.info("Created superclass file at explicit path: {}", file);
 		} else {
@@ -369,13 +537,15 @@ public class ExtractSuperclassRefactorer {
 	}
 
 	/** Place the new superclass in the same directory as the first target class when no explicit path is provided. */
-	private Path ensureSuperclassFileNearType(RefEnv env, NameParts superName, TargetType anchor, String extendsQualifiedName, boolean makeAbstract) throws Exception {
+	private Path ensureSuperclassFileNearType(RefEnv env, NameParts superName, TargetType anchor, String extendsQualifiedName, boolean makeAbstract,
+			Map<Path, String> journal) throws Exception {
 		Path pkgDir = env.resolvePackageDir(superName.pkg, anchor);
 		logger.info("Resolved superclass directory for {} to {}", superName.qualified(), pkgDir);
 		Files.createDirectories(pkgDir);
 		Path file = pkgDir.resolve(superName.simple + ".java");
 		if (!Files.exists(file)) {
 			String content = renderSuperclass(superName, extendsQualifiedName, makeAbstract);
+			journal.put(file, null);
 			Files.writeString(file, content, StandardCharsets.UTF_8);
 			logger.info("Created superclass file: {}", file);
 		} else {
@@ -385,10 +555,10 @@ public class ExtractSuperclassRefactorer {
 	}
 
 
-	private String envFirstSourcePathOrCwd() {
-		try { return new java.io.File(".").getCanonicalPath(); } catch (Exception e) { return new java.io.File(".").getAbsolutePath(); }
-	}
-
+	private String envFirstSourcePathOrCwd() {
+		try { return new java.io.File(".").getCanonicalPath(); } catch (Exception e) { return new java.io.File(".").getAbsolutePath(); }
+	}
+
 	private String renderSuperclass(NameParts name, String extendsQualifiedName, boolean makeAbstract) {
 		String pkgLine = name.pkg.isEmpty() ? "" : ("package " + name.pkg + ";\n\n");
 		String extendsClause = (extendsQualifiedName != null && !extendsQualifiedName.isEmpty())
@@ -398,12 +568,17 @@ public class ExtractSuperclassRefactorer {
 		return pkgLine + "public " + modifier + "class " + name.simple + extendsClause + " {\n}\n";
 	}
 
-	private String rewriteTypeToExtend(String original, TypeDeclaration typeDecl, String superQualifiedName, boolean allowReplace) {
-		int start = typeDecl.getStartPosition();
-		int len = typeDecl.getLength();
+	private String rewriteTypeToExtend(String original, TargetType type, String superQualifiedName, boolean allowReplace) {
+		int start = type.typeStart;
+		int len = type.typeLength;
 		int end = Math.min(original.length(), start + len);
+		if (type.headerLength > 0 && start + type.headerLength < end) {
+			// Only the header up to the opening brace is needed; the class body can be arbitrarily large.
+			int brace = original.indexOf('{', start + type.headerLength);
+			if (brace >= 0 && brace < end) end = brace + 1;
+		}
 		String header = original.substring(start, end);
-		int classIdx = header.indexOf("class " + typeDecl.getName().getIdentifier());
+		int classIdx = header.indexOf("class " + type.simpleName);
 		if (classIdx < 0) return original;
 		int braceIdx = header.indexOf('{', classIdx);
 		if (braceIdx < 0) return original;
@@ -426,7 +601,7 @@ public class ExtractSuperclassRefactorer {
 		}
 	}
 
-	private void organizeImports(RefEnv env, Path filePath, String updated, Collection<String> ensureImports) throws Exception {
+	private void organizeImports(RefEnv env, SourceLoader.Cache sources, Path filePath, String updated, Collection<String> ensureImports) throws Exception {
 		try {
 			CompilationUnit cu = parseWithEnv(env, updated, filePath);
 			ImportRewrite rewrite = ImportRewrite.create(cu, true);
@@ -445,9 +620,10 @@ public class ExtractSuperclassRefactorer {
 			String after = doc.get();
 			if (!Objects.equals(updated, after)) {
 				Files.writeString(filePath, after, StandardCharsets.UTF_8);
+				sources.update(filePath, after);
 			}
 		} catch (RuntimeException ex) {
-			if (!attemptManualImportInsertion(filePath, updated, ensureImports)) {
+			if (!attemptManualImportInsertion(sources, filePath, updated, ensureImports)) {
 				throw ex;
 			}
 		}
@@ -467,28 +643,221 @@ public class ExtractSuperclassRefactorer {
 	static final class RefEnv {
 		final String[] classpath;
 		final String[] sourcepaths;
+		final TypeIndex index;
 		final Map<String, TargetType> fqnToType;
+		/** True when only part of the workspace was indexed; see {@link #buildScoped}. */
+		final boolean scoped;
+		/** Files left out of the index by its budgets or because they could not be read, with the reason. */
+		final Map<Path, String> quarantined;
 
-		private RefEnv(String[] cp, String[] sp, Map<String, TargetType> map) {
+		RefEnv(String[] cp, String[] sp, TypeIndex index) {
+			this(cp, sp, index, Collections.emptyMap());
+		}
+
+		RefEnv(String[] cp, String[] sp, TypeIndex index, Map<Path, String> quarantined) {
+			this(cp, sp, index, quarantined, false);
+		}
+
+		private RefEnv(String[] cp, String[] sp, TypeIndex index, Map<Path, String> quarantined, boolean scoped) {
 			this.classpath = cp;
 			this.sourcepaths = sp;
-			this.fqnToType = map;
+			this.index = index;
+			this.fqnToType = index.types();
+			this.quarantined = quarantined;
+			this.scoped = scoped;
+		}
+
+		static RefEnv build(List<File> roots, IndexOptions options) throws Exception {
+			return build(roots, options, SourceFilter.all());
+		}
+
+		/** Indexes the files {@code filter} admits; the sourcepath still lists every source directory. */
+		static RefEnv build(List<File> roots, IndexOptions options, SourceFilter filter) throws Exception {
+			return build(roots, options, filter, Progress.NONE);
+		}
+
+		/** {@link #build(List, IndexOptions, SourceFilter)}, reporting to and cancelled through {@code progress}. */
+		static RefEnv build(List<File> roots, IndexOptions options, SourceFilter filter, Progress progress) throws Exception {
+			String[] cp = classpathFor(roots);
+			TypeIndexer indexer = new TypeIndexer(options, progress);
+			String[] sp = sourcepathFor(roots, indexer.discovery());
+			TypeIndex index = indexer.index(roots, null, filter);
+			return new RefEnv(cp, sp, index, indexer.quarantined());
+		}
+
+		/**
+		 * Builds an environment without indexing the whole workspace. A fully qualified class is first looked for at
+		 * the file its package and name suggest; the remaining classes, and every simple name, are found by a
+		 * byte-level prescan for {@code class Name} tokens whose few matches are then parsed. When the files belong
+		 * to Maven modules, the modules holding them and every module they depend on are indexed; otherwise only the
+		 * files themselves are. In both cases the sourcepath lists the discovered source directories. Falls back to
+		 * {@link #build} when a class cannot be found this way or a simple name has several candidates, since the
+		 * choice between them depends on the whole index.
+		 */
+		static RefEnv buildScoped(List<File> roots, IndexOptions options, List<String> classNames,
+				ModuleDependencyManager modules) throws Exception {
+			return buildScoped(roots, options, SourceFilter.all(), classNames, modules);
+		}
+
+		/** {@link #buildScoped(List, IndexOptions, List, ModuleDependencyManager)} restricted to what {@code filter} admits. */
+		static RefEnv buildScoped(List<File> roots, IndexOptions options, SourceFilter filter, List<String> classNames,
+				ModuleDependencyManager modules) throws Exception {
+			return buildScoped(roots, options, filter, classNames, modules, Progress.NONE);
+		}
+
+		/** {@link #buildScoped(List, IndexOptions, SourceFilter, List, ModuleDependencyManager)}, reporting to {@code progress}. */
+		static RefEnv buildScoped(List<File> roots, IndexOptions options, SourceFilter filter, List<String> classNames,
+				ModuleDependencyManager modules, Progress progress) throws Exception {
+			if (classNames.isEmpty()) {
+				return build(roots, options, filter, progress);
+			}
+			TypeIndexer indexer = new TypeIndexer(options, progress);
+			List<SourceRootDiscovery.SourceRoot> sourceRoots = new ArrayList<>();
+			for (Path root : SourceRootDiscovery.collapseRoots(roots)) {
+				sourceRoots.addAll(indexer.discovery().sourceRoots(root));
+			}
+			LinkedHashMap<Path, List<TargetType>> parsed = new LinkedHashMap<>();
+			Set<Path> located = locate(indexer, sourceRoots, filter, classNames, options.effectiveParallelism(), parsed);
+			if (located == null) {
+				return build(roots, options, filter, progress);
+			}
+
+			Set<Path> closure = modules.dependencyClosure(located, progress);
+			List<SourceRootDiscovery.SourceRoot> inScope = new ArrayList<>();
+			for (SourceRootDiscovery.SourceRoot sourceRoot : sourceRoots) {
+				if (closure == null || closure.contains(modules.findModuleRoot(sourceRoot.dir))) {
+					inScope.add(sourceRoot);
+				}
+			}
+			TypeIndex index;
+			if (closure != null && inScope.size() < sourceRoots.size()) {
+				logger.info("Indexing {} of {} source directories in the dependency closure {}", inScope.size(), sourceRoots.size(), closure);
+				index = indexer.index(roots, inScope::contains, filter);
+			} else {
+				logger.info("Indexing only the {} file(s) declaring the requested classes", located.size());
+				for (Path file : located) {
+					if (!parsed.containsKey(file)) {
+						parsed.put(file, indexer.indexFile(file));
+					}
+				}
+				parsed.keySet().retainAll(located);
+				index = TypeIndex.of(parsed);
+			}
+			return new RefEnv(classpathFor(roots), sourcepathOf(inScope), index, indexer.quarantined(), true);
+		}
+
+		/**
+		 * Files declaring the requested classes, or null when one cannot be found, or a simple name cannot be settled,
+		 * without the full index. Files parsed to confirm a prescan match are left in {@code parsed}.
+		 */
+		private static Set<Path> locate(TypeIndexer indexer, List<SourceRootDiscovery.SourceRoot> sourceRoots, SourceFilter filter,
+				List<String> names, int parallelism, Map<Path, List<TargetType>> parsed) throws Exception {
+			Set<Path> located = new LinkedHashSet<>();
+			Map<String, String> missing = new LinkedHashMap<>();
+			// Simple name to the file of each FQN declaring it; the prescan sees every such declaration.
+			Map<String, Map<String, Path>> simpleCandidates = new LinkedHashMap<>();
+			for (String name : names) {
+				if (!name.contains(".")) {
+					simpleCandidates.put(name, new LinkedHashMap<>());
+					continue;
+				}
+				Path file = locateByPackage(sourceRoots, filter, name);
+				if (file != null) {
+					located.add(file);
+				} else {
+					missing.put(name, name.substring(name.lastIndexOf('.') + 1));
+				}
+			}
+			if (missing.isEmpty() && simpleCandidates.isEmpty()) {
+				return located;
+			}
+			Set<String> wanted = new LinkedHashSet<>(missing.values());
+			wanted.addAll(simpleCandidates.keySet());
+			List<Path> files = indexer.discovery().sourceFiles(sourceRoots, parallelism, filter);
+			List<Path> candidates = SourcePrescan.filesDeclaring(files, wanted, parallelism);
+			logger.debug("Prescan of {} files for {} matched {}", files.size(), wanted, candidates);
+			for (Path candidate : candidates) {
+				List<TargetType> types = indexer.indexFile(candidate);
+				parsed.put(candidate, types);
+				for (TargetType type : types) {
+					if (missing.remove(type.fqn) != null) {
+						located.add(candidate);
+					}
+					Map<String, Path> declared = simpleCandidates.get(type.simpleName);
+					if (declared != null) {
+						// Later files in walk order win, as in the full index.
+						declared.put(type.fqn, candidate);
+					}
+				}
+			}
+			if (!missing.isEmpty()) {
+				logger.debug("Cannot locate {} without the full index", missing.keySet());
+				return null;
+			}
+			for (Map.Entry<String, Map<String, Path>> entry : simpleCandidates.entrySet()) {
+				if (entry.getValue().size() != 1) {
+					logger.debug("Simple name {} has candidates {}; choosing needs the full index", entry.getKey(), entry.getValue().keySet());
+					return null;
+				}
+				located.addAll(entry.getValue().values());
+			}
+			return located;
+		}
+
+		/** Source file that should declare {@code fqn} by the package-directory convention, or null. */
+		private static Path locateByPackage(List<SourceRootDiscovery.SourceRoot> sourceRoots, SourceFilter filter, String fqn) {
+			String relative = fqn.replace('.', '/') + ".java";
+			for (SourceRootDiscovery.SourceRoot sourceRoot : sourceRoots) {
+				Path candidate = sourceRoot.dir.resolve(relative);
+				if (Files.isRegularFile(candidate) && filter.admits(sourceRoot, candidate)) {
+					return candidate;
+				}
+			}
+			return null;
+		}
+
+		static String[] classpathFor(List<File> roots) {
+			return ClasspathBuilder.classpathFor(roots);
 		}
 
-		static RefEnv build(List<File> roots) throws Exception {
-			List<String> cpList = new ArrayList<>();
+		/** The source directories {@code discovery} finds under the roots, so every environment resolves the same way. */
+		static String[] sourcepathFor(List<File> roots, SourceRootDiscovery discovery) {
+			List<SourceRootDiscovery.SourceRoot> sourceRoots = new ArrayList<>();
+			for (Path root : SourceRootDiscovery.collapseRoots(roots)) {
+				sourceRoots.addAll(discovery.sourceRoots(root));
+			}
+			return sourcepathOf(sourceRoots);
+		}
+
+		static String[] sourcepathOf(List<SourceRootDiscovery.SourceRoot> sourceRoots) {
 			List<String> spList = new ArrayList<>();
-			for (File r : roots) {
-				spList.add(r.getAbsolutePath());
-				collectCp(r, cpList);
+			for (SourceRootDiscovery.SourceRoot sourceRoot : sourceRoots) {
+				spList.add(sourceRoot.dir.toString());
 			}
-			Map<String, TargetType> map = indexTypes(roots, cpList, spList);
-			return new RefEnv(cpList.toArray(new String[0]), spList.toArray(new String[0]), map);
+			return spList.toArray(new String[0]);
 		}
 
 		TargetType findTypeByFqn(String fqn) {
 			return fqnToType.get(fqn);
 		}
+
+		/** Returns the targets backed by binding-resolved declarations; only the targets' own files are parsed. */
+		List<TargetType> bindTargets(List<TargetType> targets) {
+			Set<Path> files = new LinkedHashSet<>();
+			for (TargetType t : targets) {
+				if (t.typeDecl == null) files.add(t.filePath);
+			}
+			if (files.isEmpty()) {
+				return targets;
+			}
+			Map<String, TypeDeclaration> bound = TypeIndexer.bindDeclarations(files, classpath, sourcepaths);
+			List<TargetType> result = new ArrayList<>(targets.size());
+			for (TargetType t : targets) {
+				TypeDeclaration decl = files.contains(t.filePath) ? bound.get(t.fqn) : null;
+				result.add(decl != null ? t.withDeclaration(decl) : t);
+			}
+			return result;
+		}
 		private Path sourceRootFor(Path file) {
 			if (file == null) return null;
 			Path abs = file.toAbsolutePath().normalize();
@@ -505,10 +874,9 @@ public class ExtractSuperclassRefactorer {
 		Path resolvePackageDir(String pkg, TargetType anchor) {
 			String[] segments = (pkg == null || pkg.isEmpty()) ? new String[0] : pkg.split("\\.");
 			if (segments.length > 0) {
-				for (TargetType t : fqnToType.values()) {
-					if (pkg.equals(t.packageName)) {
-						return t.filePath.getParent();
-					}
+				Path known = index.packageDirectory(pkg);
+				if (known != null) {
+					return known;
 				}
 			} else {
 				Path anchorRoot = anchor != null ? sourceRootFor(anchor.filePath) : null;
@@ -564,76 +932,48 @@ public class ExtractSuperclassRefactorer {
 		}
 	}
 
-	private static void collectCp(File root, List<String> cp) {
-		addIfExists(cp, new File(root, "target/classes"));
-		addIfExists(cp, new File(root, "target/test-classes"));
-		addIfExists(cp, new File(root, "build/classes/java/main"));
-		addIfExists(cp, new File(root, "build/classes/java/test"));
-		addIfExists(cp, new File(root, "out/production"));
-		addIfExists(cp, new File(root, "out/test"));
-		addJarsUnder(new File(root, "target"), cp);
-		addJarsUnder(new File(root, "lib"), cp);
-		String javaHome = System.getProperty("java.home");
-		if (javaHome != null) {
-			File modules = new File(javaHome, "jmods");
-			if (modules.exists()) {
-				File[] jmods = modules.listFiles((d,n) -> n.endsWith(".jmod"));
-				if (jmods != null) for (File f : jmods) cp.add(f.getAbsolutePath());
-			}
-			File rtJar = new File(javaHome, "lib/rt.jar");
-			if (rtJar.exists()) cp.add(rtJar.getAbsolutePath());
-		}
-		String systemClasspath = System.getProperty("java.class.path");
-		if (systemClasspath != null) cp.addAll(Arrays.asList(systemClasspath.split(File.pathSeparator)));
-	}
-
-	private static void addIfExists(List<String> cp, File f) { if (f.exists()) cp.add(f.getAbsolutePath()); }
-	private static void addJarsUnder(File dir, List<String> cp) {
-		if (!dir.exists() || !dir.isDirectory()) return;
-		File[] jars = dir.listFiles((d,n) -> n.endsWith(".jar"));
-		if (jars != null) for (File j : jars) cp.add(j.getAbsolutePath());
-		File[] subs = dir.listFiles(File::isDirectory);
-		if (subs != null) for (File sd : subs) {
-			File[] js = sd.listFiles((d,n) -> n.endsWith(".jar"));
-			if (js != null) for (File j : js) cp.add(j.getAbsolutePath());
+	static final class TargetType {
+		final String fqn; final String packageName; final String simpleName; final Path filePath;
+		/**
+		 * Source range of the declaration, the length of its header (modifiers through the last supertype) and the raw
+		 * text of its extends clause (null when there is none).
+		 */
+		final int typeStart; final int typeLength; final int headerLength; final String superclassName;
+		/** Binding-resolved declaration; only set on targets returned by {@link RefEnv#bindTargets}, never in the index. */
+		final TypeDeclaration typeDecl;
+		TargetType(String fqn, String pkg, String simple, Path file, TypeDeclaration decl) {
+			this(fqn, pkg, simple, file, decl,
+				decl != null ? decl.getStartPosition() : -1,
+				decl != null ? decl.getLength() : 0,
+				decl != null ? headerEnd(decl) - decl.getStartPosition() : 0,
+				decl != null && decl.getSuperclassType() != null ? decl.getSuperclassType().toString() : null);
 		}
-	}
-
-	private static Map<String, TargetType> indexTypes(List<File> roots, List<String> cp, List<String> sp) throws Exception {
-		Map<String, TargetType> map = new HashMap<>();
-		for (File root : roots) {
-			List<Path> files = new ArrayList<>();
-			try (Stream<Path> stream = Files.walk(root.toPath())) {
-				stream.filter(p -> p.toString().endsWith(".java")).forEach(files::add);
-			}
-			for (Path p : files) {
-				String src = Files.readString(p, StandardCharsets.UTF_8);
-				ASTParser parser = ASTParser.newParser(AST.JLS17);
-				parser.setKind(ASTParser.K_COMPILATION_UNIT);
-				parser.setSource(src.toCharArray());
-				parser.setResolveBindings(true);
-				parser.setBindingsRecovery(true);
-				parser.setEnvironment(cp.toArray(new String[0]), sp.toArray(new String[0]), null, true);
-				parser.setUnitName(p.getFileName().toString());
-				CompilationUnit cu = (CompilationUnit) parser.createAST(null);
-				cu.accept(new ASTVisitor(true) {
-					@Override public boolean visit(TypeDeclaration node) {
-						if (node.isInterface()) return true;
-						String pkg = cu.getPackage() != null ? cu.getPackage().getName().getFullyQualifiedName() : "";
-						String simple = node.getName().getIdentifier();
-						String fqn = pkg.isEmpty() ? simple : pkg + "." + simple;
-						map.put(fqn, new TargetType(fqn, pkg, simple, p, node));
-						return true;
-					}
-				});
-			}
+		TargetType(String fqn, String pkg, String simple, Path file, int typeStart, int typeLength, int headerLength, String superclassName) {
+			this(fqn, pkg, simple, file, null, typeStart, typeLength, headerLength, superclassName);
+		}
+		private TargetType(String fqn, String pkg, String simple, Path file, TypeDeclaration decl, int typeStart, int typeLength, int headerLength, String superclassName) {
+			this.fqn=fqn; this.packageName=pkg; this.simpleName=simple; this.filePath=file; this.typeDecl=decl;
+			this.typeStart=typeStart; this.typeLength=typeLength; this.headerLength=headerLength; this.superclassName=superclassName;
+		}
+		boolean hasSuperclass() { return superclassName != null; }
+		/** Copy of this entry backed by another declaration of the same type, e.g. one parsed with bindings. */
+		TargetType withDeclaration(TypeDeclaration decl) {
+			return new TargetType(fqn, packageName, simpleName, filePath, decl);
+		}
+		/** Lightweight copy that no longer keeps the declaration's compilation unit reachable. */
+		TargetType detached() {
+			return typeDecl == null ? this : new TargetType(fqn, packageName, simpleName, filePath, typeStart, typeLength, headerLength, superclassName);
+		}
+		private static int headerEnd(TypeDeclaration decl) {
+			int end = decl.getName().getStartPosition() + decl.getName().getLength();
+			List<ASTNode> header = new ArrayList<>();
+			for (Object o : decl.typeParameters()) header.add((ASTNode) o);
+			if (decl.getSuperclassType() != null) header.add(decl.getSuperclassType());
+			for (Object o : decl.superInterfaceTypes()) header.add((ASTNode) o);
+			for (Object o : decl.permittedTypes()) header.add((ASTNode) o);
+			for (ASTNode node : header) end = Math.max(end, node.getStartPosition() + node.getLength());
+			return end;
 		}
-		return map;
-	}
-
-	static final class TargetType {
-		final String fqn; final String packageName; final String simpleName; final Path filePath; final TypeDeclaration typeDecl;
-		TargetType(String fqn, String pkg, String simple, Path file, TypeDeclaration decl) { this.fqn=fqn; this.packageName=pkg; this.simpleName=simple; this.filePath=file; this.typeDecl=decl; }
 	}
 
 	private enum SuperSituationKind { ALL_NONE, EXACTLY_ONE_HAS, TWO_OR_MORE_HAVE }
@@ -655,7 +995,7 @@ public class ExtractSuperclassRefactorer {
 	private SuperSituation analyzeSuperSituation(List<TargetType> targets) {
 		int has = 0; TargetType one = null;
 		for (TargetType t : targets) {
-			if (t.typeDecl.getSuperclassType() != null) { has++; if (one == null) one = t; }
+			if (t.hasSuperclass()) { has++; if (one == null) one = t; }
 		}
 		if (has == 0) return new SuperSituation(SuperSituationKind.ALL_NONE, null);
 		if (has == 1) return new SuperSituation(SuperSituationKind.EXACTLY_ONE_HAS, one);
@@ -682,49 +1022,90 @@ public class ExtractSuperclassRefactorer {
 			String candidate = preferredPackage + "." + typeName;
 			if (env.fqnToType.containsKey(candidate)) return candidate;
 		}
-		// Fallback: any matching simple name
-		for (String fqn : env.fqnToType.keySet()) {
-			if (fqn.endsWith("." + typeName) || fqn.equals(typeName)) return fqn;
-		}
-		return null;
+		// Fallback: a workspace type with a unique simple name; an ambiguous name stays unresolved
+		List<String> candidates = env.index.fqnsForSimpleName(typeName);
+		return candidates.isEmpty() ? null : uniqueCandidate(typeName, candidates);
 	}
 
 	private String resolveExistingSuperclassQualifiedName(RefEnv env, TargetType type) {
-		if (type == null || type.typeDecl.getSuperclassType() == null) return null;
-		Type superType = type.typeDecl.getSuperclassType();
-		ITypeBinding binding = superType.resolveBinding();
-		if (binding != null) {
+		if (type == null || !type.hasSuperclass()) return null;
+		Type superType = type.typeDecl != null ? type.typeDecl.getSuperclassType() : null;
+		ITypeBinding binding = superType != null ? superType.resolveBinding() : null;
+		if (binding != null && !binding.isRecovered()) {
 			String qualified = binding.getQualifiedName();
 			if (qualified != null && !qualified.isEmpty()) {
 				return qualified;
 			}
 		}
-		String rawName = baseTypeName(superType.toString());
+		String rawName = baseTypeName(type.superclassName);
 		if (rawName == null || rawName.isEmpty()) {
 			return null;
 		}
-		String resolved = resolveTypeNameToFqn(env, rawName, type.packageName);
-		if (resolved != null) {
-			return resolved;
+		if (rawName.contains(".")) {
+			return rawName;
 		}
-		ASTNode root = type.typeDecl.getRoot();
+		// Java's own lookup order (JLS 6.4.1: single-type imports shadow the package, which shadows on-demand imports),
+		// with compiled classes read from the class index where the workspace has none.
+		ASTNode root = type.typeDecl != null ? type.typeDecl.getRoot() : null;
+		List<String> onDemand = new ArrayList<>();
 		if (root instanceof CompilationUnit) {
 			CompilationUnit cu = (CompilationUnit) root;
 			List<?> imports = cu.imports();
-			String simple = extractSimpleName(rawName);
 			for (Object obj : imports) {
 				if (!(obj instanceof ImportDeclaration)) continue;
 				ImportDeclaration imp = (ImportDeclaration) obj;
-				if (imp.isOnDemand()) continue;
+				if (imp.isStatic()) continue;
 				String fqn = imp.getName().getFullyQualifiedName();
-				if (fqn.equals(rawName)) {
-					return fqn;
-				}
-				if (simple != null && fqn.endsWith("." + simple)) {
+				if (imp.isOnDemand()) {
+					onDemand.add(fqn);
+				} else if (fqn.endsWith("." + rawName)) {
 					return fqn;
 				}
 			}
 		}
+		String samePackage = type.packageName == null || type.packageName.isEmpty() ? rawName : type.packageName + "." + rawName;
+		if (env.fqnToType.containsKey(samePackage)) {
+			return samePackage;
+		}
+		List<String> candidates = env.index.fqnsForSimpleName(rawName);
+		if (!(root instanceof CompilationUnit) && !candidates.isEmpty()) {
+			// Without the declaring file its imports are unknown; only a workspace type with a unique name is a safe match.
+			return uniqueCandidate(rawName, candidates);
+		}
+		ClassIndex.Header external = classIndex.find(samePackage);
+		if (external != null) {
+			return external.qualifiedName();
+		}
+		ClassIndex.Header interfaceMatch = null;
+		for (String container : onDemand) {
+			String candidate = container + "." + rawName;
+			if (env.fqnToType.containsKey(candidate)) {
+				return candidate;
+			}
+			ClassIndex.Header header = classIndex.find(candidate);
+			if (header != null && !header.isInterface()) {
+				return header.qualifiedName();
+			}
+			if (header != null && interfaceMatch == null) {
+				interfaceMatch = header;
+			}
+		}
+		ClassIndex.Header javaLang = classIndex.find("java.lang." + rawName);
+		if (javaLang != null) {
+			return javaLang.qualifiedName();
+		}
+		if (!candidates.isEmpty()) {
+			return uniqueCandidate(rawName, candidates);
+		}
+		return interfaceMatch != null ? interfaceMatch.qualifiedName() : null;
+	}
+
+	/** The only workspace type with this simple name, or null when several share it and picking one would be a guess. */
+	private static String uniqueCandidate(String simpleName, List<String> candidates) {
+		if (candidates.size() == 1) {
+			return candidates.get(0);
+		}
+		logger.info("Superclass {} is ambiguous between workspace types {}; leaving it unresolved", simpleName, candidates);
 		return null;
 	}
 
@@ -738,18 +1119,7 @@ public class ExtractSuperclassRefactorer {
 		return stripped.trim();
 	}
 
-	private String extractSimpleName(String typeName) {
-		if (typeName == null) return null;
-		String stripped = baseTypeName(typeName);
-		if (stripped == null) return null;
-		int dotIdx = stripped.lastIndexOf('.');
-		if (dotIdx >= 0 && dotIdx + 1 < stripped.length()) {
-			return stripped.substring(dotIdx + 1);
-		}
-		return stripped;
-	}
-
-	private boolean attemptManualImportInsertion(Path filePath, String updated, Collection<String> ensureImports) throws Exception {
+	private boolean attemptManualImportInsertion(SourceLoader.Cache sources, Path filePath, String updated, Collection<String> ensureImports) throws Exception {
 		if (ensureImports == null || ensureImports.isEmpty()) {
 			return false;
 		}
@@ -823,7 +1193,9 @@ public class ExtractSuperclassRefactorer {
 			}
 			builder.append(content.substring(insertIdx));
 		}
-		Files.writeString(filePath, builder.toString(), StandardCharsets.UTF_8);
+		String inserted = builder.toString();
+		Files.writeString(filePath, inserted, StandardCharsets.UTF_8);
+		sources.update(filePath, inserted);
 		return true;
 	}
 }
@@ -10,6 +10,8 @@ public final class ExtractSuperclassRequest {
     private final String superQualifiedName;
     private final boolean dryRun;
     private final boolean verbose;
+    private final IndexOptions indexOptions;
+    private final SourceFilter sourceFilter;
 
     /**
      * Creates a new ExtractSuperclassRequest with the given parameters.
@@ -20,6 +22,35 @@ public final class ExtractSuperclassRequest {
      * @param verbose If true, enable verbose logging
      */
     public ExtractSuperclassRequest(List<String> classNames, String superQualifiedName, boolean dryRun, boolean verbose) {
+        this(classNames, superQualifiedName, dryRun, verbose, IndexOptions.defaults());
+    }
+
+    /**
+     * Creates a new ExtractSuperclassRequest with explicit index tuning.
+     *
+     * @param classNames List of class names to extract superclass for
+     * @param superQualifiedName Optional fully qualified name for the superclass
+     * @param dryRun If true, perform analysis without making changes
+     * @param verbose If true, enable verbose logging
+     * @param indexOptions Options controlling how the workspace type index is built
+     */
+    public ExtractSuperclassRequest(List<String> classNames, String superQualifiedName, boolean dryRun, boolean verbose, IndexOptions indexOptions) {
+        this(classNames, superQualifiedName, dryRun, verbose, indexOptions, SourceFilter.all());
+    }
+
+    /**
+     * Creates a new ExtractSuperclassRequest that only indexes part of the workspace.
+     *
+     * @param classNames List of class names to extract superclass for
+     * @param superQualifiedName Optional fully qualified name for the superclass
+     * @param dryRun If true, perform analysis without making changes; the index is then built
+     *               {@linkplain IndexOptions#readOnly() read-only}
+     * @param verbose If true, enable verbose logging
+     * @param indexOptions Options controlling how the workspace type index is built
+     * @param sourceFilter Packages and paths to include in or exclude from indexing
+     */
+    public ExtractSuperclassRequest(List<String> classNames, String superQualifiedName, boolean dryRun, boolean verbose,
+                                    IndexOptions indexOptions, SourceFilter sourceFilter) {
         if (classNames == null || classNames.isEmpty()) {
             throw new IllegalArgumentException("classNames cannot be null or empty");
         }
@@ -27,6 +58,10 @@ public final class ExtractSuperclassRequest {
         this.superQualifiedName = superQualifiedName;
         this.dryRun = dryRun;
         this.verbose = verbose;
+        IndexOptions options = indexOptions == null ? IndexOptions.defaults() : indexOptions;
+        // A dry run may read a saved index but must not leave one behind in the user's tree.
+        this.indexOptions = dryRun ? options.asReadOnly() : options;
+        this.sourceFilter = sourceFilter == null ? SourceFilter.all() : sourceFilter;
     }
 
     public List<String> classNames() {
@@ -44,4 +79,12 @@ public final class ExtractSuperclassRequest {
     public boolean verbose() {
         return verbose;
     }
+
+    public IndexOptions indexOptions() {
+        return indexOptions;
+    }
+
+    public SourceFilter sourceFilter() {
+        return sourceFilter;
+    }
 }
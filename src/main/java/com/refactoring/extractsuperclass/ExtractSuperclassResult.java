@@ -1,5 +1,6 @@
 package com.refactoring.extractsuperclass;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -10,6 +11,7 @@ public final class ExtractSuperclassResult {
     private final String errorMessage;
     private final String superclassQualifiedName;
     private final List<String> modifiedFiles;
+    private final List<String> quarantinedFiles;
     private final long executionTimeMs;
 
     private ExtractSuperclassResult(Builder builder) {
@@ -17,6 +19,7 @@ public final class ExtractSuperclassResult {
         this.errorMessage = builder.errorMessage;
         this.superclassQualifiedName = builder.superclassQualifiedName;
         this.modifiedFiles = builder.modifiedFiles;
+        this.quarantinedFiles = builder.quarantinedFiles == null ? Collections.emptyList() : builder.quarantinedFiles;
         this.executionTimeMs = builder.executionTimeMs;
     }
 
@@ -50,6 +53,14 @@ public final class ExtractSuperclassResult {
         return modifiedFiles;
     }
 
+    /**
+     * Source files skipped while indexing because they exceeded a size or parse time budget or could not be read,
+     * each as {@code path: reason}.
+     */
+    public List<String> getQuarantinedFiles() {
+        return quarantinedFiles;
+    }
+
     public long getExecutionTimeMs() {
         return executionTimeMs;
     }
@@ -62,6 +73,7 @@ public final class ExtractSuperclassResult {
         private String errorMessage;
         private String superclassQualifiedName;
         private List<String> modifiedFiles;
+        private List<String> quarantinedFiles;
         private long executionTimeMs;
 
         public Builder success(boolean success) {
@@ -84,6 +96,11 @@ public final class ExtractSuperclassResult {
             return this;
         }
 
+        public Builder quarantinedFiles(List<String> quarantinedFiles) {
+            this.quarantinedFiles = quarantinedFiles;
+            return this;
+        }
+
         public Builder executionTimeMs(long executionTimeMs) {
             this.executionTimeMs = executionTimeMs;
             return this;
@@ -0,0 +1,231 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only view of a work tree's {@code .git/index}, parsed straight from the file without a git binary. Index
+ * versions 2 to 4 are read; split and sparse indexes are not, and {@link #open} then returns null so callers fall
+ * back to plain file stamps.
+ * <p>
+ * An entry is {@link #isClean clean} when the file's stat data still matches what git recorded, in which case its
+ * content is the entry's blob and never needs to be read to tell whether it changed.
+ */
+final class GitIndex {
+	private static final Logger logger = LoggerFactory.getLogger(GitIndex.class);
+	private static final int SIGNATURE = 0x44495243; // "DIRC"
+	private static final int ENTRY_FIXED_BYTES = 62;
+	private static final int FLAG_ASSUME_VALID = 0x8000;
+	private static final int FLAG_EXTENDED = 0x4000;
+	private static final int FLAG_STAGE_MASK = 0x3000;
+	private static final int EXTENDED_INTENT_TO_ADD = 0x2000;
+	private static final int MODE_TYPE_MASK = 0xF000;
+	private static final int MODE_REGULAR = 0x8000;
+
+	/** Staged state of one tracked file. */
+	static final class Entry {
+		final byte[] blob;
+		final long size;
+		final int mtimeSeconds;
+		final int mtimeNanos;
+		final boolean assumeValid;
+
+		Entry(byte[] blob, long size, int mtimeSeconds, int mtimeNanos, boolean assumeValid) {
+			this.blob = blob;
+			this.size = size;
+			this.mtimeSeconds = mtimeSeconds;
+			this.mtimeNanos = mtimeNanos;
+			this.assumeValid = assumeValid;
+		}
+	}
+
+	final Path workTree;
+	private final Map<Path, Entry> entries;
+	/** Modification time of the index file; entries stamped at or after it may be racily clean. */
+	private final long indexMtimeNanos;
+
+	private GitIndex(Path workTree, Map<Path, Entry> entries, long indexMtimeNanos) {
+		this.workTree = workTree;
+		this.entries = entries;
+		this.indexMtimeNanos = indexMtimeNanos;
+	}
+
+	/** Index of the work tree containing {@code dir}, or null when there is none or it cannot be read. */
+	static GitIndex open(Path dir) {
+		Path workTree = dir.toAbsolutePath().normalize();
+		while (workTree != null && !Files.exists(workTree.resolve(".git"))) {
+			workTree = workTree.getParent();
+		}
+		if (workTree == null) {
+			return null;
+		}
+		try {
+			Path gitDir = gitDir(workTree.resolve(".git"));
+			if (usesSha256(gitDir)) {
+				return null;
+			}
+			Path indexFile = gitDir.resolve("index");
+			if (!Files.isRegularFile(indexFile)) {
+				return null;
+			}
+			long indexMtime = Files.getLastModifiedTime(indexFile).to(TimeUnit.NANOSECONDS);
+			Map<Path, Entry> entries = parse(workTree, ByteBuffer.wrap(Files.readAllBytes(indexFile)));
+			return entries == null ? null : new GitIndex(workTree, entries, indexMtime);
+		} catch (IOException | RuntimeException ex) {
+			logger.debug("Ignoring unreadable git index under {}: {}", workTree, ex.getMessage());
+			return null;
+		}
+	}
+
+	/** Tracked regular file at this path, or null when git does not track it (or it is in a merge conflict). */
+	Entry entry(Path file) {
+		return entries.get(file.toAbsolutePath().normalize());
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Whether the working-tree file still has the content of the entry's blob, judged like {@code git status} does
+	 * from size and modification time. Entries written in the same tick as the index itself are never trusted.
+	 */
+	boolean isClean(Entry entry, BasicFileAttributes attrs) {
+		if (entry.assumeValid) {
+			return true;
+		}
+		FileTime mtime = attrs.lastModifiedTime();
+		long seconds = mtime.to(TimeUnit.SECONDS);
+		long nanos = mtime.to(TimeUnit.NANOSECONDS) - TimeUnit.SECONDS.toNanos(seconds);
+		if (entry.size != (attrs.size() & 0xFFFFFFFFL) || entry.mtimeSeconds != (int) seconds
+			|| (entry.mtimeNanos != 0 && entry.mtimeNanos != nanos)) {
+			return false;
+		}
+		long entryNanos = TimeUnit.SECONDS.toNanos(Integer.toUnsignedLong(entry.mtimeSeconds)) + entry.mtimeNanos;
+		return entryNanos < indexMtimeNanos - TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/** Resolves {@code .git}, which is a directory or, in linked worktrees and submodules, a {@code gitdir:} file. */
+	private static Path gitDir(Path dotGit) throws IOException {
+		if (Files.isDirectory(dotGit)) {
+			return dotGit;
+		}
+		String content = Files.readString(dotGit, StandardCharsets.UTF_8).trim();
+		if (!content.startsWith("gitdir:")) {
+			throw new IOException("Unrecognised .git file");
+		}
+		return dotGit.getParent().resolve(content.substring("gitdir:".length()).trim()).normalize();
+	}
+
+	private static boolean usesSha256(Path gitDir) throws IOException {
+		Path config = gitDir.resolve("config");
+		if (!Files.isRegularFile(config)) {
+			return false;
+		}
+		for (String line : Files.readAllLines(config, StandardCharsets.UTF_8)) {
+			String trimmed = line.trim().toLowerCase(Locale.ROOT);
+			if (trimmed.startsWith("objectformat") && trimmed.endsWith("sha256")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Tracked regular files keyed by absolute path, or null for an index this reader does not support. */
+	private static Map<Path, Entry> parse(Path workTree, ByteBuffer in) throws IOException {
+		if (in.getInt() != SIGNATURE) {
+			throw new IOException("Not a git index");
+		}
+		int version = in.getInt();
+		if (version < 2 || version > 4) {
+			logger.debug("Unsupported git index version {}", version);
+			return null;
+		}
+		int count = in.getInt();
+		Map<Path, Entry> entries = new HashMap<>(count * 2);
+		byte[] previousName = new byte[0];
+		for (int i = 0; i < count; i++) {
+			int start = in.position();
+			in.position(start + 8); // ctime
+			int mtimeSeconds = in.getInt();
+			int mtimeNanos = in.getInt();
+			in.position(in.position() + 8); // dev, ino
+			int mode = in.getInt();
+			in.position(in.position() + 8); // uid, gid
+			long size = Integer.toUnsignedLong(in.getInt());
+			byte[] blob = new byte[20];
+			in.get(blob);
+			int flags = Short.toUnsignedInt(in.getShort());
+			int extended = 0;
+			if ((flags & FLAG_EXTENDED) != 0 && version >= 3) {
+				extended = Short.toUnsignedInt(in.getShort());
+			}
+			byte[] name;
+			if (version == 4) {
+				int strip = readOffset(in);
+				byte[] suffix = readNulTerminated(in);
+				name = new byte[previousName.length - strip + suffix.length];
+				System.arraycopy(previousName, 0, name, 0, previousName.length - strip);
+				System.arraycopy(suffix, 0, name, previousName.length - strip, suffix.length);
+			} else {
+				name = readNulTerminated(in);
+				int fixed = ENTRY_FIXED_BYTES + ((flags & FLAG_EXTENDED) != 0 ? 2 : 0);
+				in.position(start + ((fixed + name.length + 8) & ~7));
+			}
+			previousName = name;
+			boolean conflicted = (flags & FLAG_STAGE_MASK) != 0;
+			boolean intentToAdd = (extended & EXTENDED_INTENT_TO_ADD) != 0;
+			if ((mode & MODE_TYPE_MASK) == MODE_REGULAR && !conflicted && !intentToAdd) {
+				Path file = workTree.resolve(new String(name, StandardCharsets.UTF_8)).normalize();
+				entries.put(file, new Entry(blob, size, mtimeSeconds, mtimeNanos, (flags & FLAG_ASSUME_VALID) != 0));
+			}
+		}
+		while (in.remaining() > 20 + 8) {
+			byte[] signature = new byte[4];
+			in.get(signature);
+			int length = in.getInt();
+			String extension = new String(signature, StandardCharsets.US_ASCII);
+			if ("link".equals(extension) || "sdir".equals(extension)) {
+				logger.debug("Git index uses the {} extension; not supported", extension);
+				return null;
+			}
+			in.position(in.position() + length);
+		}
+		return entries;
+	}
+
+	/** Git's offset varint, used by index version 4 for the prefix length to strip. */
+	private static int readOffset(ByteBuffer in) {
+		int b = Byte.toUnsignedInt(in.get());
+		int value = b & 0x7F;
+		while ((b & 0x80) != 0) {
+			b = Byte.toUnsignedInt(in.get());
+			value = ((value + 1) << 7) | (b & 0x7F);
+		}
+		return value;
+	}
+
+	private static byte[] readNulTerminated(ByteBuffer in) {
+		int start = in.position();
+		int end = start;
+		while (in.get(end) != 0) {
+			end++;
+		}
+		byte[] bytes = new byte[end - start];
+		in.get(bytes);
+		in.get(); // NUL
+		return bytes;
+	}
+}
@@ -0,0 +1,336 @@
+package com.refactoring.extractsuperclass;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tuning options for building the workspace type index.
+ */
+public final class IndexOptions {
+	static final long DEFAULT_MAX_FILE_BYTES = 2L * 1024 * 1024;
+	static final long DEFAULT_PARSE_TIMEOUT_MILLIS = 10_000;
+
+	private final int parallelism;
+	private final Mode mode;
+	private final int batchSize;
+	private final boolean persistentIndex;
+	private final Set<String> ignoredDirectories;
+	private final int workers;
+	private final Invalidation invalidation;
+	private final long maxFileBytes;
+	private final long parseTimeoutMillis;
+	private final boolean skipGenerated;
+	private final boolean readOnly;
+
+	private IndexOptions(Builder builder) {
+		this.parallelism = builder.parallelism;
+		this.mode = builder.mode;
+		this.batchSize = builder.batchSize;
+		this.persistentIndex = builder.persistentIndex;
+		this.ignoredDirectories = builder.ignoredDirectories;
+		this.workers = builder.workers;
+		this.invalidation = builder.invalidation;
+		this.maxFileBytes = builder.maxFileBytes;
+		this.parseTimeoutMillis = builder.parseTimeoutMillis;
+		this.skipGenerated = builder.skipGenerated;
+		this.readOnly = builder.readOnly;
+	}
+
+	/**
+	 * Creates options with default values for every setting.
+	 */
+	public static IndexOptions defaults() {
+		return new Builder().build();
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Requested number of parsing threads; {@code 0} selects one thread per available processor.
+	 */
+	public int parallelism() {
+		return parallelism;
+	}
+
+	public Mode mode() {
+		return mode;
+	}
+
+	/**
+	 * Requested number of compilation units per {@link Mode#BATCHED} parser call; {@code 0} sizes batches from free heap.
+	 */
+	public int batchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Whether the header index is loaded from and, unless {@link #readOnly()}, saved to
+	 * {@code .extractsuperclass/index.bin} in each project root. The quarantine is kept next to it in
+	 * {@code quarantine.txt} when it is, and in memory otherwise, so nothing is written under the roots.
+	 */
+	public boolean persistentIndex() {
+		return persistentIndex;
+	}
+
+	/**
+	 * Directory names skipped while searching for modules and walking project roots without a source layout.
+	 */
+	public Set<String> ignoredDirectories() {
+		return ignoredDirectories;
+	}
+
+	/**
+	 * Number of worker JVMs the parse is sharded across, each with its own heap; {@code 0} or {@code 1} parses in
+	 * this process.
+	 */
+	public int workers() {
+		return workers;
+	}
+
+	/**
+	 * How files recorded in the persistent index are checked for changes.
+	 */
+	public Invalidation invalidation() {
+		return invalidation;
+	}
+
+	/**
+	 * Size above which a source file is quarantined instead of parsed; {@code 0} disables the limit.
+	 */
+	public long maxFileBytes() {
+		return maxFileBytes;
+	}
+
+	/**
+	 * Time a single file's parse may take before it is abandoned and the file quarantined; {@code 0} disables the
+	 * limit.
+	 */
+	public long parseTimeoutMillis() {
+		return parseTimeoutMillis;
+	}
+
+	/**
+	 * Whether files whose top-level types are annotated {@code @Generated} are left out of the index.
+	 */
+	public boolean skipGenerated() {
+		return skipGenerated;
+	}
+
+	/**
+	 * Whether indexing leaves the project roots untouched: a saved snapshot and quarantine are still read, but
+	 * nothing is written under {@code .extractsuperclass}. Dry runs index this way.
+	 */
+	public boolean readOnly() {
+		return readOnly;
+	}
+
+	/** These options with {@link #readOnly()} set, or these options themselves when it already is. */
+	IndexOptions asReadOnly() {
+		if (readOnly) {
+			return this;
+		}
+		Builder builder = new Builder()
+			.parallelism(parallelism)
+			.mode(mode)
+			.batchSize(batchSize)
+			.persistentIndex(persistentIndex)
+			.workers(workers)
+			.invalidation(invalidation)
+			.maxFileBytes(maxFileBytes)
+			.parseTimeoutMillis(parseTimeoutMillis)
+			.skipGenerated(skipGenerated)
+			.readOnly(true);
+		builder.ignoredDirectories = ignoredDirectories;
+		return builder.build();
+	}
+
+	int effectiveParallelism() {
+		return parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * The settings that decide which files are indexed and what is kept for them, so that indexes built with
+	 * different options can be told apart; parallelism, mode, batch size and workers only change how fast an index
+	 * is built, and {@link #readOnly()} only whether it is saved.
+	 */
+	List<Object> indexSettings() {
+		return Arrays.asList(new TreeSet<>(ignoredDirectories), persistentIndex, invalidation, maxFileBytes,
+			parseTimeoutMillis, skipGenerated);
+	}
+
+	/**
+	 * How source files are handed to the JDT parser while indexing. Indexing never resolves bindings; they are
+	 * resolved afterwards for the selected targets only, so every mode produces the same index.
+	 */
+	public enum Mode {
+		/** One parser call per file that skips method bodies. */
+		HEADERS,
+		/** One parser call per file that also parses method bodies. */
+		PER_FILE,
+		/** Batches of files share one {@code createASTs} call that skips method bodies. */
+		BATCHED;
+
+		/**
+		 * Parses a user-supplied mode name, ignoring case and accepting dashes for underscores.
+		 */
+		public static Mode parse(String value) {
+			if (value == null || value.trim().isEmpty()) {
+				throw new IllegalArgumentException("index mode cannot be empty");
+			}
+			String normalized = value.trim().replace('-', '_').toUpperCase(Locale.ROOT);
+			for (Mode mode : values()) {
+				if (mode.name().equals(normalized)) {
+					return mode;
+				}
+			}
+			throw new IllegalArgumentException("Unknown index mode: " + value);
+		}
+	}
+
+	/**
+	 * How a persistent index decides which files changed since it was saved.
+	 */
+	public enum Invalidation {
+		/** Size and modification time, with a content hash when only the time moved. */
+		MTIME,
+		/**
+		 * The blob ids in the root's {@code .git/index}: files git considers unmodified are reused by blob id without
+		 * reading them, so checkouts and rebases only re-parse files whose content differs. Roots outside a git work
+		 * tree, or with an index this reader does not support, fall back to {@link #MTIME}.
+		 */
+		GIT;
+
+		/**
+		 * Parses a user-supplied invalidation name, ignoring case.
+		 */
+		public static Invalidation parse(String value) {
+			if (value == null || value.trim().isEmpty()) {
+				throw new IllegalArgumentException("index invalidation cannot be empty");
+			}
+			String normalized = value.trim().toUpperCase(Locale.ROOT);
+			for (Invalidation invalidation : values()) {
+				if (invalidation.name().equals(normalized)) {
+					return invalidation;
+				}
+			}
+			throw new IllegalArgumentException("Unknown index invalidation: " + value);
+		}
+	}
+
+	/**
+	 * Builder for IndexOptions.
+	 */
+	public static class Builder {
+		private int parallelism;
+		private Mode mode = Mode.HEADERS;
+		private int batchSize;
+		private boolean persistentIndex = true;
+		private Set<String> ignoredDirectories = SourceRootDiscovery.DEFAULT_IGNORED_DIRS;
+		private int workers;
+		private Invalidation invalidation = Invalidation.MTIME;
+		private long maxFileBytes = DEFAULT_MAX_FILE_BYTES;
+		private long parseTimeoutMillis = DEFAULT_PARSE_TIMEOUT_MILLIS;
+		private boolean skipGenerated = true;
+		private boolean readOnly;
+
+		public Builder parallelism(int parallelism) {
+			if (parallelism < 0) {
+				throw new IllegalArgumentException("parallelism cannot be negative");
+			}
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		public Builder mode(Mode mode) {
+			if (mode == null) {
+				throw new IllegalArgumentException("mode cannot be null");
+			}
+			this.mode = mode;
+			return this;
+		}
+
+		public Builder batchSize(int batchSize) {
+			if (batchSize < 0) {
+				throw new IllegalArgumentException("batchSize cannot be negative");
+			}
+			this.batchSize = batchSize;
+			return this;
+		}
+
+		public Builder persistentIndex(boolean persistentIndex) {
+			this.persistentIndex = persistentIndex;
+			return this;
+		}
+
+		/**
+		 * Replaces the default ignored directory names.
+		 */
+		public Builder ignoredDirectories(Collection<String> names) {
+			if (names == null) {
+				throw new IllegalArgumentException("ignoredDirectories cannot be null");
+			}
+			Set<String> copy = new LinkedHashSet<>();
+			for (String name : names) {
+				if (name != null && !name.trim().isEmpty()) {
+					copy.add(name.trim());
+				}
+			}
+			this.ignoredDirectories = Collections.unmodifiableSet(copy);
+			return this;
+		}
+
+		public Builder workers(int workers) {
+			if (workers < 0) {
+				throw new IllegalArgumentException("workers cannot be negative");
+			}
+			this.workers = workers;
+			return this;
+		}
+
+		public Builder invalidation(Invalidation invalidation) {
+			if (invalidation == null) {
+				throw new IllegalArgumentException("invalidation cannot be null");
+			}
+			this.invalidation = invalidation;
+			return this;
+		}
+
+		public Builder maxFileBytes(long maxFileBytes) {
+			if (maxFileBytes < 0) {
+				throw new IllegalArgumentException("maxFileBytes cannot be negative");
+			}
+			this.maxFileBytes = maxFileBytes;
+			return this;
+		}
+
+		public Builder parseTimeoutMillis(long parseTimeoutMillis) {
+			if (parseTimeoutMillis < 0) {
+				throw new IllegalArgumentException("parseTimeoutMillis cannot be negative");
+			}
+			this.parseTimeoutMillis = parseTimeoutMillis;
+			return this;
+		}
+
+		public Builder skipGenerated(boolean skipGenerated) {
+			this.skipGenerated = skipGenerated;
+			return this;
+		}
+
+		public Builder readOnly(boolean readOnly) {
+			this.readOnly = readOnly;
+			return this;
+		}
+
+		public IndexOptions build() {
+			return new IndexOptions(this);
+		}
+	}
+}
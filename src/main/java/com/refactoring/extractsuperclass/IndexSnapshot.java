@@ -0,0 +1,249 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Compact on-disk copy of the header-level type index for one project root, stored under
+ * {@code .extractsuperclass/index.bin}. Each source file is keyed by size, mtime and a content hash so the next
+ * run only re-parses files that actually changed. A version or checksum mismatch discards the snapshot.
+ */
+final class IndexSnapshot {
+	private static final Logger logger = LoggerFactory.getLogger(IndexSnapshot.class);
+	static final String DIRECTORY = ".extractsuperclass";
+	static final String FILE_NAME = "index.bin";
+	private static final int MAGIC = 0x45534958; // "ESIX"
+	private static final int VERSION = 3;
+	private static final int HEADER_BYTES = 4 + 4 + 4 + 8;
+
+	private IndexSnapshot() {
+	}
+
+	static Path location(Path projectRoot) {
+		return projectRoot.resolve(DIRECTORY).resolve(FILE_NAME);
+	}
+
+	/**
+	 * Loads the snapshot for a project root keyed by absolute file path; returns an empty map when it is missing,
+	 * written by another format version, or fails its checksum.
+	 */
+	static Map<Path, Entry> load(Path projectRoot) {
+		Path file = location(projectRoot);
+		if (!Files.isRegularFile(file)) {
+			return new HashMap<>();
+		}
+		try (InputStream in = Files.newInputStream(file)) {
+			byte[] bytes = in.readAllBytes();
+			if (bytes.length < HEADER_BYTES) {
+				throw new IOException("truncated header");
+			}
+			ByteBuffer header = ByteBuffer.wrap(bytes, 0, HEADER_BYTES);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("bad magic");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				logger.info("Ignoring index snapshot {} written by format version {} (expected {})", file, version, VERSION);
+				return new HashMap<>();
+			}
+			int length = header.getInt();
+			long checksum = header.getLong();
+			if (length != bytes.length - HEADER_BYTES) {
+				throw new IOException("payload length mismatch");
+			}
+			CRC32 crc = new CRC32();
+			crc.update(bytes, HEADER_BYTES, length);
+			if (crc.getValue() != checksum) {
+				throw new IOException("checksum mismatch");
+			}
+			return decode(projectRoot, new DataInputStream(new ByteArrayInputStream(bytes, HEADER_BYTES, length)));
+		} catch (Exception ex) {
+			logger.warn("Discarding unreadable index snapshot {}: {}", file, ex.getMessage());
+			return new HashMap<>();
+		}
+	}
+
+	/** Writes the snapshot atomically so concurrent readers never observe a partial file. */
+	static void save(Path projectRoot, Collection<Entry> entries) throws IOException {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(payload)) {
+			encode(projectRoot, entries, out);
+		}
+		byte[] body = payload.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).putInt(VERSION).putInt(body.length).putLong(crc.getValue());
+
+		Path file = location(projectRoot);
+		Files.createDirectories(file.getParent());
+		Path tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				out.write(header.array());
+				out.write(body);
+			}
+			try {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static void encode(Path projectRoot, Collection<Entry> entries, DataOutputStream out) throws IOException {
+		// Package names repeat across most types, so they are written once and referenced by index.
+		Map<String, Integer> packages = new LinkedHashMap<>();
+		for (Entry entry : entries) {
+			for (ExtractSuperclassRefactorer.TargetType type : entry.types) {
+				packages.putIfAbsent(type.packageName, packages.size());
+			}
+		}
+		out.writeInt(packages.size());
+		for (String pkg : packages.keySet()) {
+			out.writeUTF(pkg);
+		}
+		out.writeInt(entries.size());
+		for (Entry entry : entries) {
+			out.writeUTF(relativize(projectRoot, entry.file));
+			out.writeLong(entry.size);
+			out.writeLong(entry.mtime);
+			out.writeByte(entry.hash.length);
+			out.write(entry.hash);
+			out.writeByte(entry.blob == null ? 0 : entry.blob.length);
+			if (entry.blob != null) {
+				out.write(entry.blob);
+			}
+			out.writeInt(entry.types.size());
+			for (ExtractSuperclassRefactorer.TargetType type : entry.types) {
+				out.writeInt(packages.get(type.packageName));
+				out.writeUTF(type.simpleName);
+				out.writeInt(type.typeStart);
+				out.writeInt(type.typeLength);
+				out.writeInt(type.headerLength);
+				out.writeBoolean(type.hasSuperclass());
+				if (type.hasSuperclass()) {
+					out.writeUTF(type.superclassName);
+				}
+			}
+		}
+	}
+
+	private static Map<Path, Entry> decode(Path projectRoot, DataInputStream in) throws IOException {
+		int packageCount = in.readInt();
+		String[] packages = new String[packageCount];
+		for (int i = 0; i < packageCount; i++) {
+			packages[i] = in.readUTF();
+		}
+		int entryCount = in.readInt();
+		Map<Path, Entry> entries = new HashMap<>(Math.max(16, entryCount * 2));
+		for (int i = 0; i < entryCount; i++) {
+			Path file = projectRoot.resolve(in.readUTF()).normalize();
+			long size = in.readLong();
+			long mtime = in.readLong();
+			byte[] hash = new byte[in.readUnsignedByte()];
+			in.readFully(hash);
+			int blobLength = in.readUnsignedByte();
+			byte[] blob = null;
+			if (blobLength > 0) {
+				blob = new byte[blobLength];
+				in.readFully(blob);
+			}
+			int typeCount = in.readInt();
+			List<ExtractSuperclassRefactorer.TargetType> types = new ArrayList<>(typeCount);
+			for (int t = 0; t < typeCount; t++) {
+				String pkg = packages[in.readInt()];
+				String simple = in.readUTF();
+				int start = in.readInt();
+				int length = in.readInt();
+				int headerLength = in.readInt();
+				String superclassName = in.readBoolean() ? in.readUTF() : null;
+				String fqn = pkg.isEmpty() ? simple : pkg + "." + simple;
+				types.add(new ExtractSuperclassRefactorer.TargetType(fqn, pkg, simple, file, start, length, headerLength, superclassName));
+			}
+			entries.put(file, new Entry(file, size, mtime, hash, blob, types));
+		}
+		if (in.available() > 0) {
+			throw new IOException("trailing bytes after last entry");
+		}
+		return entries;
+	}
+
+	static String relativize(Path projectRoot, Path file) {
+		Path relative = projectRoot.relativize(file);
+		StringBuilder builder = new StringBuilder();
+		for (Path part : relative) {
+			if (builder.length() > 0) {
+				builder.append('/');
+			}
+			builder.append(part.toString());
+		}
+		return builder.toString();
+	}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 digest unavailable", ex);
+		}
+	}
+
+	/** Indexed types of one source file together with the file stamp they were parsed from. */
+	static final class Entry {
+		final Path file;
+		final long size;
+		final long mtime;
+		final byte[] hash;
+		/** Git blob id of the parsed content when git's index vouched for it, otherwise null. */
+		final byte[] blob;
+		final List<ExtractSuperclassRefactorer.TargetType> types;
+
+		Entry(Path file, long size, long mtime, byte[] hash, List<ExtractSuperclassRefactorer.TargetType> types) {
+			this(file, size, mtime, hash, null, types);
+		}
+
+		Entry(Path file, long size, long mtime, byte[] hash, byte[] blob, List<ExtractSuperclassRefactorer.TargetType> types) {
+			this.file = file;
+			this.size = size;
+			this.mtime = mtime;
+			this.hash = hash;
+			this.blob = blob;
+			this.types = types;
+		}
+
+		boolean matchesStamp(BasicFileAttributes attrs) {
+			return attrs.size() == size && attrs.lastModifiedTime().toMillis() == mtime;
+		}
+
+		/** Copy of this entry re-stamped after a content hash proved the file unchanged. */
+		Entry restamped(BasicFileAttributes attrs) {
+			return new Entry(file, attrs.size(), attrs.lastModifiedTime().toMillis(), hash, blob, types);
+		}
+
+		/** Copy of this entry that records the git blob id of its content. */
+		Entry withBlob(byte[] blob) {
+			return new Entry(file, size, mtime, hash, blob, types);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Entry point of an index worker JVM started by {@link ShardedIndexer}. A worker reads one shard request from stdin,
+ * parses its files with its own heap and threads, writes their types back on stdout and exits. Stdout carries only
+ * the protocol; logging goes to stderr, which the coordinator inherits.
+ */
+final class IndexWorker {
+	private static final Logger logger = LoggerFactory.getLogger(IndexWorker.class);
+	private static final int MAGIC = 0x45535752; // "ESWR"
+	private static final byte OK = 0;
+	private static final byte FAILED = 1;
+
+	private IndexWorker() {
+	}
+
+	public static void main(String[] args) {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+		// Keep stray prints off the protocol stream.
+		System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+		int status = 0;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not an index worker request");
+			}
+			IndexOptions options = IndexOptions.builder()
+				.mode(IndexOptions.Mode.valueOf(in.readUTF()))
+				.parallelism(in.readInt())
+				.batchSize(in.readInt())
+				.maxFileBytes(in.readLong())
+				.parseTimeoutMillis(in.readLong())
+				.skipGenerated(in.readBoolean())
+				.persistentIndex(false)
+				.build();
+			boolean hash = in.readBoolean();
+			int count = in.readInt();
+			List<Path> files = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				files.add(Paths.get(in.readUTF()));
+			}
+			List<List<ExtractSuperclassRefactorer.TargetType>> parsed = new ArrayList<>(Collections.nCopies(count, null));
+			List<byte[]> hashes = hash ? new ArrayList<>(Collections.nCopies(count, null)) : null;
+			List<String> failures = new ArrayList<>(Collections.nCopies(count, null));
+			try {
+				new TypeIndexer(options).parse(files, parsed, hashes, failures);
+			} catch (IOException | RuntimeException ex) {
+				out.writeInt(MAGIC);
+				out.writeByte(FAILED);
+				out.writeUTF(String.valueOf(ex.getMessage()));
+				out.flush();
+				status = 1;
+				return;
+			}
+			out.writeInt(MAGIC);
+			out.writeByte(OK);
+			for (int i = 0; i < count; i++) {
+				writeTypes(out, parsed.get(i));
+				out.writeBoolean(failures.get(i) != null);
+				if (failures.get(i) != null) {
+					out.writeUTF(failures.get(i));
+				}
+				if (hash) {
+					byte[] fileHash = hashes.get(i) == null ? new byte[0] : hashes.get(i);
+					out.writeByte(fileHash.length);
+					out.write(fileHash);
+				}
+			}
+			out.flush();
+		} catch (IOException | RuntimeException ex) {
+			logger.error("Index worker failed: {}", ex.getMessage(), ex);
+			status = 1;
+		} finally {
+			System.exit(status);
+		}
+	}
+
+	/** Sends a shard to a worker, which parses it with {@code options} on {@code parallelism} threads. */
+	static void writeRequest(DataOutputStream out, IndexOptions options, int parallelism, boolean hash, List<Path> files)
+			throws IOException {
+		out.writeInt(MAGIC);
+		out.writeUTF(options.mode().name());
+		out.writeInt(parallelism);
+		out.writeInt(options.batchSize());
+		out.writeLong(options.maxFileBytes());
+		out.writeLong(options.parseTimeoutMillis());
+		out.writeBoolean(options.skipGenerated());
+		out.writeBoolean(hash);
+		out.writeInt(files.size());
+		for (Path file : files) {
+			out.writeUTF(file.toString());
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads a worker's answer for {@code files} into {@code parsed}, {@code hashes} and {@code failures} starting at
+	 * {@code offset}. Fails when the worker reported an error or its output is cut short.
+	 */
+	static void readReply(DataInputStream in, List<Path> files, List<List<ExtractSuperclassRefactorer.TargetType>> parsed,
+			List<byte[]> hashes, List<String> failures, int offset) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Malformed index worker reply");
+		}
+		if (in.readByte() != OK) {
+			throw new IOException("Index worker failed: " + in.readUTF());
+		}
+		for (int i = 0; i < files.size(); i++) {
+			parsed.set(offset + i, readTypes(in, files.get(i)));
+			if (in.readBoolean()) {
+				failures.set(offset + i, in.readUTF());
+			}
+			if (hashes != null) {
+				byte[] hash = new byte[in.readUnsignedByte()];
+				in.readFully(hash);
+				hashes.set(offset + i, hash.length == 0 ? null : hash);
+			}
+		}
+	}
+
+	private static void writeTypes(DataOutputStream out, List<ExtractSuperclassRefactorer.TargetType> types) throws IOException {
+		out.writeInt(types.size());
+		for (ExtractSuperclassRefactorer.TargetType type : types) {
+			out.writeUTF(type.packageName);
+			out.writeUTF(type.simpleName);
+			out.writeInt(type.typeStart);
+			out.writeInt(type.typeLength);
+			out.writeInt(type.headerLength);
+			out.writeBoolean(type.hasSuperclass());
+			if (type.hasSuperclass()) {
+				out.writeUTF(type.superclassName);
+			}
+		}
+	}
+
+	private static List<ExtractSuperclassRefactorer.TargetType> readTypes(DataInputStream in, Path file) throws IOException {
+		int count = in.readInt();
+		List<ExtractSuperclassRefactorer.TargetType> types = new ArrayList<>(count);
+		for (int t = 0; t < count; t++) {
+			String pkg = in.readUTF();
+			String simple = in.readUTF();
+			int start = in.readInt();
+			int length = in.readInt();
+			int headerLength = in.readInt();
+			String superclassName = in.readBoolean() ? in.readUTF() : null;
+			String fqn = pkg.isEmpty() ? simple : pkg + "." + simple;
+			types.add(new ExtractSuperclassRefactorer.TargetType(fqn, pkg, simple, file, start, length, headerLength, superclassName));
+		}
+		return types;
+	}
+}
@@ -0,0 +1,256 @@
+package com.refactoring.extractsuperclass;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON-RPC framing of the MCP server on stdin and stdout. Incoming messages are either framed by a
+ * {@code Content-Length} header or sent as one JSON line. Headers are parsed in place in a reused read buffer, and each
+ * payload is handed to Jackson's streaming parser as a slice of that buffer, so a message costs no header strings and
+ * no payload copy. Outgoing messages are generated straight into a reused byte buffer and written to stdout with one
+ * write and one flush per message, one JSON line each.
+ * <p>
+ * Reads are meant for a single thread; {@link #write} may be called from any thread.
+ */
+final class JsonRpcTransport {
+	private static final Logger logger = LoggerFactory.getLogger(JsonRpcTransport.class);
+	private static final int BUFFER_SIZE = 8192;
+	/** A buffer grown past this for one large message is replaced by a small one once the message is done. */
+	private static final int RETAINED_BUFFER_SIZE = 1 << 20;
+	private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+
+	private final InputStream in;
+	private final OutputStream out;
+	private final ObjectMapper mapper;
+	/** Unconsumed input is {@code buffer[pos, limit)}. */
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int pos;
+	private int limit;
+	private boolean eof;
+	/** Serialized form of the message being written; guarded by itself. */
+	private final FrameBuffer frame = new FrameBuffer();
+
+	JsonRpcTransport(InputStream in, OutputStream out, ObjectMapper mapper) {
+		this.in = in;
+		this.out = out;
+		this.mapper = mapper;
+	}
+
+	/**
+	 * Reads the next message, or returns null at the end of input. Throws a
+	 * {@link com.fasterxml.jackson.core.JsonProcessingException} for a malformed payload, after which reading can go
+	 * on with the next message, and another {@link IOException} when the input itself fails or is cut short.
+	 */
+	JsonNode read() throws IOException {
+		int contentLength = -1;
+		while (true) {
+			int newline = nextNewline();
+			if (newline < 0 && pos == limit) {
+				return null;
+			}
+			int start = pos;
+			int end = newline < 0 ? limit : newline;
+			pos = newline < 0 ? limit : newline + 1;
+			if (end > start && buffer[end - 1] == '\r') {
+				end--;
+			}
+			if (end == start) {
+				if (contentLength >= 0) {
+					return payload(contentLength);
+				}
+				continue;
+			}
+
+			int colon = headerColon(start, end);
+			if (colon < 0) {
+				int first = start;
+				while (first < end && isWhitespace(buffer[first])) {
+					first++;
+				}
+				int last = end;
+				while (last > first && isWhitespace(buffer[last - 1])) {
+					last--;
+				}
+				if (first < last && (buffer[first] == '{' || buffer[first] == '[')) {
+					return parse(first, last - first);
+				}
+				logger.warn("Ignoring unrecognised header line: {}", new String(buffer, start, end - start, StandardCharsets.UTF_8));
+				continue;
+			}
+			if (equalsIgnoreCase(start, colon, CONTENT_LENGTH)) {
+				contentLength = parseLength(colon + 1, end);
+			}
+		}
+	}
+
+	/** Writes one message as a single JSON line and flushes it. */
+	void write(JsonNode message) throws IOException {
+		synchronized (frame) {
+			frame.reset();
+			try (JsonGenerator generator = mapper.getFactory().createGenerator(frame)) {
+				mapper.writeTree(generator, message);
+			}
+			frame.write('\n');
+			frame.writeTo(out);
+			out.flush();
+			frame.release();
+		}
+	}
+
+	private JsonNode payload(int length) throws IOException {
+		if (!fill(length)) {
+			pos = limit;
+			throw new IOException("Unexpected end of stream while reading JSON-RPC payload.");
+		}
+		int start = pos;
+		pos += length;
+		try {
+			return parse(start, length);
+		} finally {
+			release();
+		}
+	}
+
+	private JsonNode parse(int offset, int length) throws IOException {
+		try (JsonParser parser = mapper.getFactory().createParser(buffer, offset, length)) {
+			JsonNode node = mapper.readTree(parser);
+			return node == null ? MissingNode.getInstance() : node;
+		}
+	}
+
+	/** Index of the next newline in the buffer, reading more input as needed, or -1 at the end of input. */
+	private int nextNewline() throws IOException {
+		int scanned = 0;
+		while (true) {
+			for (int i = pos + scanned; i < limit; i++) {
+				if (buffer[i] == '\n') {
+					return i;
+				}
+			}
+			scanned = limit - pos;
+			if (!fill(scanned + 1)) {
+				return -1;
+			}
+		}
+	}
+
+	/** Makes at least {@code count} unconsumed bytes available, compacting or growing the buffer; false at end of input. */
+	private boolean fill(int count) throws IOException {
+		if (limit - pos >= count) {
+			return true;
+		}
+		if (pos + count > buffer.length) {
+			byte[] target = count > buffer.length ? new byte[Math.max(count, buffer.length * 2)] : buffer;
+			System.arraycopy(buffer, pos, target, 0, limit - pos);
+			buffer = target;
+			limit -= pos;
+			pos = 0;
+		}
+		while (limit - pos < count && !eof) {
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read < 0) {
+				eof = true;
+			} else {
+				limit += read;
+			}
+		}
+		return limit - pos >= count;
+	}
+
+	/** Drops a read buffer that grew for a large payload once what is left fits a small one. */
+	private void release() {
+		if (buffer.length > RETAINED_BUFFER_SIZE && limit - pos <= BUFFER_SIZE) {
+			byte[] small = new byte[BUFFER_SIZE];
+			System.arraycopy(buffer, pos, small, 0, limit - pos);
+			buffer = small;
+			limit -= pos;
+			pos = 0;
+		}
+	}
+
+	/** Position of the colon ending a header name of letters, '-' and '_', or -1 when the line is not a header. */
+	private int headerColon(int start, int end) {
+		for (int i = start; i < end; i++) {
+			byte b = buffer[i];
+			if (b == ':') {
+				return i > start ? i : -1;
+			}
+			if (!Character.isLetter((char) (b & 0xFF)) && b != '-' && b != '_') {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private boolean equalsIgnoreCase(int start, int end, byte[] lowerCase) {
+		if (end - start != lowerCase.length) {
+			return false;
+		}
+		for (int i = 0; i < lowerCase.length; i++) {
+			byte b = buffer[start + i];
+			if (b >= 'A' && b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (b != lowerCase[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int parseLength(int start, int end) throws IOException {
+		while (start < end && isWhitespace(buffer[start])) {
+			start++;
+		}
+		while (end > start && isWhitespace(buffer[end - 1])) {
+			end--;
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			byte b = buffer[i];
+			if (b < '0' || b > '9' || value > Integer.MAX_VALUE) {
+				value = -1;
+				break;
+			}
+			value = value * 10 + (b - '0');
+		}
+		if (start == end || value < 0 || value > Integer.MAX_VALUE) {
+			throw new IOException("Invalid Content-Length header value: "
+				+ new String(buffer, start, end - start, StandardCharsets.UTF_8));
+		}
+		return (int) value;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	/** Reused serialization buffer; one grown for a large message is dropped after it is written. */
+	private static final class FrameBuffer extends ByteArrayOutputStream {
+		FrameBuffer() {
+			super(BUFFER_SIZE);
+		}
+
+		void release() {
+			if (buf.length > RETAINED_BUFFER_SIZE) {
+				buf = new byte[BUFFER_SIZE];
+			}
+		}
+
+		@Override
+		public void close() {
+			// The generator closes its target; the buffer is kept for the next message.
+		}
+	}
+}
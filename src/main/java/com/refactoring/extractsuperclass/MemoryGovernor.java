@@ -0,0 +1,158 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the long-running server inside its heap. After every garbage collection the used share of the maximum heap is
+ * compared with the threshold of each {@link Tier}; every registered structure of a tier whose threshold is exceeded
+ * is shed, cheapest to rebuild first. If the heap is still above {@link #CONSTRAINED_FRACTION} after that,
+ * {@link #constrained()} turns on and indexing switches to its low-memory mode instead of running out of heap.
+ */
+final class MemoryGovernor {
+	private static final Logger logger = LoggerFactory.getLogger(MemoryGovernor.class);
+	/** Heap share, measured after a collection, above which indexing runs in its low-memory mode. */
+	static final double CONSTRAINED_FRACTION = 0.90;
+	/** Notification type of HotSpot's garbage collector beans. */
+	private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+	private static final MemoryGovernor INSTANCE = new MemoryGovernor();
+
+	/** Shedding order, cheapest to rebuild first, with the heap share at which each tier is dropped. */
+	enum Tier {
+		/** Pooled read and decode buffers of the source loader. */
+		PARSER_BUFFERS(0.70),
+		/** Class headers of jars, jmods and the JDK, which are kept on disk as well. */
+		CLASS_INDEXES(0.75),
+		/** Parsed {@code pom.xml} documents. */
+		POM_MODELS(0.80),
+		/** Workspace indexes that are not serving the current request. */
+		INACTIVE_WORKSPACES(0.85);
+
+		final double threshold;
+
+		Tier(double threshold) {
+			this.threshold = threshold;
+		}
+	}
+
+	/** A cache the governor may drop under memory pressure. */
+	interface Sheddable {
+		String name();
+
+		Tier tier();
+
+		/** Rough number of heap bytes the structure currently holds. */
+		long estimatedBytes();
+
+		/** Drops whatever can be rebuilt later and returns an estimate of the bytes released. */
+		long shed();
+	}
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final List<Sheddable> registered = new CopyOnWriteArrayList<>();
+	private final AtomicBoolean listening = new AtomicBoolean();
+	private volatile boolean constrained;
+
+	MemoryGovernor() {
+	}
+
+	/** The process-wide governor; the first call starts listening for garbage collections. */
+	static MemoryGovernor get() {
+		INSTANCE.listen();
+		return INSTANCE;
+	}
+
+	void register(Sheddable sheddable) {
+		registered.add(sheddable);
+	}
+
+	void unregister(Sheddable sheddable) {
+		registered.remove(sheddable);
+	}
+
+	/** True while the heap stays above {@link #CONSTRAINED_FRACTION} even after shedding. */
+	boolean constrained() {
+		return constrained;
+	}
+
+	/** Bytes held by each registered structure, summed by name. */
+	Map<String, Long> report() {
+		Map<String, Long> report = new LinkedHashMap<>();
+		for (Sheddable sheddable : registered) {
+			report.merge(sheddable.name(), safeEstimate(sheddable), Long::sum);
+		}
+		return report;
+	}
+
+	/** Share of the maximum heap in use right now; 0 when the maximum is unknown. */
+	double heapUsage() {
+		MemoryUsage usage = memory.getHeapMemoryUsage();
+		long max = usage.getMax() > 0 ? usage.getMax() : Runtime.getRuntime().maxMemory();
+		return max <= 0 || max == Long.MAX_VALUE ? 0 : (double) usage.getUsed() / max;
+	}
+
+	/** Sheds every tier whose threshold {@code usage} reaches and updates {@link #constrained()}. */
+	synchronized void evaluate(double usage) {
+		for (Tier tier : Tier.values()) {
+			if (usage < tier.threshold) {
+				break;
+			}
+			long released = 0;
+			for (Sheddable sheddable : registered) {
+				if (sheddable.tier() == tier) {
+					try {
+						released += sheddable.shed();
+					} catch (RuntimeException ex) {
+						logger.warn("Failed to shed {}: {}", sheddable.name(), ex.getMessage());
+					}
+				}
+			}
+			logger.info("Heap at {}% after GC; shed {} (~{} bytes released)", Math.round(usage * 100), tier, released);
+		}
+		boolean nowConstrained = usage >= CONSTRAINED_FRACTION;
+		if (nowConstrained != constrained) {
+			constrained = nowConstrained;
+			if (nowConstrained) {
+				logger.warn("Heap still at {}% after shedding; indexing switches to low-memory mode. Held: {}",
+					Math.round(usage * 100), report());
+			} else {
+				logger.info("Heap back to {}%; indexing leaves low-memory mode", Math.round(usage * 100));
+			}
+		}
+	}
+
+	private void listen() {
+		if (!listening.compareAndSet(false, true)) {
+			return;
+		}
+		NotificationListener listener = (Notification notification, Object handback) -> {
+			if (GC_NOTIFICATION.equals(notification.getType())) {
+				evaluate(heapUsage());
+			}
+		};
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (collector instanceof NotificationEmitter) {
+				((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+			}
+		}
+	}
+
+	private static long safeEstimate(Sheddable sheddable) {
+		try {
+			return sheddable.estimatedBytes();
+		} catch (RuntimeException ex) {
+			return 0;
+		}
+	}
+}
@@ -5,8 +5,6 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
@@ -18,6 +16,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.LongSupplier;
 import java.util.stream.Stream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -38,10 +38,24 @@ final class ModuleDependencyManager {
 
 	private final List<File> projectRoots;
 	private final Logger logger;
+	/** Counter that moves whenever a pom below the roots may have changed; null disables the scan cache. */
+	private final LongSupplier buildFileGeneration;
+	// Poms found by the last walk of the roots and the generation they were found at, guarded by this.
+	private List<Path> scannedPoms;
+	private long scannedGeneration;
 
 	ModuleDependencyManager(List<File> projectRoots, Logger logger) {
+		this(projectRoots, logger, null);
+	}
+
+	/**
+	 * Creates a manager that walks the roots for {@code pom.xml} files once and reuses what it found until
+	 * {@code buildFileGeneration} moves on. Poms are parsed through {@link PomCache} either way.
+	 */
+	ModuleDependencyManager(List<File> projectRoots, Logger logger, LongSupplier buildFileGeneration) {
 		this.projectRoots = new ArrayList<>(projectRoots);
 		this.logger = logger;
+		this.buildFileGeneration = buildFileGeneration;
 	}
 
 	ExtractSuperclassRefactorer.SuperclassPlacement planSuperclassPlacement(
@@ -49,9 +63,20 @@ final class ModuleDependencyManager {
 		ExtractSuperclassRefactorer.NameParts planned,
 		List<ExtractSuperclassRefactorer.TargetType> targets,
 		boolean allowPackageInference
+	) {
+		return planSuperclassPlacement(env, planned, targets, allowPackageInference, Progress.NONE);
+	}
+
+	/** Plans the placement, reporting the poms read to {@code progress} and stopping when it is cancelled. */
+	ExtractSuperclassRefactorer.SuperclassPlacement planSuperclassPlacement(
+		ExtractSuperclassRefactorer.RefEnv env,
+		ExtractSuperclassRefactorer.NameParts planned,
+		List<ExtractSuperclassRefactorer.TargetType> targets,
+		boolean allowPackageInference,
+		Progress progress
 	) {
 		ExtractSuperclassRefactorer.SuperclassPlacement autoPlacement =
-			attemptAutoSuperclassPlacement(env, planned, targets, allowPackageInference);
+			attemptAutoSuperclassPlacement(env, planned, targets, allowPackageInference, progress);
 		if (autoPlacement != null) {
 			return autoPlacement;
 		}
@@ -59,6 +84,16 @@ final class ModuleDependencyManager {
 	}
 
 	List<Path> ensureModuleDependencies(Path superFile, List<ExtractSuperclassRefactorer.TargetType> targets) throws Exception {
+		return ensureModuleDependencies(superFile, targets, Progress.NONE);
+	}
+
+	/**
+	 * Adds the dependencies, stopping when {@code progress} is cancelled while the module graph is built, before any
+	 * pom is written. The poms read are not reported: this runs after the rewrite has reported its last target, and a
+	 * pom report then would only tell a listener that an earlier stage went backwards.
+	 */
+	List<Path> ensureModuleDependencies(Path superFile, List<ExtractSuperclassRefactorer.TargetType> targets, Progress progress)
+			throws Exception {
 		if (superFile == null) {
 			return Collections.emptyList();
 		}
@@ -70,7 +105,7 @@ final class ModuleDependencyManager {
 		Path superPomPath = superModule.resolve("pom.xml");
 		PomInfo superPom;
 		try {
-			superPom = loadPom(superPomPath);
+			superPom = loadPom(superPomPath, false);
 		} catch (Exception ex) {
 			logger.warn("Failed to read anchor module pom {}", superPomPath, ex);
 			return Collections.emptyList();
@@ -84,8 +119,10 @@ final class ModuleDependencyManager {
 		ModuleGraph dependencyGraph;
 		ModuleInfo superModuleInfo;
 		try {
-			dependencyGraph = buildModuleGraph(targets);
+			dependencyGraph = buildModuleGraph(targets, progress, false);
 			superModuleInfo = dependencyGraph.findByRoot(superModule);
+		} catch (CancellationException ex) {
+			throw ex;
 		} catch (Exception ex) {
 			logger.debug("Failed to build dependency graph for cycle detection: {}", ex.getMessage());
 			dependencyGraph = null;
@@ -106,7 +143,7 @@ final class ModuleDependencyManager {
 			Path pomPath = moduleRoot.resolve("pom.xml");
 			PomInfo targetPom;
 			try {
-				targetPom = loadPom(pomPath);
+				targetPom = loadPom(pomPath, true);
 			} catch (Exception ex) {
 				logger.warn("Failed to read pom {} while adding superclass dependency", pomPath, ex);
 				continue;
@@ -135,18 +172,49 @@ final class ModuleDependencyManager {
 		return changed;
 	}
 
+	/**
+	 * Real paths of the modules holding the given files plus every module they depend on, directly or transitively.
+	 * Returns null when a file lies outside every known module, in which case no narrower scope is safe.
+	 */
+	Set<Path> dependencyClosure(Collection<Path> files) {
+		return dependencyClosure(files, Progress.NONE);
+	}
+
+	/** {@link #dependencyClosure(Collection)}, reporting the poms read to {@code progress}. */
+	Set<Path> dependencyClosure(Collection<Path> files, Progress progress) {
+		ModuleGraph graph = buildModuleGraph(null, progress, true);
+		Map<Path, ModuleInfo> byRealRoot = new HashMap<>();
+		for (ModuleInfo module : graph.modulesByRoot.values()) {
+			byRealRoot.put(SourceRootDiscovery.realPath(module.root), module);
+		}
+		Set<Path> closure = new LinkedHashSet<>();
+		for (Path file : files) {
+			Path moduleRoot = findModuleRoot(file);
+			ModuleInfo module = moduleRoot == null ? null : byRealRoot.get(SourceRootDiscovery.realPath(moduleRoot));
+			if (module == null) {
+				logger.debug("No module in the dependency graph owns {}", file);
+				return null;
+			}
+			for (ModuleInfo upstream : graph.computeDistances(module).keySet()) {
+				closure.add(SourceRootDiscovery.realPath(upstream.root));
+			}
+		}
+		return closure;
+	}
+
 	private ExtractSuperclassRefactorer.SuperclassPlacement attemptAutoSuperclassPlacement(
 		ExtractSuperclassRefactorer.RefEnv env,
 		ExtractSuperclassRefactorer.NameParts planned,
 		List<ExtractSuperclassRefactorer.TargetType> targets,
-		boolean allowPackageInference
+		boolean allowPackageInference,
+		Progress progress
 	) {
 		if (targets == null || targets.isEmpty()) {
 			return null;
 		}
 
 		try {
-			ModuleGraph graph = buildModuleGraph(targets);
+			ModuleGraph graph = buildModuleGraph(targets, progress, true);
 			if (graph.isEmpty()) {
 				return null;
 			}
@@ -201,28 +269,27 @@ final class ModuleDependencyManager {
 			ExtractSuperclassRefactorer.NameParts effective = new ExtractSuperclassRefactorer.NameParts(pkg, planned.simple);
 			logger.info("Auto-selected superclass placement in module {} at {}", candidate.describe(), filePath);
 			return new ExtractSuperclassRefactorer.SuperclassPlacement(effective, filePath);
+		} catch (CancellationException ex) {
+			throw ex;
 		} catch (Exception ex) {
 			logger.warn("Failed to auto-select superclass placement: {}", ex.getMessage(), ex);
 			return null;
 		}
 	}
 
-	private ModuleGraph buildModuleGraph(List<ExtractSuperclassRefactorer.TargetType> targets) {
+	/** Reads every module pom, checking {@code progress} for cancellation and reporting the poms read when asked to. */
+	private ModuleGraph buildModuleGraph(List<ExtractSuperclassRefactorer.TargetType> targets, Progress progress,
+			boolean report) {
 		Map<Path, ModuleInfo> modulesByRoot = new LinkedHashMap<>();
 		Map<ModuleCoordinate, ModuleInfo> modulesByCoordinate = new LinkedHashMap<>();
 
-		for (File rootFile : projectRoots) {
-			Path projectRoot = rootFile.toPath().toAbsolutePath().normalize();
-			if (!Files.exists(projectRoot)) {
-				continue;
-			}
-			try (Stream<Path> stream = Files.walk(projectRoot, 8)) {
-				stream.filter(Files::isRegularFile)
-					.filter(p -> "pom.xml".equalsIgnoreCase(p.getFileName().toString()))
-					.filter(p -> !isIgnoredModulePath(projectRoot, p))
-					.forEach(p -> registerModule(modulesByRoot, modulesByCoordinate, p));
-			} catch (Exception ex) {
-				logger.debug("Failed to scan {} for pom.xml files: {}", projectRoot, ex.getMessage());
+		progress.checkpoint();
+		List<Path> poms = modulePoms();
+		for (int i = 0; i < poms.size(); i++) {
+			progress.checkpoint();
+			registerModule(modulesByRoot, modulesByCoordinate, poms.get(i));
+			if (report) {
+				progress.report(Progress.Stage.POMS, i + 1, poms.size());
 			}
 		}
 
@@ -245,6 +312,35 @@ final class ModuleDependencyManager {
 		return graph;
 	}
 
+	private List<Path> modulePoms() {
+		long generation = buildFileGeneration == null ? 0 : buildFileGeneration.getAsLong();
+		synchronized (this) {
+			if (buildFileGeneration != null && scannedPoms != null && scannedGeneration == generation) {
+				return scannedPoms;
+			}
+		}
+		List<Path> poms = new ArrayList<>();
+		for (File rootFile : projectRoots) {
+			Path projectRoot = rootFile.toPath().toAbsolutePath().normalize();
+			if (!Files.exists(projectRoot)) {
+				continue;
+			}
+			try (Stream<Path> stream = Files.walk(projectRoot, 8)) {
+				stream.filter(Files::isRegularFile)
+					.filter(p -> "pom.xml".equalsIgnoreCase(p.getFileName().toString()))
+					.filter(p -> !isIgnoredModulePath(projectRoot, p))
+					.forEach(poms::add);
+			} catch (Exception ex) {
+				logger.debug("Failed to scan {} for pom.xml files: {}", projectRoot, ex.getMessage());
+			}
+		}
+		synchronized (this) {
+			scannedPoms = Collections.unmodifiableList(poms);
+			scannedGeneration = generation;
+		}
+		return poms;
+	}
+
 	private void registerModule(
 		Map<Path, ModuleInfo> modulesByRoot,
 		Map<ModuleCoordinate, ModuleInfo> modulesByCoordinate,
@@ -259,7 +355,7 @@ final class ModuleDependencyManager {
 			return;
 		}
 		try {
-			PomInfo pom = loadPom(pomPath);
+			PomInfo pom = loadPom(pomPath, false);
 			ModuleCoordinate coordinate = ModuleCoordinate.from(pom.groupId, pom.artifactId);
 			Set<ModuleCoordinate> dependencyCoords = collectDependencyCoordinates(pom);
 			boolean hasJavaSources = Files.isDirectory(normalizedRoot.resolve("src").resolve("main").resolve("java"));
@@ -379,7 +475,7 @@ final class ModuleDependencyManager {
 		return javaDir;
 	}
 
-	private Path findModuleRoot(Path file) {
+	Path findModuleRoot(Path file) {
 		if (file == null) {
 			return null;
 		}
@@ -396,15 +492,12 @@ final class ModuleDependencyManager {
 		return null;
 	}
 
-	private PomInfo loadPom(Path pomPath) throws Exception {
+	/** Loads a pom; only an {@code editable} one gets a private document that {@link #writePom} may write back. */
+	private PomInfo loadPom(Path pomPath, boolean editable) throws Exception {
 		if (!Files.exists(pomPath)) {
 			throw new IllegalArgumentException("Missing pom.xml at " + pomPath);
 		}
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-		factory.setNamespaceAware(true);
-		DocumentBuilder builder = factory.newDocumentBuilder();
-		org.w3c.dom.Document document = builder.parse(pomPath.toFile());
-		document.getDocumentElement().normalize();
+		org.w3c.dom.Document document = editable ? PomCache.parse(pomPath) : PomCache.document(pomPath);
 		Element projectElement = document.getDocumentElement();
 		String rawGroupId = textOfDirectChild(projectElement, "groupId");
 		String rawArtifactId = textOfDirectChild(projectElement, "artifactId");
@@ -595,6 +688,7 @@ final class ModuleDependencyManager {
 		StringWriter writer = new StringWriter();
 		transformer.transform(new DOMSource(pomInfo.document), new StreamResult(writer));
 		Files.writeString(pomInfo.path, writer.toString(), StandardCharsets.UTF_8);
+		PomCache.invalidate(pomInfo.path);
 	}
 
 	private static final class ModuleGraph {
@@ -0,0 +1,104 @@
+package com.refactoring.extractsuperclass;
+
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed {@code pom.xml} documents shared by source-root discovery and the module graph, reused while a file's size
+ * and modification time are unchanged. Cached documents are read-only; code that edits a pom parses its own copy with
+ * {@link #parse} and calls {@link #invalidate} after writing it. The cache is dropped under memory pressure.
+ */
+final class PomCache {
+	/** Rough ratio of DOM heap size to pom file size. */
+	private static final int DOM_BYTES_PER_FILE_BYTE = 8;
+	private static final Map<Path, Cached> CACHE = new ConcurrentHashMap<>();
+
+	static {
+		MemoryGovernor.get().register(new MemoryGovernor.Sheddable() {
+			@Override
+			public String name() {
+				return "pom documents";
+			}
+
+			@Override
+			public MemoryGovernor.Tier tier() {
+				return MemoryGovernor.Tier.POM_MODELS;
+			}
+
+			@Override
+			public long estimatedBytes() {
+				long bytes = 0;
+				for (Cached cached : CACHE.values()) {
+					bytes += cached.size * DOM_BYTES_PER_FILE_BYTE;
+				}
+				return bytes;
+			}
+
+			@Override
+			public long shed() {
+				long bytes = estimatedBytes();
+				CACHE.clear();
+				return bytes;
+			}
+		});
+	}
+
+	private PomCache() {
+	}
+
+	/** Shared, read-only document for the pom; parsed again when the file changed since it was cached. */
+	static Document document(Path pom) throws Exception {
+		Path key = pom.toAbsolutePath().normalize();
+		BasicFileAttributes attrs = Files.readAttributes(key, BasicFileAttributes.class);
+		long mtime = attrs.lastModifiedTime().toMillis();
+		Cached cached = CACHE.get(key);
+		if (cached != null && cached.size == attrs.size() && cached.mtime == mtime) {
+			return cached.document;
+		}
+		Document document = parse(key);
+		CACHE.put(key, new Cached(document, attrs.size(), mtime));
+		return document;
+	}
+
+	/** Private, editable document for the pom. */
+	static Document parse(Path pom) throws Exception {
+		Document document = newFactory().newDocumentBuilder().parse(pom.toFile());
+		document.getDocumentElement().normalize();
+		return document;
+	}
+
+	static void invalidate(Path pom) {
+		CACHE.remove(pom.toAbsolutePath().normalize());
+	}
+
+	private static DocumentBuilderFactory newFactory() throws ParserConfigurationException {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		try {
+			// Fully expanded nodes, so concurrent readers of a shared document never trigger lazy expansion.
+			factory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+		} catch (ParserConfigurationException ignore) {
+			// parser without deferred expansion
+		}
+		return factory;
+	}
+
+	private static final class Cached {
+		final Document document;
+		final long size;
+		final long mtime;
+
+		Cached(Document document, long size, long mtime) {
+			this.document = document;
+			this.size = size;
+			this.mtime = mtime;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.refactoring.extractsuperclass;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Progress and cancellation of one refactoring. Long stages report how far they got through the listener and call
+ * {@link #checkpoint()} between units of work, so a cancelled request stops at the next file, chunk or pom instead
+ * of running to the end. Reports may arrive from several indexing threads at once.
+ */
+final class Progress {
+	/** Progress that reports nowhere and cannot be cancelled. */
+	static final Progress NONE = new Progress(null);
+
+	/**
+	 * The stages a refactoring reports, in the order they make up its progress. The poms are read before indexing when
+	 * the index is scoped to the targets' modules and again, to place the superclass, once the index is built; a
+	 * listener that shows overall progress ignores reports of a stage it has already moved past.
+	 */
+	enum Stage {
+		/** Module poms read while building the module graph. */
+		POMS,
+		/** Source files indexed out of all files in scope. */
+		INDEXING,
+		/** Target classes rewritten. */
+		REWRITING
+	}
+
+	/** Receives reports; called from whichever thread finished the work. */
+	interface Listener {
+		void report(Stage stage, int done, int total);
+	}
+
+	private final Listener listener;
+	private volatile boolean cancelled;
+
+	Progress(Listener listener) {
+		this.listener = listener;
+	}
+
+	/** Asks the refactoring to stop at its next checkpoint. */
+	void cancel() {
+		if (this != NONE) {
+			cancelled = true;
+		}
+	}
+
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/** Throws {@link CancellationException} once {@link #cancel()} has been called. */
+	void checkpoint() {
+		if (cancelled) {
+			throw new CancellationException("Refactoring cancelled");
+		}
+	}
+
+	void report(Stage stage, int done, int total) {
+		if (listener != null) {
+			listener.report(stage, done, total);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Source files of one project root that indexing skips, stored next to the snapshot in
+ * {@code .extractsuperclass/quarantine.txt}. A file lands here when it exceeds the size or parse time budget of
+ * {@link IndexOptions}, cannot be read, or is marked {@code @Generated}. An entry only holds while the file keeps the
+ * size and mtime it was quarantined with, so editing the file retries it. The file is plain text, one
+ * {@code size<TAB>mtime<TAB>path<TAB>reason} line per entry, and may be edited or deleted by hand. With the snapshot
+ * off ({@link IndexOptions#persistentIndex()}) the file is neither read nor written, and the {@link TypeIndexer} keeps
+ * the entries in memory instead.
+ */
+final class Quarantine {
+	private static final Logger logger = LoggerFactory.getLogger(Quarantine.class);
+	static final String FILE_NAME = "quarantine.txt";
+	/** Reason recorded for files skipped because they are generated; these are not reported as failures. */
+	static final String GENERATED = "generated";
+
+	private Quarantine() {
+	}
+
+	static Path location(Path projectRoot) {
+		return projectRoot.resolve(IndexSnapshot.DIRECTORY).resolve(FILE_NAME);
+	}
+
+	/** Loads the quarantine of a project root keyed by absolute file path; malformed lines are dropped. */
+	static Map<Path, Entry> load(Path projectRoot) {
+		Map<Path, Entry> entries = new HashMap<>();
+		Path file = location(projectRoot);
+		if (!Files.isRegularFile(file)) {
+			return entries;
+		}
+		try {
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+				String[] fields = line.split("\t", 4);
+				if (fields.length < 4) {
+					continue;
+				}
+				try {
+					Path path = projectRoot.resolve(fields[2]).normalize();
+					entries.put(path, new Entry(path, Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[3]));
+				} catch (NumberFormatException ignore) {
+					// hand-edited line
+				}
+			}
+		} catch (IOException ex) {
+			logger.warn("Ignoring unreadable quarantine {}: {}", file, ex.getMessage());
+		}
+		return entries;
+	}
+
+	/** Replaces the quarantine of a project root, removing the file when there is nothing left in it. */
+	static void save(Path projectRoot, Collection<Entry> entries) throws IOException {
+		Path file = location(projectRoot);
+		if (entries.isEmpty()) {
+			Files.deleteIfExists(file);
+			return;
+		}
+		List<String> lines = new ArrayList<>();
+		for (Entry entry : entries) {
+			lines.add(entry.size + "\t" + entry.mtime + "\t" + IndexSnapshot.relativize(projectRoot, entry.file) + "\t"
+				+ entry.reason.replace('\n', ' ').replace('\t', ' '));
+		}
+		lines.sort(null);
+		Files.createDirectories(file.getParent());
+		Path tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+		try {
+			Files.write(tmp, lines, StandardCharsets.UTF_8);
+			try {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/** One skipped file with the stamp it had and why it was skipped. */
+	static final class Entry {
+		final Path file;
+		final long size;
+		final long mtime;
+		final String reason;
+
+		Entry(Path file, long size, long mtime, String reason) {
+			this.file = file;
+			this.size = size;
+			this.mtime = mtime;
+			this.reason = reason;
+		}
+
+		boolean matchesStamp(BasicFileAttributes attrs) {
+			return attrs.size() == size && attrs.lastModifiedTime().toMillis() == mtime;
+		}
+
+		boolean generated() {
+			return GENERATED.equals(reason);
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Coordinator for {@link IndexOptions#workers()}: splits the files to parse into contiguous shards (so a source root
+ * mostly stays with one worker), parses each shard in an {@link IndexWorker} subprocess talking over its stdin and
+ * stdout pipes, and merges the results in walk order. Every worker has its own heap, so one huge tree neither has to
+ * fit a single heap nor stalls on one collector. A shard whose worker cannot start or dies is parsed in this process.
+ * Once the build is cancelled the workers still running are destroyed rather than left to finish their shards.
+ */
+final class ShardedIndexer {
+	private static final Logger logger = LoggerFactory.getLogger(ShardedIndexer.class);
+	/** How long a worker may take to exit after it has answered. */
+	private static final long EXIT_TIMEOUT_SECONDS = 10;
+	/** How often the coordinator checks for cancellation while the shards are parsed. */
+	private static final long CANCEL_POLL_MILLIS = 50;
+
+	private ShardedIndexer() {
+	}
+
+	/**
+	 * Same contract as {@link TypeIndexer#parse}, with the work spread over {@code options.workers()} JVMs. Throws
+	 * {@link CancellationException} once {@code cancelled} returns true, after destroying the workers still running.
+	 */
+	static void parse(IndexOptions options, BooleanSupplier cancelled, List<Path> files,
+			List<List<ExtractSuperclassRefactorer.TargetType>> parsed, List<byte[]> hashes, List<String> failures)
+			throws IOException {
+		long start = System.currentTimeMillis();
+		int workers = Math.max(1, Math.min(options.workers(), files.size()));
+		int threadsPerWorker = Math.max(1, options.effectiveParallelism() / workers);
+		ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+			Thread thread = new Thread(runnable, "index-shard");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Shards running = new Shards();
+		try {
+			List<Future<?>> shards = new ArrayList<>();
+			for (int w = 0; w < workers; w++) {
+				int from = (int) ((long) files.size() * w / workers);
+				int to = (int) ((long) files.size() * (w + 1) / workers);
+				shards.add(pool.submit(() -> {
+					parseShard(options, threadsPerWorker, running, files, from, to, parsed, hashes, failures);
+					return null;
+				}));
+			}
+			for (Future<?> shard : shards) {
+				while (true) {
+					try {
+						shard.get(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+						break;
+					} catch (TimeoutException ex) {
+						if (cancelled.getAsBoolean()) {
+							running.cancel();
+							throw new CancellationException("Indexing cancelled");
+						}
+					}
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Sharded indexing interrupted", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof CancellationException) {
+				throw (CancellationException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Sharded indexing failed: " + cause.getMessage(), cause);
+		} finally {
+			pool.shutdownNow();
+		}
+		logger.debug("Parsed {} file(s) across {} worker JVM(s) with {} thread(s) each in {}ms",
+			files.size(), workers, threadsPerWorker, System.currentTimeMillis() - start);
+	}
+
+	private static void parseShard(IndexOptions options, int threads, Shards running, List<Path> files, int from, int to,
+			List<List<ExtractSuperclassRefactorer.TargetType>> parsed, List<byte[]> hashes, List<String> failures) throws IOException {
+		List<Path> shard = files.subList(from, to);
+		Process process = null;
+		try {
+			process = running.start();
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+				 DataInputStream in = new DataInputStream(new BufferedInputStream(process.getInputStream()))) {
+				IndexWorker.writeRequest(out, options, threads, hashes != null, shard);
+				IndexWorker.readReply(in, shard, parsed, hashes, failures, from);
+			}
+			if (!process.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				logger.debug("Index worker did not exit after answering; stopping it");
+			}
+			return;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Sharded indexing interrupted", ex);
+		} catch (IOException ex) {
+			running.progress.checkpoint();
+			logger.warn("Index worker for {} file(s) failed ({}); parsing the shard in this process", shard.size(), ex.getMessage());
+		} finally {
+			if (process != null) {
+				running.stop(process);
+			}
+		}
+		// The worker may have answered for part of the shard before it failed; parse all of it afresh.
+		for (int i = from; i < to; i++) {
+			parsed.set(i, null);
+			failures.set(i, null);
+			if (hashes != null) {
+				hashes.set(i, null);
+			}
+		}
+		TypeIndexer local = new TypeIndexer(IndexOptions.builder()
+			.mode(options.mode())
+			.parallelism(threads)
+			.batchSize(options.batchSize())
+			.maxFileBytes(options.maxFileBytes())
+			.parseTimeoutMillis(options.parseTimeoutMillis())
+			.skipGenerated(options.skipGenerated())
+			.persistentIndex(false)
+			.build(), running.progress);
+		local.parse(shard, parsed.subList(from, to), hashes == null ? null : hashes.subList(from, to), failures.subList(from, to));
+	}
+
+	/**
+	 * Worker processes of one build and its cancellation. Cancelling destroys the workers running and stops shards from
+	 * starting new ones or falling back to parsing in this process.
+	 */
+	private static final class Shards {
+		/** Cancelled along with the build; the in-process fallback parses stop on it too. */
+		final Progress progress = new Progress(null);
+		private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+
+		Process start() throws IOException {
+			progress.checkpoint();
+			Process process = startWorker();
+			processes.add(process);
+			if (progress.isCancelled()) {
+				stop(process);
+				progress.checkpoint();
+			}
+			return process;
+		}
+
+		void stop(Process process) {
+			processes.remove(process);
+			process.destroy();
+		}
+
+		void cancel() {
+			progress.cancel();
+			for (Process process : processes) {
+				stop(process);
+			}
+		}
+	}
+
+	/** Starts a worker on this JVM's runtime and class path, passing on any maximum heap setting. */
+	private static Process startWorker() throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (argument.startsWith("-Xmx")) {
+				command.add(argument);
+			}
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(IndexWorker.class.getName());
+		return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+	}
+}
@@ -0,0 +1,257 @@
+package com.refactoring.extractsuperclass;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Narrows which source files a request indexes. Package patterns name package trees ({@code com.example.billing}
+ * covers its subpackages too; a trailing {@code .*} or {@code .**} is accepted and ignored) and are matched against
+ * the directory a file sits in below its source root, so excluded trees are never walked. Path globs are matched
+ * against a file's absolute path; a glob that does not start with {@code /} or {@code **} matches at any depth.
+ * <p>
+ * A file is in scope when it matches an include of each kind that has any, and no exclude. Filtered files only leave
+ * the index: the sourcepath used for binding resolution still covers the whole workspace.
+ */
+public final class SourceFilter {
+	private static final SourceFilter ALL = new Builder().build();
+
+	private final List<String> includePackages;
+	private final List<String> excludePackages;
+	private final List<String> includePaths;
+	private final List<String> excludePaths;
+	private final List<String[]> includeSegments;
+	private final List<String[]> excludeSegments;
+	private final List<PathMatcher> includeMatchers;
+	private final List<PathMatcher> excludeMatchers;
+
+	private SourceFilter(Builder builder) {
+		this.includePackages = Collections.unmodifiableList(new ArrayList<>(builder.includePackages));
+		this.excludePackages = Collections.unmodifiableList(new ArrayList<>(builder.excludePackages));
+		this.includePaths = Collections.unmodifiableList(new ArrayList<>(builder.includePaths));
+		this.excludePaths = Collections.unmodifiableList(new ArrayList<>(builder.excludePaths));
+		this.includeSegments = segments(includePackages);
+		this.excludeSegments = segments(excludePackages);
+		this.includeMatchers = matchers(includePaths);
+		this.excludeMatchers = matchers(excludePaths);
+	}
+
+	/**
+	 * Filter that keeps every source file.
+	 */
+	public static SourceFilter all() {
+		return ALL;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public List<String> includePackages() {
+		return includePackages;
+	}
+
+	public List<String> excludePackages() {
+		return excludePackages;
+	}
+
+	public List<String> includePaths() {
+		return includePaths;
+	}
+
+	public List<String> excludePaths() {
+		return excludePaths;
+	}
+
+	/**
+	 * Whether this filter keeps every source file.
+	 */
+	public boolean isAll() {
+		return includePackages.isEmpty() && excludePackages.isEmpty() && includePaths.isEmpty() && excludePaths.isEmpty();
+	}
+
+	/** Whether a directory below {@code root} may contain files in scope, so that walking it is worthwhile. */
+	boolean enters(SourceRootDiscovery.SourceRoot root, Path dir) {
+		if (includeSegments.isEmpty() && excludeSegments.isEmpty()) {
+			return true;
+		}
+		List<String> pkg = packageSegments(root, dir);
+		for (String[] exclude : excludeSegments) {
+			if (matches(pkg, exclude, root.pruned)) {
+				return false;
+			}
+		}
+		if (includeSegments.isEmpty() || root.pruned) {
+			// Below a root without a source layout the package may start at any depth.
+			return true;
+		}
+		for (String[] include : includeSegments) {
+			if (matches(pkg, include, false) || isPrefix(pkg, include)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Whether a source file found below {@code root} is in scope. */
+	boolean admits(SourceRootDiscovery.SourceRoot root, Path file) {
+		if (isAll()) {
+			return true;
+		}
+		if (!includeSegments.isEmpty() || !excludeSegments.isEmpty()) {
+			List<String> pkg = packageSegments(root, file.getParent());
+			for (String[] exclude : excludeSegments) {
+				if (matches(pkg, exclude, root.pruned)) {
+					return false;
+				}
+			}
+			if (!includeSegments.isEmpty() && !matchesAny(pkg, includeSegments, root.pruned)) {
+				return false;
+			}
+		}
+		Path absolute = file.toAbsolutePath().normalize();
+		for (PathMatcher exclude : excludeMatchers) {
+			if (exclude.matches(absolute)) {
+				return false;
+			}
+		}
+		if (includeMatchers.isEmpty()) {
+			return true;
+		}
+		for (PathMatcher include : includeMatchers) {
+			if (include.matches(absolute)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "includePackages=" + includePackages + ", excludePackages=" + excludePackages
+			+ ", includePaths=" + includePaths + ", excludePaths=" + excludePaths;
+	}
+
+	private static List<String> packageSegments(SourceRootDiscovery.SourceRoot root, Path dir) {
+		List<String> segments = new ArrayList<>();
+		if (dir == null || !dir.startsWith(root.dir)) {
+			return segments;
+		}
+		for (Path segment : root.dir.relativize(dir)) {
+			String name = segment.toString();
+			if (!name.isEmpty()) {
+				segments.add(name);
+			}
+		}
+		return segments;
+	}
+
+	private static boolean matchesAny(List<String> pkg, List<String[]> patterns, boolean anywhere) {
+		for (String[] pattern : patterns) {
+			if (matches(pkg, pattern, anywhere)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Whether the package lies in the pattern's tree; with {@code anywhere}, the tree may start at any depth. */
+	private static boolean matches(List<String> pkg, String[] pattern, boolean anywhere) {
+		int lastStart = anywhere ? pkg.size() - pattern.length : 0;
+		for (int start = 0; start <= lastStart; start++) {
+			boolean match = start + pattern.length <= pkg.size();
+			for (int i = 0; match && i < pattern.length; i++) {
+				match = pattern[i].equals(pkg.get(start + i));
+			}
+			if (match) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Whether the package is an ancestor of the pattern, so the pattern's tree may lie below it. */
+	private static boolean isPrefix(List<String> pkg, String[] pattern) {
+		if (pkg.size() >= pattern.length) {
+			return false;
+		}
+		for (int i = 0; i < pkg.size(); i++) {
+			if (!pkg.get(i).equals(pattern[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static List<String[]> segments(List<String> packages) {
+		List<String[]> segments = new ArrayList<>();
+		for (String pkg : packages) {
+			String tree = pkg;
+			if (tree.endsWith(".**")) {
+				tree = tree.substring(0, tree.length() - 3);
+			} else if (tree.endsWith(".*")) {
+				tree = tree.substring(0, tree.length() - 2);
+			}
+			segments.add(tree.equals("*") || tree.equals("**") ? new String[0] : tree.split("\\."));
+		}
+		return segments;
+	}
+
+	private static List<PathMatcher> matchers(List<String> globs) {
+		List<PathMatcher> matchers = new ArrayList<>();
+		for (String glob : globs) {
+			String pattern = glob.startsWith("/") || glob.startsWith("**") ? glob : "**/" + glob;
+			matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+		}
+		return matchers;
+	}
+
+	/**
+	 * Builder for SourceFilter.
+	 */
+	public static class Builder {
+		private final List<String> includePackages = new ArrayList<>();
+		private final List<String> excludePackages = new ArrayList<>();
+		private final List<String> includePaths = new ArrayList<>();
+		private final List<String> excludePaths = new ArrayList<>();
+
+		public Builder includePackages(Collection<String> packages) {
+			addAll(includePackages, packages, "includePackages");
+			return this;
+		}
+
+		public Builder excludePackages(Collection<String> packages) {
+			addAll(excludePackages, packages, "excludePackages");
+			return this;
+		}
+
+		public Builder includePaths(Collection<String> globs) {
+			addAll(includePaths, globs, "includePaths");
+			return this;
+		}
+
+		public Builder excludePaths(Collection<String> globs) {
+			addAll(excludePaths, globs, "excludePaths");
+			return this;
+		}
+
+		public SourceFilter build() {
+			return new SourceFilter(this);
+		}
+
+		private static void addAll(List<String> target, Collection<String> values, String name) {
+			if (values == null) {
+				throw new IllegalArgumentException(name + " cannot be null");
+			}
+			for (String value : values) {
+				if (value != null && !value.trim().isEmpty()) {
+					target.add(value.trim());
+				}
+			}
+		}
+	}
+}
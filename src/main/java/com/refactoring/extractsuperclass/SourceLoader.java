@@ -0,0 +1,253 @@
+package com.refactoring.extractsuperclass;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Reads UTF-8 source files with as few copies as possible. Files are read into a per-thread byte buffer and decoded
+ * straight into a pooled {@code char[]}, then copied once into an exactly sized array for the parser. Hashing for the
+ * index snapshot reads the same buffer, so no {@code byte[]} copy of the file is ever made. Files are never
+ * memory-mapped: on Windows a live mapping blocks writes to the file until it is collected, which would fail the
+ * refactoring's own rewrites and the editor's saves of any file the server has indexed. Under memory pressure the
+ * governor shrinks every thread's pooled buffers back to their initial size on their next use.
+ * <p>
+ * Indexing decodes leniently, replacing malformed input, since only declarations are read from the result. Text that
+ * will be rewritten and written back is decoded strictly, so a file in another encoding fails the request instead of
+ * being saved with replacement characters.
+ */
+final class SourceLoader {
+	/** Initial size of the pooled byte and char buffers. */
+	private static final int INITIAL_BUFFER = 64 * 1024;
+	/** Pooled buffers beyond this size are not kept, so one huge file does not pin memory per thread. */
+	private static final int MAX_POOLED = 1024 * 1024;
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+	/** Pools of all live threads, for size reports; a pool disappears with its thread. */
+	private static final Set<Buffers> POOLS = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+	/** Bumped when buffers are shed; a pool from an older generation shrinks before it is used again. */
+	private static final AtomicInteger GENERATION = new AtomicInteger();
+
+	static {
+		MemoryGovernor.get().register(new MemoryGovernor.Sheddable() {
+			@Override
+			public String name() {
+				return "source buffers";
+			}
+
+			@Override
+			public MemoryGovernor.Tier tier() {
+				return MemoryGovernor.Tier.PARSER_BUFFERS;
+			}
+
+			@Override
+			public long estimatedBytes() {
+				long bytes = 0;
+				synchronized (POOLS) {
+					for (Buffers buffers : POOLS) {
+						bytes += buffers.estimatedBytes();
+					}
+				}
+				return bytes;
+			}
+
+			@Override
+			public long shed() {
+				long released = 0;
+				synchronized (POOLS) {
+					for (Buffers buffers : POOLS) {
+						released += Math.max(0, buffers.estimatedBytes() - Buffers.INITIAL_BYTES);
+					}
+				}
+				GENERATION.incrementAndGet();
+				return released;
+			}
+		});
+	}
+
+	private SourceLoader() {
+	}
+
+	static char[] read(Path file) throws IOException {
+		return read(file, null);
+	}
+
+	/**
+	 * Decodes a UTF-8 file into an exactly sized array, replacing malformed input, and feeds the raw bytes to
+	 * {@code digest} when one is given.
+	 */
+	static char[] read(Path file, MessageDigest digest) throws IOException {
+		return read(file, digest, false);
+	}
+
+	/** Decodes a UTF-8 file like {@code Files.readString}, failing with a {@link CharacterCodingException} on malformed input. */
+	static char[] readStrict(Path file) throws IOException {
+		return read(file, null, true);
+	}
+
+	private static char[] read(Path file, MessageDigest digest, boolean strict) throws IOException {
+		Buffers buffers = buffers();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer bytes = load(channel, buffers);
+			if (digest != null) {
+				digest.update(bytes.duplicate());
+			}
+			return buffers.decode(bytes, strict);
+		}
+	}
+
+	/** Content hash of a file as stored in the index snapshot. */
+	static byte[] hash(Path file) throws IOException {
+		MessageDigest digest = IndexSnapshot.newDigest();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			digest.update(load(channel, buffers()));
+		}
+		return digest.digest();
+	}
+
+	/** Runs {@code test} over the raw bytes of a file without decoding them; the buffer is only valid during the call. */
+	static boolean test(Path file, Predicate<ByteBuffer> test) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return test.test(load(channel, buffers()));
+		}
+	}
+
+	private static Buffers buffers() {
+		Buffers buffers = BUFFERS.get();
+		int generation = GENERATION.get();
+		if (buffers.generation != generation) {
+			buffers.shrink(generation);
+		}
+		return buffers;
+	}
+
+	private static ByteBuffer load(FileChannel channel, Buffers buffers) throws IOException {
+		long size = channel.size();
+		if (size >= Integer.MAX_VALUE) {
+			throw new IOException("Source file too large: " + size + " bytes");
+		}
+		// Read to EOF rather than trusting size(): the file may be growing while we read it.
+		ByteBuffer buffer = buffers.bytes((int) size + 1);
+		while (channel.read(buffer) >= 0) {
+			if (!buffer.hasRemaining()) {
+				buffer = buffers.grow(buffer);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static final class Buffers {
+		static final long INITIAL_BYTES = INITIAL_BUFFER * 3L;
+
+		private final CharsetDecoder lenient = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final CharsetDecoder strict = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPORT)
+			.onUnmappableCharacter(CodingErrorAction.REPORT);
+		private ByteBuffer bytes = ByteBuffer.allocate(INITIAL_BUFFER);
+		private CharBuffer chars = CharBuffer.allocate(INITIAL_BUFFER);
+		private int generation = GENERATION.get();
+
+		Buffers() {
+			POOLS.add(this);
+		}
+
+		long estimatedBytes() {
+			return bytes.capacity() + 2L * chars.capacity();
+		}
+
+		void shrink(int generation) {
+			if (bytes.capacity() > INITIAL_BUFFER) {
+				bytes = ByteBuffer.allocate(INITIAL_BUFFER);
+			}
+			if (chars.capacity() > INITIAL_BUFFER) {
+				chars = CharBuffer.allocate(INITIAL_BUFFER);
+			}
+			this.generation = generation;
+		}
+
+		ByteBuffer bytes(int capacity) {
+			if (bytes.capacity() >= capacity) {
+				bytes.clear();
+				return bytes;
+			}
+			ByteBuffer larger = ByteBuffer.allocate(capacity);
+			if (capacity <= MAX_POOLED) {
+				bytes = larger;
+			}
+			return larger;
+		}
+
+		ByteBuffer grow(ByteBuffer full) {
+			ByteBuffer larger = ByteBuffer.allocate(full.capacity() * 2);
+			full.flip();
+			larger.put(full);
+			if (larger.capacity() <= MAX_POOLED) {
+				bytes = larger;
+			}
+			return larger;
+		}
+
+		char[] decode(ByteBuffer input, boolean reportErrors) throws CharacterCodingException {
+			// UTF-8 never yields more chars than bytes, so one pass always fits.
+			int max = input.remaining();
+			CharBuffer out = chars.capacity() >= max ? chars : CharBuffer.allocate(max);
+			out.clear();
+			CharsetDecoder decoder = reportErrors ? strict : lenient;
+			decoder.reset();
+			CoderResult coded = decoder.decode(input, out, true);
+			if (!coded.isError()) {
+				coded = decoder.flush(out);
+			}
+			if (coded.isError()) {
+				coded.throwException();
+			}
+			char[] result = Arrays.copyOf(out.array(), out.position());
+			if (out != chars && max <= MAX_POOLED) {
+				chars = out;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Decoded sources of one refactoring request, so every phase that needs a file's text reads it at most once and
+	 * later phases see the text earlier phases wrote.
+	 */
+	static final class Cache {
+		private final Map<Path, String> texts = new HashMap<>();
+
+		String text(Path file) throws IOException {
+			Path key = file.toAbsolutePath().normalize();
+			String text = texts.get(key);
+			if (text == null) {
+				text = new String(readStrict(key));
+				texts.put(key, text);
+			}
+			return text;
+		}
+
+		/** Records content this request has just written to the file. */
+		void update(Path file, String text) {
+			texts.put(file.toAbsolutePath().normalize(), text);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Byte-level search for {@code class Name} tokens, used to find the few files worth parsing when a class is not in
+ * the file its package and name suggest (a nested or secondary class). Files are never decoded. Comments and string
+ * literals are not skipped, so a match is only a candidate and callers confirm it by parsing.
+ */
+final class SourcePrescan {
+	private static final Logger logger = LoggerFactory.getLogger(SourcePrescan.class);
+	private static final byte[] CLASS_KEYWORD = "class".getBytes(StandardCharsets.US_ASCII);
+
+	private SourcePrescan() {
+	}
+
+	/** Files, in the given order, that contain {@code class N} for at least one of the simple names. */
+	static List<Path> filesDeclaring(List<Path> files, Collection<String> simpleNames, int parallelism) throws IOException {
+		byte[][] names = new byte[simpleNames.size()][];
+		int i = 0;
+		for (String name : simpleNames) {
+			names[i++] = name.getBytes(StandardCharsets.UTF_8);
+		}
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try {
+			return pool.submit(() -> files.parallelStream()
+				.filter(file -> matches(file, names))
+				.collect(Collectors.toList())).get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Prescan interrupted", ex);
+		} catch (ExecutionException ex) {
+			throw new IOException("Prescan failed: " + ex.getCause().getMessage(), ex.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static boolean matches(Path file, byte[][] names) {
+		try {
+			return SourceLoader.test(file, bytes -> declaresAny(bytes, names));
+		} catch (IOException ex) {
+			logger.debug("Skipping unreadable file {} in prescan: {}", file, ex.getMessage());
+			return false;
+		}
+	}
+
+	/** Whether {@code bytes} contain the keyword {@code class}, whitespace and then one of the names as a whole word. */
+	static boolean declaresAny(ByteBuffer bytes, byte[][] names) {
+		int limit = bytes.limit();
+		int last = limit - CLASS_KEYWORD.length;
+		for (int at = bytes.position(); at <= last; at++) {
+			if (!startsWith(bytes, at, limit, CLASS_KEYWORD)
+				|| (at > bytes.position() && isIdentifierPart(bytes.get(at - 1)))) {
+				continue;
+			}
+			int pos = at + CLASS_KEYWORD.length;
+			int nameStart = pos;
+			while (pos < limit && isWhitespace(bytes.get(pos))) {
+				pos++;
+			}
+			if (pos == nameStart) {
+				continue;
+			}
+			for (byte[] name : names) {
+				int end = pos + name.length;
+				if (startsWith(bytes, pos, limit, name) && (end == limit || !isIdentifierPart(bytes.get(end)))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean startsWith(ByteBuffer bytes, int at, int limit, byte[] token) {
+		if (at + token.length > limit) {
+			return false;
+		}
+		for (int i = 0; i < token.length; i++) {
+			if (bytes.get(at + i) != token[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+	}
+
+	/** Java identifier characters; every byte of a multi-byte UTF-8 sequence counts as one. */
+	private static boolean isIdentifierPart(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '$' || b < 0;
+	}
+}
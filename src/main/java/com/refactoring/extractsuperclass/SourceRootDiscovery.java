@@ -0,0 +1,404 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the directories that actually hold a project's Java sources so indexing never walks build output, VCS
+ * metadata or unrelated fixture trees.
+ * <p>
+ * A project root with a {@code pom.xml} contributes {@code src/main/java}, {@code src/test/java} and any declared
+ * {@code sourceDirectory}/{@code testSourceDirectory} of itself and of every module reachable through
+ * {@code <modules>}. A root without a pom but with the conventional layout contributes those directories. Any other
+ * root is searched for module directories, and when none exist it is walked as a whole. Ignored directory names
+ * prune module searches and whole-root walks; inside a real source root every directory is a package and is walked.
+ */
+final class SourceRootDiscovery {
+	private static final Logger logger = LoggerFactory.getLogger(SourceRootDiscovery.class);
+	static final Set<String> DEFAULT_IGNORED_DIRS = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
+		"target",
+		"build",
+		"out",
+		"bin",
+		"node_modules",
+		".git",
+		".svn",
+		".hg",
+		".idea",
+		".gradle",
+		".mvn",
+		IndexSnapshot.DIRECTORY
+	)));
+	private static final String[] CONVENTIONAL_DIRS = { "src/main/java", "src/test/java" };
+	/** How deep below a pom-less project root module directories are searched for. */
+	private static final int MODULE_SEARCH_DEPTH = 8;
+
+	private final Set<String> ignoredDirs;
+
+	SourceRootDiscovery(Set<String> ignoredDirs) {
+		this.ignoredDirs = ignoredDirs == null ? DEFAULT_IGNORED_DIRS : ignoredDirs;
+	}
+
+	/** Directory to walk for sources; {@code pruned} roots skip ignored directory names while walking. */
+	static final class SourceRoot {
+		final Path dir;
+		final boolean pruned;
+
+		SourceRoot(Path dir, boolean pruned) {
+			this.dir = dir;
+			this.pruned = pruned;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof SourceRoot)) return false;
+			SourceRoot other = (SourceRoot) o;
+			return pruned == other.pruned && dir.equals(other.dir);
+		}
+
+		@Override
+		public int hashCode() {
+			return dir.hashCode() * 31 + (pruned ? 1 : 0);
+		}
+
+		@Override
+		public String toString() {
+			return pruned ? dir + " (pruned)" : dir.toString();
+		}
+	}
+
+	/**
+	 * Normalizes project roots to real paths and drops any root that lies inside another one, so passing a parent
+	 * and its modules does not index the modules twice.
+	 */
+	static List<Path> collapseRoots(List<File> roots) {
+		List<Path> real = new ArrayList<>();
+		for (File root : roots) {
+			Path path = realPath(root.toPath());
+			if (!real.contains(path)) {
+				real.add(path);
+			}
+		}
+		List<Path> collapsed = new ArrayList<>();
+		for (Path candidate : real) {
+			boolean nested = false;
+			for (Path other : real) {
+				if (!other.equals(candidate) && candidate.startsWith(other)) {
+					nested = true;
+					break;
+				}
+			}
+			if (!nested) {
+				collapsed.add(candidate);
+			}
+		}
+		return collapsed;
+	}
+
+	List<SourceRoot> sourceRoots(Path projectRoot) {
+		Set<Path> modules = new LinkedHashSet<>();
+		if (Files.isRegularFile(projectRoot.resolve("pom.xml"))) {
+			collectPomModules(projectRoot, modules);
+		} else if (hasConventionalLayout(projectRoot)) {
+			modules.add(projectRoot);
+		} else {
+			searchModules(projectRoot, 0, modules);
+		}
+
+		List<SourceRoot> roots = new ArrayList<>();
+		for (Path module : modules) {
+			for (Path dir : moduleSourceDirs(module)) {
+				roots.add(new SourceRoot(dir, false));
+			}
+		}
+		if (roots.isEmpty()) {
+			roots.add(new SourceRoot(projectRoot, true));
+		}
+		return collapseSourceRoots(roots);
+	}
+
+	/** Lists every {@code .java} file below the given roots in a stable order, walking subtrees in parallel. */
+	List<Path> sourceFiles(List<SourceRoot> roots, int parallelism) throws IOException {
+		return sourceFiles(roots, parallelism, SourceFilter.all());
+	}
+
+	/** Lists the {@code .java} files below the given roots that {@code filter} admits, skipping subtrees it excludes. */
+	List<Path> sourceFiles(List<SourceRoot> roots, int parallelism, SourceFilter filter) throws IOException {
+		List<WalkTask> tasks = new ArrayList<>();
+		for (SourceRoot root : roots) {
+			if (Files.isDirectory(root.dir)) {
+				tasks.add(new WalkTask(root, root.dir, filter));
+			}
+		}
+		List<Path> files = new ArrayList<>();
+		if (tasks.isEmpty()) {
+			return files;
+		}
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try {
+			for (WalkTask task : tasks) {
+				files.addAll(pool.invoke(task));
+			}
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		} finally {
+			pool.shutdown();
+		}
+		return files;
+	}
+
+	/** Whether a file would be found by walking the given roots. */
+	boolean covers(List<SourceRoot> roots, Path file) {
+		return rootOf(roots, file) != null;
+	}
+
+	/** The root among {@code roots} whose walk would find the file, or null when none would. */
+	SourceRoot rootOf(List<SourceRoot> roots, Path file) {
+		Path normalized = file.toAbsolutePath().normalize();
+		for (SourceRoot root : roots) {
+			if (!normalized.startsWith(root.dir)) {
+				continue;
+			}
+			if (!root.pruned) {
+				return root;
+			}
+			Path relative = root.dir.relativize(normalized.getParent());
+			boolean ignored = false;
+			for (Path segment : relative) {
+				if (ignoredDirs.contains(segment.toString())) {
+					ignored = true;
+					break;
+				}
+			}
+			if (!ignored) {
+				return root;
+			}
+		}
+		return null;
+	}
+
+	private void collectPomModules(Path moduleDir, Set<Path> modules) {
+		Path module = realPath(moduleDir);
+		if (!modules.add(module)) {
+			return;
+		}
+		Element project = readPom(module.resolve("pom.xml"));
+		if (project == null) {
+			return;
+		}
+		for (Element modulesElement : children(project, "modules")) {
+			for (Element child : children(modulesElement, "module")) {
+				String name = child.getTextContent() == null ? "" : child.getTextContent().trim();
+				if (name.isEmpty()) {
+					continue;
+				}
+				Path childDir = module.resolve(name).normalize();
+				if (childDir.getFileName() != null && "pom.xml".equals(childDir.getFileName().toString())) {
+					childDir = childDir.getParent();
+				}
+				if (Files.isRegularFile(childDir.resolve("pom.xml"))) {
+					collectPomModules(childDir, modules);
+				}
+			}
+		}
+	}
+
+	private void searchModules(Path dir, int depth, Set<Path> modules) {
+		if (depth > MODULE_SEARCH_DEPTH) {
+			return;
+		}
+		if (depth > 0 && Files.isRegularFile(dir.resolve("pom.xml"))) {
+			collectPomModules(dir, modules);
+			return;
+		}
+		if (depth > 0 && hasConventionalLayout(dir)) {
+			modules.add(realPath(dir));
+			return;
+		}
+		for (Path child : listDirectories(dir)) {
+			String name = child.getFileName().toString();
+			// Module directories never live inside a source tree, so src/ is not searched.
+			if (!ignoredDirs.contains(name) && !"src".equals(name)) {
+				searchModules(child, depth + 1, modules);
+			}
+		}
+	}
+
+	private List<Path> moduleSourceDirs(Path module) {
+		Set<Path> dirs = new LinkedHashSet<>();
+		for (String conventional : CONVENTIONAL_DIRS) {
+			dirs.add(module.resolve(conventional));
+		}
+		Element project = Files.isRegularFile(module.resolve("pom.xml")) ? readPom(module.resolve("pom.xml")) : null;
+		if (project != null) {
+			for (Element build : children(project, "build")) {
+				for (String tag : new String[] { "sourceDirectory", "testSourceDirectory" }) {
+					for (Element declared : children(build, tag)) {
+						Path dir = resolveDeclared(module, declared.getTextContent());
+						if (dir != null) {
+							dirs.add(dir);
+						}
+					}
+				}
+			}
+		}
+		List<Path> existing = new ArrayList<>();
+		for (Path dir : dirs) {
+			if (Files.isDirectory(dir)) {
+				existing.add(realPath(dir));
+			}
+		}
+		return existing;
+	}
+
+	private static Path resolveDeclared(Path module, String raw) {
+		if (raw == null) {
+			return null;
+		}
+		String value = raw.trim()
+			.replace("${project.basedir}", module.toString())
+			.replace("${basedir}", module.toString());
+		if (value.isEmpty() || value.contains("${")) {
+			return null;
+		}
+		return module.resolve(value).normalize();
+	}
+
+	/** Drops duplicate and nested source roots; an enclosing root already yields every file below it. */
+	private static List<SourceRoot> collapseSourceRoots(List<SourceRoot> roots) {
+		List<SourceRoot> collapsed = new ArrayList<>();
+		for (SourceRoot candidate : roots) {
+			boolean covered = false;
+			for (SourceRoot other : roots) {
+				if (other == candidate) {
+					continue;
+				}
+				boolean enclosing = !other.dir.equals(candidate.dir) && candidate.dir.startsWith(other.dir);
+				boolean earlierDuplicate = other.dir.equals(candidate.dir) && roots.indexOf(other) < roots.indexOf(candidate);
+				if (enclosing || earlierDuplicate) {
+					covered = true;
+					break;
+				}
+			}
+			if (!covered) {
+				collapsed.add(candidate);
+			}
+		}
+		return collapsed;
+	}
+
+	private static boolean hasConventionalLayout(Path dir) {
+		for (String conventional : CONVENTIONAL_DIRS) {
+			if (Files.isDirectory(dir.resolve(conventional))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Element readPom(Path pom) {
+		try {
+			return PomCache.document(pom).getDocumentElement();
+		} catch (Exception ex) {
+			logger.debug("Ignoring unreadable pom {}: {}", pom, ex.getMessage());
+			return null;
+		}
+	}
+
+	private static List<Element> children(Element parent, String name) {
+		List<Element> result = new ArrayList<>();
+		NodeList nodes = parent.getChildNodes();
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Node node = nodes.item(i);
+			if (node instanceof Element) {
+				String local = node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+				if (name.equals(local)) {
+					result.add((Element) node);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static List<Path> listDirectories(Path dir) {
+		List<Path> dirs = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path child : stream) {
+				if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+					dirs.add(child);
+				}
+			}
+		} catch (IOException ex) {
+			logger.debug("Skipping unreadable directory {}: {}", dir, ex.getMessage());
+		}
+		Collections.sort(dirs);
+		return dirs;
+	}
+
+	static Path realPath(Path path) {
+		Path normalized = path.toAbsolutePath().normalize();
+		try {
+			return normalized.toRealPath();
+		} catch (IOException ex) {
+			return normalized;
+		}
+	}
+
+	/** Lists one directory and forks a subtask per subdirectory; results are joined in name order. */
+	private final class WalkTask extends RecursiveTask<List<Path>> {
+		private static final long serialVersionUID = 1L;
+
+		private final SourceRoot root;
+		private final Path dir;
+		private final SourceFilter filter;
+
+		WalkTask(SourceRoot root, Path dir, SourceFilter filter) {
+			this.root = root;
+			this.dir = dir;
+			this.filter = filter;
+		}
+
+		@Override
+		protected List<Path> compute() {
+			List<Path> files = new ArrayList<>();
+			List<WalkTask> subtasks = new ArrayList<>();
+			List<Path> entries = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+				for (Path entry : stream) {
+					entries.add(entry);
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			Collections.sort(entries);
+			for (Path entry : entries) {
+				if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+					if ((!root.pruned || !ignoredDirs.contains(entry.getFileName().toString())) && filter.enters(root, entry)) {
+						subtasks.add(new WalkTask(root, entry, filter));
+					}
+				} else if (entry.getFileName().toString().endsWith(".java") && filter.admits(root, entry)) {
+					files.add(entry);
+				}
+			}
+			invokeAll(subtasks);
+			for (WalkTask subtask : subtasks) {
+				files.addAll(subtask.join());
+			}
+			return files;
+		}
+	}
+}
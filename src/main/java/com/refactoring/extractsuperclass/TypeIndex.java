@@ -0,0 +1,772 @@
+package com.refactoring.extractsuperclass;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * FQN index of workspace types together with the secondary lookups name resolution and placement need: simple name
+ * to FQNs, package to source directory and package to type count. All of them are maintained per file so a live
+ * {@link WorkspaceIndex} can update them incrementally.
+ * <p>
+ * The index is stored column-wise so large workspaces stay small in memory. A type is an int id into primitive
+ * arrays; its package, simple name, directory, file name and superclass name are ids into one interned
+ * {@link StringPool}. FQN and file lookups go through open-addressing tables keyed by pairs of string ids, so no
+ * object is kept per type and an {@link ExtractSuperclassRefactorer.TargetType} is only created when asked for.
+ * Pooled strings are reference counted by the types using them; once most of the pool is no longer referenced, as
+ * after many renames and deletions in a long-lived {@link WorkspaceIndex}, it is rebuilt and the ids remapped.
+ * <p>
+ * When two files declare the same FQN the one added last wins; the other is kept aside and takes over again if the
+ * winning file is removed.
+ */
+final class TypeIndex {
+	private static final int NONE = -1;
+	private static final byte LIVE = 1;
+	/** Set on the live type that owns its FQN; declarations it hides are live but not visible. */
+	private static final byte VISIBLE = 2;
+	/** Unreferenced pooled strings tolerated before the pool is considered for a rebuild. */
+	private static final int MIN_DEAD_STRINGS = 1024;
+
+	private final StringPool strings = new StringPool();
+	/** (package, simple name) of every visible type to its id. */
+	private final LongIntTable byFqn = new LongIntTable();
+	/** (directory, file name) to the first type id declared in that file. */
+	private final LongIntTable byFile = new LongIntTable();
+
+	// Type columns, indexed by type id.
+	private int[] packageIds = new int[0];
+	private int[] simpleIds = new int[0];
+	private int[] dirIds = new int[0];
+	private int[] fileNameIds = new int[0];
+	private int[] superIds = new int[0];
+	private int[] starts = new int[0];
+	private int[] lengths = new int[0];
+	private int[] headerLengths = new int[0];
+	private byte[] flags = new byte[0];
+	/** Next type declared in the same file; for free ids, the next free id. */
+	private int[] nextInFile = new int[0];
+	/** Declaration of the same FQN this one hides, most recently hidden first. */
+	private int[] shadows = new int[0];
+	/** Next visible type with the same simple name, in the order they became visible. */
+	private int[] nextSameSimple = new int[0];
+	/** Next visible type in the same package, in the order they became visible. */
+	private int[] nextInPackage = new int[0];
+	private int allocated;
+	private int freeHead = NONE;
+	private int visibleCount;
+
+	// Columns indexed by string id, for strings used as simple names or packages.
+	private int[] simpleHeads = new int[0];
+	private int[] simpleTails = new int[0];
+	private int[] packageHeads = new int[0];
+	private int[] packageTails = new int[0];
+	private int[] packageCounts = new int[0];
+
+	/** Cached answer of {@link #mostFrequentPackage()}; null when a package count changed since. */
+	private String mostFrequentPackage;
+	private final Map<String, ExtractSuperclassRefactorer.TargetType> view = new FqnView();
+
+	static TypeIndex of(Map<Path, List<ExtractSuperclassRefactorer.TargetType>> perFile) {
+		TypeIndex index = new TypeIndex();
+		for (Map.Entry<Path, List<ExtractSuperclassRefactorer.TargetType>> entry : perFile.entrySet()) {
+			index.replaceFile(entry.getKey(), entry.getValue());
+		}
+		return index;
+	}
+
+	/** Read-only live view of the FQN index; every value is created when it is read. */
+	Map<String, ExtractSuperclassRefactorer.TargetType> types() {
+		return view;
+	}
+
+	/** Number of visible types, i.e. of distinct FQNs. */
+	int size() {
+		return visibleCount;
+	}
+
+	/** Number of strings in the pool, referenced or not. */
+	int pooledStrings() {
+		return strings.size();
+	}
+
+	/** Number of files that declare at least one indexed type. */
+	int fileCount() {
+		return byFile.size();
+	}
+
+	/** Rough heap footprint: every column and table plus the pooled strings. */
+	long estimatedBytes() {
+		long bytes = 4L * (packageIds.length + simpleIds.length + dirIds.length + fileNameIds.length + superIds.length
+			+ starts.length + lengths.length + headerLengths.length + nextInFile.length + shadows.length
+			+ nextSameSimple.length + nextInPackage.length + simpleHeads.length + simpleTails.length
+			+ packageHeads.length + packageTails.length + packageCounts.length);
+		return bytes + flags.length + strings.estimatedBytes() + byFqn.estimatedBytes() + byFile.estimatedBytes();
+	}
+
+	boolean contains(String fqn) {
+		return visibleId(fqn) != NONE;
+	}
+
+	ExtractSuperclassRefactorer.TargetType get(String fqn) {
+		int id = visibleId(fqn);
+		return id == NONE ? null : materialize(id);
+	}
+
+	/** FQNs of every indexed type with the given simple name, in the order they were added. */
+	List<String> fqnsForSimpleName(String simpleName) {
+		int simple = strings.find(simpleName);
+		if (simple == NONE || simple >= simpleHeads.length || simpleHeads[simple] == NONE) {
+			return Collections.emptyList();
+		}
+		List<String> fqns = new ArrayList<>(2);
+		for (int id = simpleHeads[simple]; id != NONE; id = nextSameSimple[id]) {
+			fqns.add(fqn(id));
+		}
+		return Collections.unmodifiableList(fqns);
+	}
+
+	/** Directory of some source file declaring a type in the package, or null when the package has no types. */
+	Path packageDirectory(String pkg) {
+		int pkgId = strings.find(pkg);
+		if (pkgId == NONE || pkgId >= packageHeads.length) {
+			return null;
+		}
+		for (int id = packageHeads[pkgId]; id != NONE; id = nextInPackage[id]) {
+			if (dirIds[id] != NONE) {
+				return Path.of(strings.get(dirIds[id]));
+			}
+		}
+		return null;
+	}
+
+	int packageTypeCount(String pkg) {
+		int pkgId = strings.find(pkg);
+		return pkgId == NONE || pkgId >= packageCounts.length ? 0 : packageCounts[pkgId];
+	}
+
+	/** Package declaring the most indexed types; the empty string when the index is empty. */
+	String mostFrequentPackage() {
+		if (mostFrequentPackage == null) {
+			int best = NONE;
+			for (int pkgId = 0; pkgId < packageCounts.length; pkgId++) {
+				if (packageCounts[pkgId] > 0 && (best == NONE || packageCounts[pkgId] > packageCounts[best])) {
+					best = pkgId;
+				}
+			}
+			mostFrequentPackage = best == NONE ? "" : strings.get(best);
+		}
+		return mostFrequentPackage;
+	}
+
+	/** Swaps the types previously indexed for one file for its freshly parsed ones. */
+	void replaceFile(Path file, List<ExtractSuperclassRefactorer.TargetType> types) {
+		removeFile(file);
+		if (types == null || types.isEmpty()) {
+			return;
+		}
+		Path parent = file.getParent();
+		int dir = parent == null ? NONE : strings.intern(parent.toString());
+		int name = strings.intern(String.valueOf(file.getFileName()));
+		int head = NONE;
+		int tail = NONE;
+		for (ExtractSuperclassRefactorer.TargetType type : types) {
+			int id = add(type, dir, name);
+			if (head == NONE) {
+				head = id;
+			} else {
+				nextInFile[tail] = id;
+			}
+			tail = id;
+		}
+		byFile.put(key(dir, name), head);
+		compactStringsIfMostlyDead();
+	}
+
+	/** Drops every type declared in the file; returns false when the file had none. */
+	boolean removeFile(Path file) {
+		Path parent = file.getParent();
+		int dir = parent == null ? NONE : strings.find(parent.toString());
+		int name = strings.find(String.valueOf(file.getFileName()));
+		if ((parent != null && dir == NONE) || name == NONE) {
+			return false;
+		}
+		long key = key(dir, name);
+		int id = byFile.get(key);
+		if (id == NONE) {
+			return false;
+		}
+		byFile.remove(key);
+		while (id != NONE) {
+			int next = nextInFile[id];
+			remove(id);
+			id = next;
+		}
+		compactStringsIfMostlyDead();
+		return true;
+	}
+
+	/** Drops every file under the directory; returns the number of files removed. */
+	int removeUnder(Path directory) {
+		String prefix = directory.toString();
+		List<Path> gone = new ArrayList<>();
+		for (long key : byFile.keys()) {
+			int dir = (int) (key >>> 32);
+			String dirName = dir == NONE ? "" : strings.get(dir);
+			if (dirName.startsWith(prefix)
+				&& (dirName.length() == prefix.length() || dirName.charAt(prefix.length()) == File.separatorChar)) {
+				gone.add(Path.of(dirName, strings.get((int) key)));
+			}
+		}
+		for (Path file : gone) {
+			removeFile(file);
+		}
+		return gone.size();
+	}
+
+	private int add(ExtractSuperclassRefactorer.TargetType type, int dir, int name) {
+		int id = allocate();
+		packageIds[id] = strings.intern(type.packageName == null ? "" : type.packageName);
+		simpleIds[id] = strings.intern(type.simpleName);
+		dirIds[id] = dir;
+		fileNameIds[id] = name;
+		superIds[id] = type.superclassName == null ? NONE : strings.intern(type.superclassName);
+		starts[id] = type.typeStart;
+		lengths[id] = type.typeLength;
+		headerLengths[id] = type.headerLength;
+		retainStrings(id);
+		flags[id] = LIVE;
+		nextInFile[id] = NONE;
+		ensureStringColumns(strings.size());
+
+		long fqn = key(packageIds[id], simpleIds[id]);
+		int hidden = byFqn.get(fqn);
+		shadows[id] = hidden;
+		if (hidden != NONE) {
+			unlink(hidden);
+		}
+		byFqn.put(fqn, id);
+		link(id);
+		return id;
+	}
+
+	private void remove(int id) {
+		long fqn = key(packageIds[id], simpleIds[id]);
+		if ((flags[id] & VISIBLE) != 0) {
+			unlink(id);
+			int restored = shadows[id];
+			if (restored != NONE) {
+				byFqn.put(fqn, restored);
+				link(restored);
+			} else {
+				byFqn.remove(fqn);
+			}
+		} else {
+			int newer = byFqn.get(fqn);
+			while (newer != NONE && shadows[newer] != id) {
+				newer = shadows[newer];
+			}
+			if (newer != NONE) {
+				shadows[newer] = shadows[id];
+			}
+		}
+		releaseStrings(id);
+		flags[id] = 0;
+		nextInFile[id] = freeHead;
+		freeHead = id;
+	}
+
+	private void retainStrings(int id) {
+		strings.retain(packageIds[id]);
+		strings.retain(simpleIds[id]);
+		strings.retain(dirIds[id]);
+		strings.retain(fileNameIds[id]);
+		strings.retain(superIds[id]);
+	}
+
+	private void releaseStrings(int id) {
+		strings.release(packageIds[id]);
+		strings.release(simpleIds[id]);
+		strings.release(dirIds[id]);
+		strings.release(fileNameIds[id]);
+		strings.release(superIds[id]);
+	}
+
+	/**
+	 * Rebuilds the string pool without its unreferenced strings once they make up most of it, remapping every column
+	 * and table that holds string ids.
+	 */
+	private void compactStringsIfMostlyDead() {
+		int dead = strings.deadCount();
+		if (dead < MIN_DEAD_STRINGS || dead * 2 < strings.size()) {
+			return;
+		}
+		int[] remap = strings.compact();
+		for (int id = 0; id < allocated; id++) {
+			if (flags[id] != 0) {
+				packageIds[id] = remap[packageIds[id]];
+				simpleIds[id] = remap[simpleIds[id]];
+				dirIds[id] = dirIds[id] == NONE ? NONE : remap[dirIds[id]];
+				fileNameIds[id] = remap[fileNameIds[id]];
+				superIds[id] = superIds[id] == NONE ? NONE : remap[superIds[id]];
+			}
+		}
+		int[] oldSimpleHeads = simpleHeads;
+		int[] oldSimpleTails = simpleTails;
+		int[] oldPackageHeads = packageHeads;
+		int[] oldPackageTails = packageTails;
+		int[] oldPackageCounts = packageCounts;
+		int capacity = Math.max(256, strings.size());
+		simpleHeads = grow(new int[0], capacity, NONE);
+		simpleTails = grow(new int[0], capacity, NONE);
+		packageHeads = grow(new int[0], capacity, NONE);
+		packageTails = grow(new int[0], capacity, NONE);
+		packageCounts = new int[capacity];
+		for (int old = 0; old < remap.length && old < oldSimpleHeads.length; old++) {
+			int now = remap[old];
+			if (now != NONE) {
+				simpleHeads[now] = oldSimpleHeads[old];
+				simpleTails[now] = oldSimpleTails[old];
+				packageHeads[now] = oldPackageHeads[old];
+				packageTails[now] = oldPackageTails[old];
+				packageCounts[now] = oldPackageCounts[old];
+			}
+		}
+		byFqn.remap(remap);
+		byFile.remap(remap);
+	}
+
+	private void link(int id) {
+		flags[id] |= VISIBLE;
+		visibleCount++;
+		int simple = simpleIds[id];
+		nextSameSimple[id] = NONE;
+		if (simpleHeads[simple] == NONE) {
+			simpleHeads[simple] = id;
+		} else {
+			nextSameSimple[simpleTails[simple]] = id;
+		}
+		simpleTails[simple] = id;
+		int pkg = packageIds[id];
+		nextInPackage[id] = NONE;
+		if (packageHeads[pkg] == NONE) {
+			packageHeads[pkg] = id;
+		} else {
+			nextInPackage[packageTails[pkg]] = id;
+		}
+		packageTails[pkg] = id;
+		packageCounts[pkg]++;
+		mostFrequentPackage = null;
+	}
+
+	private void unlink(int id) {
+		flags[id] &= ~VISIBLE;
+		visibleCount--;
+		int simple = simpleIds[id];
+		simpleHeads[simple] = unlinkFrom(simpleHeads[simple], id, nextSameSimple);
+		if (simpleTails[simple] == id) {
+			simpleTails[simple] = lastOf(simpleHeads[simple], nextSameSimple);
+		}
+		int pkg = packageIds[id];
+		packageHeads[pkg] = unlinkFrom(packageHeads[pkg], id, nextInPackage);
+		if (packageTails[pkg] == id) {
+			packageTails[pkg] = lastOf(packageHeads[pkg], nextInPackage);
+		}
+		packageCounts[pkg]--;
+		mostFrequentPackage = null;
+	}
+
+	/** Removes {@code id} from the singly linked list starting at {@code head}; returns the new head. */
+	private static int unlinkFrom(int head, int id, int[] next) {
+		if (head == id) {
+			return next[id];
+		}
+		for (int prev = head; prev != NONE; prev = next[prev]) {
+			if (next[prev] == id) {
+				next[prev] = next[id];
+				break;
+			}
+		}
+		return head;
+	}
+
+	private static int lastOf(int head, int[] next) {
+		int last = NONE;
+		for (int id = head; id != NONE; id = next[id]) {
+			last = id;
+		}
+		return last;
+	}
+
+	private int visibleId(String fqn) {
+		if (fqn == null) {
+			return NONE;
+		}
+		int dot = fqn.lastIndexOf('.');
+		int pkg = strings.find(dot < 0 ? "" : fqn.substring(0, dot));
+		int simple = pkg == NONE ? NONE : strings.find(fqn.substring(dot + 1));
+		return simple == NONE ? NONE : byFqn.get(key(pkg, simple));
+	}
+
+	private String fqn(int id) {
+		String pkg = strings.get(packageIds[id]);
+		String simple = strings.get(simpleIds[id]);
+		return pkg.isEmpty() ? simple : pkg + "." + simple;
+	}
+
+	private ExtractSuperclassRefactorer.TargetType materialize(int id) {
+		Path file = dirIds[id] == NONE
+			? Path.of(strings.get(fileNameIds[id]))
+			: Path.of(strings.get(dirIds[id]), strings.get(fileNameIds[id]));
+		return new ExtractSuperclassRefactorer.TargetType(
+			fqn(id),
+			strings.get(packageIds[id]),
+			strings.get(simpleIds[id]),
+			file,
+			starts[id],
+			lengths[id],
+			headerLengths[id],
+			superIds[id] == NONE ? null : strings.get(superIds[id]));
+	}
+
+	private int allocate() {
+		if (freeHead != NONE) {
+			int id = freeHead;
+			freeHead = nextInFile[id];
+			return id;
+		}
+		if (allocated == flags.length) {
+			int capacity = Math.max(256, allocated * 2);
+			packageIds = Arrays.copyOf(packageIds, capacity);
+			simpleIds = Arrays.copyOf(simpleIds, capacity);
+			dirIds = Arrays.copyOf(dirIds, capacity);
+			fileNameIds = Arrays.copyOf(fileNameIds, capacity);
+			superIds = Arrays.copyOf(superIds, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			headerLengths = Arrays.copyOf(headerLengths, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+			nextInFile = Arrays.copyOf(nextInFile, capacity);
+			shadows = Arrays.copyOf(shadows, capacity);
+			nextSameSimple = Arrays.copyOf(nextSameSimple, capacity);
+			nextInPackage = Arrays.copyOf(nextInPackage, capacity);
+		}
+		return allocated++;
+	}
+
+	private void ensureStringColumns(int stringCount) {
+		int old = simpleHeads.length;
+		if (stringCount <= old) {
+			return;
+		}
+		int capacity = Math.max(256, Math.max(stringCount, old * 2));
+		simpleHeads = grow(simpleHeads, capacity, NONE);
+		simpleTails = grow(simpleTails, capacity, NONE);
+		packageHeads = grow(packageHeads, capacity, NONE);
+		packageTails = grow(packageTails, capacity, NONE);
+		packageCounts = grow(packageCounts, capacity, 0);
+	}
+
+	private static int[] grow(int[] array, int capacity, int fill) {
+		int old = array.length;
+		int[] grown = Arrays.copyOf(array, capacity);
+		Arrays.fill(grown, old, capacity, fill);
+		return grown;
+	}
+
+	private static long key(int high, int low) {
+		return ((long) high << 32) | (low & 0xFFFFFFFFL);
+	}
+
+	private final class FqnView extends AbstractMap<String, ExtractSuperclassRefactorer.TargetType> {
+		@Override
+		public int size() {
+			return visibleCount;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof String && contains((String) key);
+		}
+
+		@Override
+		public ExtractSuperclassRefactorer.TargetType get(Object key) {
+			return key instanceof String ? TypeIndex.this.get((String) key) : null;
+		}
+
+		@Override
+		public Set<Map.Entry<String, ExtractSuperclassRefactorer.TargetType>> entrySet() {
+			return new AbstractSet<Map.Entry<String, ExtractSuperclassRefactorer.TargetType>>() {
+				@Override
+				public int size() {
+					return visibleCount;
+				}
+
+				@Override
+				public Iterator<Map.Entry<String, ExtractSuperclassRefactorer.TargetType>> iterator() {
+					return new Iterator<Map.Entry<String, ExtractSuperclassRefactorer.TargetType>>() {
+						private int next = advance(0);
+
+						private int advance(int from) {
+							while (from < allocated && (flags[from] & VISIBLE) == 0) {
+								from++;
+							}
+							return from;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return next < allocated;
+						}
+
+						@Override
+						public Map.Entry<String, ExtractSuperclassRefactorer.TargetType> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							int id = next;
+							next = advance(id + 1);
+							return new AbstractMap.SimpleImmutableEntry<>(fqn(id), materialize(id));
+						}
+					};
+				}
+			};
+		}
+	}
+
+	/**
+	 * Interned strings addressed by dense int ids, each with the number of type columns referring to it. Strings
+	 * stay in place when their count drops to zero, so ids remain stable, until {@link #compact} drops them.
+	 */
+	private static final class StringPool {
+		private String[] values = new String[256];
+		private int[] refCounts = new int[256];
+		private int size;
+		/** Strings whose reference count is zero. */
+		private int dead;
+		/** Open-addressing table of id + 1, 0 marking an empty slot. */
+		private int[] slots = new int[512];
+
+		int size() {
+			return size;
+		}
+
+		int deadCount() {
+			return dead;
+		}
+
+		long estimatedBytes() {
+			// Reference, count and slot arrays, then per string its header and Latin-1 backing array.
+			long bytes = 8L * values.length + 4L * refCounts.length + 4L * slots.length;
+			for (int id = 0; id < size; id++) {
+				bytes += 56 + values[id].length();
+			}
+			return bytes;
+		}
+
+		String get(int id) {
+			return values[id];
+		}
+
+		int find(String value) {
+			int mask = slots.length - 1;
+			for (int slot = mix(value.hashCode()) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+				if (values[slots[slot] - 1].equals(value)) {
+					return slots[slot] - 1;
+				}
+			}
+			return NONE;
+		}
+
+		int intern(String value) {
+			int mask = slots.length - 1;
+			int slot = mix(value.hashCode()) & mask;
+			for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+				if (values[slots[slot] - 1].equals(value)) {
+					return slots[slot] - 1;
+				}
+			}
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+				refCounts = Arrays.copyOf(refCounts, size * 2);
+			}
+			int id = size++;
+			values[id] = value;
+			refCounts[id] = 0;
+			dead++;
+			slots[slot] = id + 1;
+			if (size * 2 > slots.length) {
+				rehash(slots.length * 2);
+			}
+			return id;
+		}
+
+		/** Counts one more reference to the string; {@code NONE} is ignored. */
+		void retain(int id) {
+			if (id != NONE && refCounts[id]++ == 0) {
+				dead--;
+			}
+		}
+
+		/** Counts one reference fewer to the string; {@code NONE} is ignored. */
+		void release(int id) {
+			if (id != NONE && --refCounts[id] == 0) {
+				dead++;
+			}
+		}
+
+		/** Drops every unreferenced string and returns the new id of each old id, or {@code NONE} for dropped ones. */
+		int[] compact() {
+			int live = size - dead;
+			int capacity = Math.max(256, Integer.highestOneBit(Math.max(1, live)) * 2);
+			String[] keptValues = new String[capacity];
+			int[] keptCounts = new int[capacity];
+			int[] remap = new int[size];
+			int kept = 0;
+			for (int id = 0; id < size; id++) {
+				if (refCounts[id] > 0) {
+					keptValues[kept] = values[id];
+					keptCounts[kept] = refCounts[id];
+					remap[id] = kept++;
+				} else {
+					remap[id] = NONE;
+				}
+			}
+			values = keptValues;
+			refCounts = keptCounts;
+			size = kept;
+			dead = 0;
+			rehash(capacity * 2);
+			return remap;
+		}
+
+		private void rehash(int capacity) {
+			int[] rehashed = new int[capacity];
+			int mask = capacity - 1;
+			for (int id = 0; id < size; id++) {
+				int slot = mix(values[id].hashCode()) & mask;
+				while (rehashed[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				rehashed[slot] = id + 1;
+			}
+			slots = rehashed;
+		}
+	}
+
+	/** Open-addressing map from long keys to non-negative ints with linear probing and backward-shift deletion. */
+	private static final class LongIntTable {
+		private long[] keys = new long[256];
+		/** Value + 1, 0 marking an empty slot. */
+		private int[] values = new int[256];
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		long estimatedBytes() {
+			return 12L * keys.length;
+		}
+
+		int get(long key) {
+			int mask = keys.length - 1;
+			for (int slot = mix(key) & mask; values[slot] != 0; slot = (slot + 1) & mask) {
+				if (keys[slot] == key) {
+					return values[slot] - 1;
+				}
+			}
+			return NONE;
+		}
+
+		void put(long key, int value) {
+			int mask = keys.length - 1;
+			int slot = mix(key) & mask;
+			for (; values[slot] != 0; slot = (slot + 1) & mask) {
+				if (keys[slot] == key) {
+					values[slot] = value + 1;
+					return;
+				}
+			}
+			keys[slot] = key;
+			values[slot] = value + 1;
+			if (++size * 2 > keys.length) {
+				rehash(keys.length * 2);
+			}
+		}
+
+		void remove(long key) {
+			int mask = keys.length - 1;
+			int hole = mix(key) & mask;
+			while (values[hole] != 0 && keys[hole] != key) {
+				hole = (hole + 1) & mask;
+			}
+			if (values[hole] == 0) {
+				return;
+			}
+			// Shift later entries of the probe run back so lookups never stop early at the hole.
+			for (int slot = (hole + 1) & mask; values[slot] != 0; slot = (slot + 1) & mask) {
+				int home = mix(keys[slot]) & mask;
+				boolean movable = hole <= slot ? (home <= hole || home > slot) : (home <= hole && home > slot);
+				if (movable) {
+					keys[hole] = keys[slot];
+					values[hole] = values[slot];
+					hole = slot;
+				}
+			}
+			values[hole] = 0;
+			size--;
+		}
+
+		/** Rewrites both halves of every key through {@code remap}; a {@code NONE} half stays {@code NONE}. */
+		void remap(int[] remap) {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new long[oldKeys.length];
+			values = new int[oldValues.length];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldValues[i] != 0) {
+					int high = (int) (oldKeys[i] >>> 32);
+					int low = (int) oldKeys[i];
+					put(key(high == NONE ? NONE : remap[high], low == NONE ? NONE : remap[low]), oldValues[i] - 1);
+				}
+			}
+		}
+
+		long[] keys() {
+			long[] live = new long[size];
+			int n = 0;
+			for (int slot = 0; slot < keys.length; slot++) {
+				if (values[slot] != 0) {
+					live[n++] = keys[slot];
+				}
+			}
+			return live;
+		}
+
+		private void rehash(int capacity) {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new long[capacity];
+			values = new int[capacity];
+			int mask = capacity - 1;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldValues[i] != 0) {
+					int slot = mix(oldKeys[i]) & mask;
+					while (values[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+	}
+
+	private static int mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
@@ -0,0 +1,768 @@
+package com.refactoring.extractsuperclass;
+
+import org.eclipse.jdt.core.dom.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Parses workspace sources and builds the {@link TypeIndex} used by {@link ExtractSuperclassRefactorer.RefEnv}.
+ * Files are split into chunks that are parsed on a fork-join pool; results are merged in walk order so the map
+ * is identical to a sequential pass regardless of parallelism or {@link IndexOptions.Mode}.
+ * The index only holds lightweight records; no AST outlives the chunk that produced it. Full declarations are
+ * re-created by {@link #bindDeclarations} for the selected targets only. While the {@link MemoryGovernor} reports a
+ * constrained heap, indexing falls back to small header-only chunks on fewer threads. With
+ * {@link IndexOptions#workers()} above one, the files to parse are sharded across worker JVMs instead.
+ * Files over the size or parse time budget, unreadable files and generated files are indexed as empty and recorded
+ * in the root's {@link Quarantine}, so one pathological file neither stalls nor aborts the run. Without the snapshot
+ * the quarantine is only kept in memory, for this indexer's later builds, and nothing is written under the root.
+ */
+final class TypeIndexer {
+	private static final Logger logger = LoggerFactory.getLogger(TypeIndexer.class);
+	/** Files parsed per chunk in the per-file modes. */
+	private static final int PER_FILE_CHUNK = 8;
+	/** Rough retained size of one binding-resolved compilation unit, used to size batches from free heap. */
+	private static final long ESTIMATED_UNIT_BYTES = 256L * 1024;
+	private static final int MIN_BATCH = 8;
+	private static final int MAX_BATCH = 512;
+	/** Filesystems with coarse timestamps can hide edits made right around the snapshot write. */
+	private static final long RACY_WINDOW_MS = 2000;
+	/**
+	 * Files up to this size are parsed on the calling thread: a header parse of that size takes milliseconds, and
+	 * handing every file to another thread would cost more than the time budget saves.
+	 */
+	private static final long BUDGETED_PARSE_BYTES = 128 * 1024;
+	/** Runs parses under a time budget. A parse that overruns cannot be interrupted, so its thread is abandoned. */
+	private static final ExecutorService BUDGET_POOL = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "index-parse-budget");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final IndexOptions options;
+	private final SourceRootDiscovery discovery;
+	/** Set by {@link #cancel()}; running and later builds stop at the next chunk. */
+	private volatile boolean cancelled;
+	/** The request this indexer builds for: reports parsed files and can cancel the build too. */
+	private final Progress progress;
+	/** Files currently skipped for exceeding a budget or failing to read, with the reason. */
+	private final Map<Path, String> quarantined = new ConcurrentHashMap<>();
+	/** Quarantine of every project root indexed without the snapshot, which keeps it off disk; by root. */
+	private final Map<Path, Map<Path, Quarantine.Entry>> memoryQuarantines = new ConcurrentHashMap<>();
+
+	TypeIndexer(IndexOptions options) {
+		this(options, Progress.NONE);
+	}
+
+	/** An indexer whose builds report {@link Progress.Stage#INDEXING} to {@code progress} and stop when it is cancelled. */
+	TypeIndexer(IndexOptions options, Progress progress) {
+		this.options = options == null ? IndexOptions.defaults() : options;
+		this.discovery = new SourceRootDiscovery(this.options.ignoredDirectories());
+		this.progress = progress == null ? Progress.NONE : progress;
+	}
+
+	SourceRootDiscovery discovery() {
+		return discovery;
+	}
+
+	/** Stops builds of this indexer, which then throw {@link CancellationException}; used when a workspace closes. */
+	void cancel() {
+		cancelled = true;
+	}
+
+	/** Files this indexer left out of the index because of a budget or read failure, by path, with the reason. */
+	Map<Path, String> quarantined() {
+		return new TreeMap<>(quarantined);
+	}
+
+	TypeIndex index(List<File> roots) throws IOException {
+		return TypeIndex.of(indexFiles(roots));
+	}
+
+	/** Indexes only the discovered source directories accepted by {@code scope}. */
+	TypeIndex index(List<File> roots, Predicate<SourceRootDiscovery.SourceRoot> scope) throws IOException {
+		return TypeIndex.of(indexFiles(roots, scope, SourceFilter.all()));
+	}
+
+	/** Indexes the files {@code filter} admits in the discovered source directories accepted by {@code scope}, if any. */
+	TypeIndex index(List<File> roots, Predicate<SourceRootDiscovery.SourceRoot> scope, SourceFilter filter) throws IOException {
+		return TypeIndex.of(indexFiles(roots, scope, filter));
+	}
+
+	/** Indexes every file under the roots' discovered source directories and returns each file's types in walk order. */
+	LinkedHashMap<Path, List<ExtractSuperclassRefactorer.TargetType>> indexFiles(List<File> roots) throws IOException {
+		return indexFiles(roots, null, SourceFilter.all());
+	}
+
+	/**
+	 * Indexes the files that {@code filter} admits under the discovered source directories that {@code scope}
+	 * accepts, or under all of them when it is null. Snapshot entries of files outside the scope or filter are kept
+	 * as they are for a later, wider run.
+	 */
+	LinkedHashMap<Path, List<ExtractSuperclassRefactorer.TargetType>> indexFiles(List<File> roots,
+			Predicate<SourceRootDiscovery.SourceRoot> scope, SourceFilter filter) throws IOException {
+		long start = System.currentTimeMillis();
+		boolean persistent = options.persistentIndex();
+		List<Path> allFiles = new ArrayList<>();
+		List<List<ExtractSuperclassRefactorer.TargetType>> perFile = new ArrayList<>();
+		List<RootScan> scans = new ArrayList<>();
+		List<Path> pending = new ArrayList<>();
+		List<Integer> pendingSlots = new ArrayList<>();
+		List<BasicFileAttributes> pendingStamps = new ArrayList<>();
+		List<byte[]> pendingBlobs = new ArrayList<>();
+		List<RootScan> pendingScans = new ArrayList<>();
+		for (Path rootPath : SourceRootDiscovery.collapseRoots(roots)) {
+			progress.checkpoint();
+			Map<Path, IndexSnapshot.Entry> previous = persistent ? IndexSnapshot.load(rootPath) : Collections.emptyMap();
+			RootScan scan = new RootScan(rootPath, previous.size(), persistent
+				? Quarantine.load(rootPath)
+				: new HashMap<>(memoryQuarantines.getOrDefault(rootPath, Collections.emptyMap())));
+			if (persistent && options.invalidation() == IndexOptions.Invalidation.GIT) {
+				scan.git = GitIndex.open(rootPath);
+				if (scan.git == null) {
+					logger.debug("No readable git index for {}; checking file stamps", rootPath);
+				}
+			}
+			List<SourceRootDiscovery.SourceRoot> sourceRoots = discovery.sourceRoots(rootPath);
+			if (scope != null || !filter.isAll()) {
+				List<SourceRootDiscovery.SourceRoot> inScope = new ArrayList<>();
+				for (SourceRootDiscovery.SourceRoot sourceRoot : sourceRoots) {
+					if (scope == null || scope.test(sourceRoot)) {
+						inScope.add(sourceRoot);
+					}
+				}
+				for (IndexSnapshot.Entry entry : previous.values()) {
+					SourceRootDiscovery.SourceRoot owner = discovery.rootOf(inScope, entry.file);
+					if (owner == null || !filter.admits(owner, entry.file)) {
+						scan.carried.add(entry);
+					}
+				}
+				sourceRoots = inScope;
+			}
+			logger.debug("Source roots for {}: {}", rootPath, sourceRoots);
+			List<Path> files = discovery.sourceFiles(sourceRoots, options.effectiveParallelism(), filter);
+			for (Path file : files) {
+				int slot = perFile.size();
+				allFiles.add(file);
+				perFile.add(null);
+				BasicFileAttributes attrs;
+				IndexSnapshot.Entry reused;
+				try {
+					// The quarantine is kept with or without a snapshot; a stamp is only needed to check either.
+					attrs = persistent || scan.hasQuarantine() ? Files.readAttributes(file, BasicFileAttributes.class) : null;
+					if (attrs != null && scan.skip(file, attrs, options.skipGenerated())) {
+						perFile.set(slot, Collections.emptyList());
+						record(file, scan.quarantine.get(file).reason);
+						continue;
+					}
+					reused = persistent ? reuse(previous.get(file), file, attrs, scan) : null;
+				} catch (IOException ex) {
+					// Without a stamp there is nothing to quarantine it under; the file is tried again on the next run.
+					String failure = "unreadable: " + ex.getMessage();
+					logger.warn("Quarantined {}: {}", file, failure);
+					perFile.set(slot, Collections.emptyList());
+					record(file, failure);
+					continue;
+				}
+				if (reused != null) {
+					perFile.set(slot, reused.types);
+					scan.entries.put(slot, reused);
+					quarantined.remove(file);
+				} else {
+					scan.pendingSlots.add(slot);
+					pending.add(file);
+					pendingSlots.add(slot);
+					pendingStamps.add(attrs);
+					pendingBlobs.add(persistent ? scan.cleanBlob(file, attrs) : null);
+					pendingScans.add(scan);
+				}
+			}
+			if (scan.git != null) {
+				logger.debug("Git index of {}: {} tracked file(s) changed since last indexed, {} re-parsed in total",
+					scan.git.workTree, scan.gitChanged, scan.pendingSlots.size());
+			}
+			scans.add(scan);
+		}
+
+		List<List<ExtractSuperclassRefactorer.TargetType>> parsed = new ArrayList<>(Collections.nCopies(pending.size(), null));
+		List<byte[]> hashes = persistent ? new ArrayList<>(Collections.nCopies(pending.size(), null)) : null;
+		List<String> failures = new ArrayList<>(Collections.nCopies(pending.size(), null));
+		int reusedCount = allFiles.size() - pending.size();
+		progress.report(Progress.Stage.INDEXING, reusedCount, allFiles.size());
+		if (options.workers() > 1 && pending.size() >= options.workers()) {
+			progress.checkpoint();
+			ShardedIndexer.parse(options, () -> cancelled || progress.isCancelled(), pending, parsed, hashes, failures);
+			progress.report(Progress.Stage.INDEXING, allFiles.size(), allFiles.size());
+		} else {
+			AtomicInteger done = new AtomicInteger(reusedCount);
+			parse(pending, parsed, hashes, failures,
+				count -> progress.report(Progress.Stage.INDEXING, done.addAndGet(count), allFiles.size()));
+		}
+		Map<Integer, IndexSnapshot.Entry> fresh = new HashMap<>();
+		int skipped = 0;
+		for (int i = 0; i < pending.size(); i++) {
+			int slot = pendingSlots.get(i);
+			perFile.set(slot, parsed.get(i));
+			String failure = failures.get(i);
+			record(pending.get(i), failure);
+			if (failure != null) {
+				skipped++;
+				if (!failure.equals(Quarantine.GENERATED)) {
+					logger.warn("Quarantined {}: {}", pending.get(i), failure);
+				}
+				BasicFileAttributes attrs = stamp(pending.get(i), pendingStamps.get(i));
+				if (attrs != null) {
+					pendingScans.get(i).quarantine(new Quarantine.Entry(pending.get(i), attrs.size(),
+						attrs.lastModifiedTime().toMillis(), failure));
+				}
+			} else if (persistent) {
+				BasicFileAttributes attrs = pendingStamps.get(i);
+				fresh.put(slot, new IndexSnapshot.Entry(pending.get(i), attrs.size(), attrs.lastModifiedTime().toMillis(), hashes.get(i),
+					pendingBlobs.get(i), parsed.get(i)));
+			}
+		}
+		for (RootScan scan : scans) {
+			if (!persistent) {
+				memoryQuarantines.put(scan.root, scan.liveQuarantine());
+			} else if (!options.readOnly()) {
+				scan.saveQuarantine();
+				scan.saveSnapshot(fresh);
+			}
+		}
+
+		LinkedHashMap<Path, List<ExtractSuperclassRefactorer.TargetType>> result = new LinkedHashMap<>();
+		for (int slot = 0; slot < allFiles.size(); slot++) {
+			result.put(allFiles.get(slot), perFile.get(slot));
+		}
+		logger.debug("Indexed {} files ({} parsed, {} newly skipped) in {}ms", perFile.size(), pending.size(), skipped,
+			System.currentTimeMillis() - start);
+		return result;
+	}
+
+	/**
+	 * Parses {@code files} on this process's fork-join pool, storing each file's types (and content hash when
+	 * {@code hashes} is given) at the file's position. A file that is skipped gets an empty type list and the reason
+	 * in {@code failures}, {@link Quarantine#GENERATED} for generated files.
+	 */
+	void parse(List<Path> files, List<List<ExtractSuperclassRefactorer.TargetType>> parsed, List<byte[]> hashes,
+			List<String> failures) throws IOException {
+		parse(files, parsed, hashes, failures, count -> { });
+	}
+
+	/** {@link #parse(List, List, List, List)}, passing the size of every finished chunk to {@code parsedChunk}. */
+	private void parse(List<Path> files, List<List<ExtractSuperclassRefactorer.TargetType>> parsed, List<byte[]> hashes,
+			List<String> failures, IntConsumer parsedChunk) throws IOException {
+		int parallelism = Math.min(options.effectiveParallelism(), Math.max(1, files.size()));
+		IndexOptions.Mode mode = options.mode();
+		if (MemoryGovernor.get().constrained() && !files.isEmpty()) {
+			// Heap is still short after shedding caches: stream small header-only chunks on half the threads.
+			logger.warn("Heap constrained; indexing {} file(s) in low-memory mode instead of {}", files.size(), mode);
+			mode = IndexOptions.Mode.HEADERS;
+			parallelism = Math.max(1, parallelism / 2);
+		}
+		int chunkSize = mode == IndexOptions.Mode.BATCHED ? resolveBatchSize(files.size(), parallelism) : PER_FILE_CHUNK;
+		List<int[]> chunks = new ArrayList<>();
+		for (int from = 0; from < files.size(); from += chunkSize) {
+			chunks.add(new int[] { from, Math.min(files.size(), from + chunkSize) });
+		}
+		ChunkParser parser = new ChunkParser(files, parsed, hashes, failures, mode, options,
+			() -> cancelled || progress.isCancelled(), parsedChunk);
+		if (parallelism <= 1) {
+			for (int[] chunk : chunks) {
+				parser.parse(chunk[0], chunk[1]);
+			}
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new ParseTask(parser, chunks, 0, chunks.size()));
+			} catch (UncheckedIOException ex) {
+				throw ex.getCause();
+			} finally {
+				pool.shutdown();
+			}
+		}
+		logger.debug("Parsed {} file(s) in {} mode, {} chunk(s) of up to {}, using {} thread(s)",
+			files.size(), mode, chunks.size(), chunkSize, parallelism);
+	}
+
+	/** Parses a single file with this indexer's mode; used for incremental updates of a live index. */
+	List<ExtractSuperclassRefactorer.TargetType> indexFile(Path file) throws IOException {
+		List<Path> files = Collections.singletonList(file);
+		List<List<ExtractSuperclassRefactorer.TargetType>> parsed = new ArrayList<>(Collections.singletonList(null));
+		List<String> failures = new ArrayList<>(Collections.singletonList(null));
+		IndexOptions.Mode mode = options.mode() == IndexOptions.Mode.BATCHED ? IndexOptions.Mode.HEADERS : options.mode();
+		new ChunkParser(files, parsed, null, failures, mode, options, () -> false, count -> { }).parse(0, 1);
+		record(file, failures.get(0));
+		return parsed.get(0);
+	}
+
+	/** Tracks the outcome for {@link #quarantined()}; generated files are skipped by policy, not reported. */
+	private void record(Path file, String failure) {
+		if (failure == null || failure.equals(Quarantine.GENERATED)) {
+			quarantined.remove(file);
+		} else {
+			quarantined.put(file, failure);
+		}
+	}
+
+	/** The stamp read while scanning, or the file's current one; null when it cannot be read. */
+	private static BasicFileAttributes stamp(Path file, BasicFileAttributes scanned) {
+		if (scanned != null) {
+			return scanned;
+		}
+		try {
+			return Files.readAttributes(file, BasicFileAttributes.class);
+		} catch (IOException ex) {
+			logger.debug("Not quarantining {}, whose stamp cannot be read: {}", file, ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the snapshot entry for a file when it is still valid: either the stamp matches, or the size matches
+	 * and the content hash proves only the mtime moved.
+	 */
+	private static IndexSnapshot.Entry reuse(IndexSnapshot.Entry previous, Path file, BasicFileAttributes attrs, RootScan scan) throws IOException {
+		if (previous == null) {
+			return null;
+		}
+		byte[] blob = scan.cleanBlob(file, attrs);
+		if (blob != null && previous.blob != null) {
+			// Git vouches for the content: comparing blob ids replaces stamps and hashing.
+			if (!Arrays.equals(blob, previous.blob)) {
+				scan.gitChanged++;
+				return null;
+			}
+			if (previous.matchesStamp(attrs)) {
+				return previous;
+			}
+			scan.restamped = true;
+			return previous.restamped(attrs);
+		}
+		IndexSnapshot.Entry reused = null;
+		if (previous.matchesStamp(attrs) && !scan.isRacy(previous)) {
+			reused = previous;
+		} else if (previous.size == attrs.size() && Arrays.equals(previous.hash, SourceLoader.hash(file))) {
+			scan.restamped = true;
+			reused = previous.restamped(attrs);
+		}
+		if (reused != null && blob != null) {
+			scan.restamped = true;
+			reused = reused.withBlob(blob);
+		}
+		return reused;
+	}
+
+	/**
+	 * Picks the number of units per createASTs call: an explicit size wins, otherwise each thread gets a share of
+	 * half the currently free heap, clamped so small trees still spread across every thread.
+	 */
+	private int resolveBatchSize(int fileCount, int parallelism) {
+		if (options.batchSize() > 0) {
+			return options.batchSize();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		long perThread = Math.max(0, free / 2 / parallelism);
+		int heapBound = (int) Math.max(MIN_BATCH, Math.min(MAX_BATCH, perThread / ESTIMATED_UNIT_BYTES));
+		int evenShare = Math.max(1, (fileCount + parallelism - 1) / parallelism);
+		return Math.min(heapBound, evenShare);
+	}
+
+	/**
+	 * Re-parses the given files in one binding-resolving batch and returns their class declarations keyed by FQN.
+	 * Used after a {@link IndexOptions.Mode#HEADERS} pass so only the selected targets pay for binding resolution.
+	 */
+	static Map<String, TypeDeclaration> bindDeclarations(Collection<Path> files, String[] cp, String[] sp) {
+		Map<String, TypeDeclaration> declarations = new HashMap<>();
+		if (files.isEmpty()) {
+			return declarations;
+		}
+		String[] paths = new String[files.size()];
+		String[] encodings = new String[files.size()];
+		Map<String, Path> byPath = new HashMap<>();
+		int i = 0;
+		for (Path file : files) {
+			paths[i] = file.toString();
+			encodings[i] = StandardCharsets.UTF_8.name();
+			byPath.put(paths[i], file);
+			i++;
+		}
+		ASTParser parser = newBindingParser(cp, sp);
+		parser.createASTs(paths, encodings, new String[0], new FileASTRequestor() {
+			@Override
+			public void acceptAST(String sourceFilePath, CompilationUnit ast) {
+				for (ExtractSuperclassRefactorer.TargetType type : collectTypes(ast, byPath.get(sourceFilePath), true)) {
+					declarations.put(type.fqn, type.typeDecl);
+				}
+			}
+		}, null);
+		logger.debug("Resolved bindings for {} declarations in {} target file(s)", declarations.size(), files.size());
+		return declarations;
+	}
+
+	private static ASTParser newHeaderParser(boolean ignoreMethodBodies) {
+		ASTParser parser = ASTParser.newParser(AST.JLS17);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setResolveBindings(false);
+		parser.setIgnoreMethodBodies(ignoreMethodBodies);
+		return parser;
+	}
+
+	private static ASTParser newBindingParser(String[] cp, String[] sp) {
+		ASTParser parser = ASTParser.newParser(AST.JLS17);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setResolveBindings(true);
+		parser.setBindingsRecovery(true);
+		parser.setEnvironment(cp, sp, null, true);
+		return parser;
+	}
+
+	/** Whether a top-level type of the unit carries an annotation named {@code Generated}, from any package. */
+	private static boolean isGenerated(CompilationUnit cu) {
+		for (Object type : cu.types()) {
+			for (Object modifier : ((AbstractTypeDeclaration) type).modifiers()) {
+				if (modifier instanceof Annotation) {
+					String name = ((Annotation) modifier).getTypeName().getFullyQualifiedName();
+					if (name.equals("Generated") || name.endsWith(".Generated")) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Collects the class declarations of a unit. Index callers pass {@code keepDeclarations=false} so the records
+	 * do not keep the unit's AST reachable.
+	 */
+	private static List<ExtractSuperclassRefactorer.TargetType> collectTypes(CompilationUnit cu, Path p, boolean keepDeclarations) {
+		List<ExtractSuperclassRefactorer.TargetType> types = new ArrayList<>();
+		cu.accept(new ASTVisitor(true) {
+			@Override public boolean visit(TypeDeclaration node) {
+				if (node.isInterface()) return true;
+				String pkg = cu.getPackage() != null ? cu.getPackage().getName().getFullyQualifiedName() : "";
+				String simple = node.getName().getIdentifier();
+				String fqn = pkg.isEmpty() ? simple : pkg + "." + simple;
+				ExtractSuperclassRefactorer.TargetType type = new ExtractSuperclassRefactorer.TargetType(fqn, pkg, simple, p, node);
+				types.add(keepDeclarations ? type : type.detached());
+				return true;
+			}
+		});
+		return types;
+	}
+
+	/** Parses one chunk of the file list, either file by file or through a single batched createASTs call. */
+	private static final class ChunkParser {
+		private final List<Path> files;
+		private final List<List<ExtractSuperclassRefactorer.TargetType>> results;
+		/** Content hashes for the snapshot; null when the index is not persisted. */
+		private final List<byte[]> hashes;
+		/** Why a file was skipped, or null when it was parsed. */
+		private final List<String> failures;
+		private final IndexOptions.Mode mode;
+		private final long maxFileBytes;
+		private final long timeoutMillis;
+		private final boolean skipGenerated;
+		private final BooleanSupplier cancelled;
+		/** Told the size of each chunk once it is parsed. */
+		private final IntConsumer parsedChunk;
+
+		ChunkParser(List<Path> files, List<List<ExtractSuperclassRefactorer.TargetType>> results, List<byte[]> hashes,
+				List<String> failures, IndexOptions.Mode mode, IndexOptions options, BooleanSupplier cancelled,
+				IntConsumer parsedChunk) {
+			this.files = files;
+			this.results = results;
+			this.hashes = hashes;
+			this.failures = failures;
+			this.mode = mode;
+			this.maxFileBytes = options.maxFileBytes();
+			this.timeoutMillis = options.parseTimeoutMillis();
+			this.skipGenerated = options.skipGenerated();
+			this.cancelled = cancelled;
+			this.parsedChunk = parsedChunk;
+		}
+
+		void parse(int from, int to) throws IOException {
+			if (cancelled.getAsBoolean()) {
+				throw new CancellationException("Indexing cancelled");
+			}
+			if (mode == IndexOptions.Mode.BATCHED) {
+				parseBatch(from, to);
+			}
+			// Per-file mode, and any unit the batch did not hand back (large or unreadable files), goes through createAST.
+			for (int i = from; i < to; i++) {
+				try {
+					if (results.get(i) == null) {
+						parseFile(i);
+					}
+					if (hashes != null && hashes.get(i) == null && failures.get(i) == null) {
+						hashes.set(i, SourceLoader.hash(files.get(i)));
+					}
+				} catch (IOException ex) {
+					fail(i, "unreadable: " + ex.getMessage());
+				}
+			}
+			parsedChunk.accept(to - from);
+		}
+
+		private void parseBatch(int from, int to) {
+			List<String> paths = new ArrayList<>();
+			Map<String, Integer> slots = new HashMap<>();
+			for (int i = from; i < to; i++) {
+				try {
+					// Large files are parsed one by one so the time budget can abandon them, and files over the size
+					// budget are left to parseFile, which quarantines them.
+					long size = Files.size(files.get(i));
+					if (size > BUDGETED_PARSE_BYTES || (maxFileBytes > 0 && size > maxFileBytes)) {
+						continue;
+					}
+				} catch (IOException ex) {
+					continue;
+				}
+				paths.add(files.get(i).toString());
+				slots.put(files.get(i).toString(), i);
+			}
+			if (paths.isEmpty()) {
+				return;
+			}
+			String[] encodings = new String[paths.size()];
+			Arrays.fill(encodings, StandardCharsets.UTF_8.name());
+			ASTParser parser = newHeaderParser(true);
+			parser.createASTs(paths.toArray(new String[0]), encodings, new String[0], new FileASTRequestor() {
+				@Override
+				public void acceptAST(String sourceFilePath, CompilationUnit ast) {
+					Integer slot = slots.get(sourceFilePath);
+					if (slot != null) {
+						accept(slot, ast);
+					}
+				}
+			}, null);
+		}
+
+		private void parseFile(int i) throws IOException {
+			Path p = files.get(i);
+			long size = Files.size(p);
+			if (maxFileBytes > 0 && size > maxFileBytes) {
+				fail(i, "exceeds the size budget of " + maxFileBytes + " bytes (" + size + " bytes)");
+				return;
+			}
+			MessageDigest digest = hashes != null ? IndexSnapshot.newDigest() : null;
+			char[] src = SourceLoader.read(p, digest);
+			if (digest != null) {
+				hashes.set(i, digest.digest());
+			}
+			if (timeoutMillis <= 0 || size <= BUDGETED_PARSE_BYTES) {
+				accept(i, parseSource(src, p));
+				return;
+			}
+			Future<CompilationUnit> parse = BUDGET_POOL.submit(() -> parseSource(src, p));
+			try {
+				accept(i, parse.get(timeoutMillis, TimeUnit.MILLISECONDS));
+			} catch (TimeoutException ex) {
+				parse.cancel(true);
+				fail(i, "exceeds the parse time budget of " + timeoutMillis + " ms");
+			} catch (ExecutionException ex) {
+				fail(i, "parser failed: " + ex.getCause());
+			} catch (InterruptedException ex) {
+				parse.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Indexing interrupted");
+			}
+		}
+
+		private CompilationUnit parseSource(char[] src, Path p) {
+			ASTParser parser = newHeaderParser(mode != IndexOptions.Mode.PER_FILE);
+			parser.setSource(src);
+			parser.setUnitName(p.getFileName().toString());
+			return (CompilationUnit) parser.createAST(null);
+		}
+
+		private void accept(int i, CompilationUnit cu) {
+			if (skipGenerated && isGenerated(cu)) {
+				fail(i, Quarantine.GENERATED);
+			} else {
+				results.set(i, collectTypes(cu, files.get(i), false));
+			}
+		}
+
+		private void fail(int i, String reason) {
+			failures.set(i, reason);
+			results.set(i, Collections.emptyList());
+		}
+	}
+
+	/** Per project root bookkeeping needed to write its snapshot back after indexing. */
+	private static final class RootScan {
+		private final Path root;
+		private final int previousSize;
+		private final Map<Integer, IndexSnapshot.Entry> entries = new HashMap<>();
+		private final List<Integer> pendingSlots = new ArrayList<>();
+		/** Snapshot entries outside a scoped run, saved back unchanged. */
+		private final List<IndexSnapshot.Entry> carried = new ArrayList<>();
+		private boolean restamped;
+		/** Git index of the root's work tree in {@link IndexOptions.Invalidation#GIT} mode, otherwise null. */
+		private GitIndex git;
+		private int gitChanged;
+		private final Map<Path, Quarantine.Entry> quarantine;
+		private boolean quarantineChanged;
+
+		/** Modification time of the snapshot being reused, or -1 when there is none. */
+		private final long snapshotMtime;
+
+		RootScan(Path root, int previousSize, Map<Path, Quarantine.Entry> quarantine) {
+			this.root = root;
+			this.previousSize = previousSize;
+			long mtime = -1;
+			try {
+				mtime = Files.getLastModifiedTime(IndexSnapshot.location(root)).toMillis();
+			} catch (IOException ignore) {
+				// no snapshot yet
+			}
+			this.snapshotMtime = mtime;
+			this.quarantine = quarantine;
+		}
+
+		boolean hasQuarantine() {
+			return !quarantine.isEmpty();
+		}
+
+		/**
+		 * Whether the file is still quarantined. An entry whose file changed since, or a generated file when generated
+		 * sources are wanted, is dropped so the file is parsed again.
+		 */
+		boolean skip(Path file, BasicFileAttributes attrs, boolean skipGenerated) {
+			Quarantine.Entry entry = quarantine.get(file);
+			if (entry == null) {
+				return false;
+			}
+			if (entry.matchesStamp(attrs) && (skipGenerated || !entry.generated())) {
+				return true;
+			}
+			quarantine.remove(file);
+			quarantineChanged = true;
+			return false;
+		}
+
+		void quarantine(Quarantine.Entry entry) {
+			quarantine.put(entry.file, entry);
+			quarantineChanged = true;
+		}
+
+		/** Blob id of the file's content when git's index shows it unmodified, otherwise null. */
+		byte[] cleanBlob(Path file, BasicFileAttributes attrs) {
+			if (git == null) {
+				return null;
+			}
+			GitIndex.Entry entry = git.entry(file);
+			return entry != null && git.isClean(entry, attrs) ? entry.blob : null;
+		}
+
+		/**
+		 * A file modified in the same clock tick as the snapshot write may have changed again without moving its
+		 * mtime, so such entries are verified by content hash instead of trusted by stamp.
+		 */
+		boolean isRacy(IndexSnapshot.Entry entry) {
+			return snapshotMtime >= 0 && entry.mtime >= snapshotMtime - RACY_WINDOW_MS;
+		}
+
+		/** The quarantine without the files deleted since they were quarantined. */
+		Map<Path, Quarantine.Entry> liveQuarantine() {
+			if (quarantine.keySet().removeIf(file -> !Files.exists(file))) {
+				quarantineChanged = true;
+			}
+			return quarantine;
+		}
+
+		void saveQuarantine() {
+			liveQuarantine();
+			if (quarantineChanged) {
+				try {
+					Quarantine.save(root, quarantine.values());
+				} catch (IOException ex) {
+					logger.warn("Failed to save quarantine for {}: {}", root, ex.getMessage());
+				}
+			}
+		}
+
+		void saveSnapshot(Map<Integer, IndexSnapshot.Entry> fresh) {
+			boolean removed = entries.size() + carried.size() != previousSize;
+			if (pendingSlots.isEmpty() && !restamped && !removed && Files.exists(IndexSnapshot.location(root))) {
+				return;
+			}
+			for (Integer slot : pendingSlots) {
+				IndexSnapshot.Entry entry = fresh.get(slot);
+				if (entry != null) {
+					entries.put(slot, entry);
+				}
+			}
+			List<IndexSnapshot.Entry> ordered = new ArrayList<>(new TreeMap<>(entries).values());
+			ordered.addAll(carried);
+			try {
+				IndexSnapshot.save(root, ordered);
+				logger.debug("Saved index snapshot for {} ({} files, {} re-parsed)", root, ordered.size(), pendingSlots.size());
+			} catch (IOException ex) {
+				logger.warn("Failed to save index snapshot for {}: {}", root, ex.getMessage());
+			}
+		}
+	}
+
+	private static final class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ChunkParser parser;
+		private final List<int[]> chunks;
+		private final int from;
+		private final int to;
+
+		ParseTask(ChunkParser parser, List<int[]> chunks, int from, int to) {
+			this.parser = parser;
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				for (int i = from; i < to; i++) {
+					try {
+						parser.parse(chunks.get(i)[0], chunks.get(i)[1]);
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(
+				new ParseTask(parser, chunks, from, mid),
+				new ParseTask(parser, chunks, mid, to)
+			);
+		}
+	}
+}
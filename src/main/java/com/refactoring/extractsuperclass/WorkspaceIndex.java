@@ -0,0 +1,301 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Long-lived type index for one set of project roots. The MCP server keeps one per workspace and a
+ * {@link WorkspaceWatcher} feeds it file changes, so repeated refactorings on the same roots reuse the index
+ * instead of walking and parsing the tree again.
+ * <p>
+ * The first build runs in the background so a request can start planning from a target-first scoped environment
+ * (see {@link #ready()}). File events that arrive meanwhile are queued and replayed once the build is installed.
+ * <p>
+ * Requests coordinate through {@link #requestLock()}: a refactoring that writes files holds the write lock, dry runs
+ * share the read lock, and the watcher takes the write lock to apply file events, so the index never changes under a
+ * request that is reading it. Lock order is the {@link WorkspaceLocks} root locks, then the request lock, then this
+ * object, then the watcher.
+ */
+final class WorkspaceIndex implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(WorkspaceIndex.class);
+
+	private final List<File> roots;
+	private final IndexOptions options;
+	private final TypeIndexer indexer;
+	private final ReentrantReadWriteLock requestLock = new ReentrantReadWriteLock();
+	/** Types of every indexed file, updated file by file. */
+	private TypeIndex types = new TypeIndex();
+	/** Directories the index covers; watcher events for files elsewhere are ignored. */
+	private List<SourceRootDiscovery.SourceRoot> sourceRoots = Collections.emptyList();
+	private WorkspaceWatcher watcher;
+	/** Heap footprint of {@link #types}, refreshed after every change so it can be read without the lock. */
+	private volatile long estimatedBytes;
+	/** Bumped whenever a {@code pom.xml} may have changed, so module scans cached against it are redone. */
+	private volatile long buildFileGeneration;
+	// Background build state, guarded by this.
+	private boolean building;
+	private boolean rescanAfterBuild;
+	private final Set<Path> changedWhileBuilding = new LinkedHashSet<>();
+	private final Set<Path> removedWhileBuilding = new LinkedHashSet<>();
+
+	private WorkspaceIndex(List<File> roots, IndexOptions options) {
+		this.roots = new ArrayList<>(roots);
+		this.options = options == null ? IndexOptions.defaults() : options;
+		this.indexer = new TypeIndexer(this.options);
+	}
+
+	/**
+	 * Starts watching the given roots and building their index in the background. If the watcher cannot be started
+	 * the index still works but is rescanned on every {@link #env()} call.
+	 */
+	static WorkspaceIndex open(List<File> roots, IndexOptions options) throws IOException {
+		WorkspaceIndex index = new WorkspaceIndex(roots, options);
+		// Watch first, so no change made while the initial build walks the tree is missed.
+		try {
+			index.watcher = WorkspaceWatcher.start(index, index.rootPaths(), index.options.ignoredDirectories());
+		} catch (IOException ex) {
+			logger.warn("File watching unavailable for {}; the index will be rebuilt per request: {}", roots, ex.getMessage());
+		}
+		index.startBuild();
+		return index;
+	}
+
+	/** Whether the initial background build has been installed; until then {@link #env()} blocks. */
+	synchronized boolean ready() {
+		return !building;
+	}
+
+	private void startBuild() {
+		synchronized (this) {
+			building = true;
+		}
+		Thread thread = new Thread(() -> {
+			long start = System.currentTimeMillis();
+			try {
+				List<SourceRootDiscovery.SourceRoot> discovered = discoverSourceRoots();
+				TypeIndex built = TypeIndex.of(indexer.indexFiles(roots));
+				install(discovered, built);
+				logger.info("Workspace index for {} built in the background: {} files in {}ms", rootPaths(), built.fileCount(),
+					System.currentTimeMillis() - start);
+			} catch (CancellationException ex) {
+				logger.debug("Background index build for {} cancelled", rootPaths());
+			} catch (IOException | RuntimeException ex) {
+				logger.warn("Background index build for {} failed; rescanning on next use: {}", rootPaths(), ex.getMessage());
+				synchronized (this) {
+					building = false;
+					rescanAfterBuild = true;
+					notifyAll();
+				}
+			}
+		}, "workspace-index-build");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Installs the background build, then replays the file events queued while it ran. */
+	private synchronized void install(List<SourceRootDiscovery.SourceRoot> discovered, TypeIndex built) throws IOException {
+		building = false;
+		sourceRoots = discovered;
+		types = built;
+		estimatedBytes = types.estimatedBytes();
+		try {
+			if (rescanAfterBuild) {
+				rescanAfterBuild = false;
+				rescan();
+			} else {
+				for (Path dir : removedWhileBuilding) {
+					removeUnder(dir);
+				}
+				refresh(changedWhileBuilding);
+			}
+		} finally {
+			changedWhileBuilding.clear();
+			removedWhileBuilding.clear();
+			notifyAll();
+		}
+	}
+
+	/** Waits, releasing the lock, until the background build is installed; callers hold the lock. */
+	private void awaitBuild() throws IOException {
+		while (building) {
+			try {
+				wait();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the workspace index", ex);
+			}
+		}
+		if (rescanAfterBuild) {
+			rescanAfterBuild = false;
+			rescan();
+		}
+	}
+
+	/** Normalized key identifying a workspace by its set of project roots. */
+	static List<Path> keyFor(List<File> roots) {
+		SortedSet<Path> normalized = new TreeSet<>();
+		for (File root : roots) {
+			normalized.add(root.toPath().toAbsolutePath().normalize());
+		}
+		return Collections.unmodifiableList(new ArrayList<>(normalized));
+	}
+
+	List<Path> rootPaths() {
+		return SourceRootDiscovery.collapseRoots(roots);
+	}
+
+	/** Lock that requests and the watcher take around any use or change of the index; see the class comment. */
+	ReentrantReadWriteLock requestLock() {
+		return requestLock;
+	}
+
+	/**
+	 * Returns an environment over the live index after applying any file events that are already queued. The index
+	 * changes underneath it, so callers hold {@link #requestLock()} for as long as they use the environment. A caller
+	 * that shares the read lock gets the index as the last writer left it; queued events wait for the next writer.
+	 */
+	synchronized ExtractSuperclassRefactorer.RefEnv env() throws IOException {
+		awaitBuild();
+		if (watcher == null) {
+			// Without events to apply the index is rebuilt, which replaces it rather than changing it in place.
+			rescan();
+		} else if (requestLock.isWriteLockedByCurrentThread() || requestLock.getReadHoldCount() == 0) {
+			watcher.flush();
+		}
+		String[] classpath = ExtractSuperclassRefactorer.RefEnv.classpathFor(roots);
+		String[] sourcepaths = ExtractSuperclassRefactorer.RefEnv.sourcepathOf(sourceRoots);
+		return new ExtractSuperclassRefactorer.RefEnv(classpath, sourcepaths, types, indexer.quarantined());
+	}
+
+	/** Applies the file events already queued, unless the initial build is still running. Callers hold the write lock. */
+	synchronized void flush() {
+		if (!building && watcher != null) {
+			watcher.flush();
+		}
+	}
+
+	/** Re-indexes the given source files, dropping any that no longer exist. */
+	synchronized void refresh(Collection<Path> changed) {
+		if (building) {
+			changedWhileBuilding.addAll(changed);
+			return;
+		}
+		int updated = 0;
+		int removed = 0;
+		for (Path path : changed) {
+			Path file = path.toAbsolutePath().normalize();
+			if (!file.toString().endsWith(".java") || !indexer.discovery().covers(sourceRoots, file)) {
+				continue;
+			}
+			if (!Files.isRegularFile(file)) {
+				if (types.removeFile(file)) {
+					removed++;
+				}
+				continue;
+			}
+			try {
+				types.replaceFile(file, indexer.indexFile(file));
+				updated++;
+			} catch (IOException ex) {
+				logger.debug("Dropping unreadable file {} from the index: {}", file, ex.getMessage());
+				if (types.removeFile(file)) {
+					removed++;
+				}
+			}
+		}
+		if (updated > 0 || removed > 0) {
+			estimatedBytes = types.estimatedBytes();
+			logger.debug("Workspace index refreshed: {} file(s) re-parsed, {} removed", updated, removed);
+		}
+	}
+
+	/** Drops every entry for files under a directory that disappeared. */
+	synchronized void removeUnder(Path directory) {
+		if (building) {
+			removedWhileBuilding.add(directory);
+			return;
+		}
+		if (types.removeUnder(directory.toAbsolutePath().normalize()) > 0) {
+			estimatedBytes = types.estimatedBytes();
+		}
+	}
+
+	/** Rebuilds the whole index, e.g. after the watcher lost events. */
+	synchronized void rescan() throws IOException {
+		buildFileGeneration++;
+		if (building) {
+			rescanAfterBuild = true;
+			return;
+		}
+		long start = System.currentTimeMillis();
+		sourceRoots = discoverSourceRoots();
+		Map<Path, List<ExtractSuperclassRefactorer.TargetType>> files = indexer.indexFiles(roots);
+		types = TypeIndex.of(files);
+		estimatedBytes = types.estimatedBytes();
+		logger.info("Workspace index for {} rebuilt: {} files in {}ms", rootPaths(), files.size(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Reacts to a changed {@code pom.xml}: the classpath is recomputed on the next request and, when the set of source
+	 * directories changed (a module or sourceDirectory was added or removed), the index is rebuilt.
+	 */
+	synchronized void buildFileChanged() throws IOException {
+		ClasspathBuilder.invalidate(roots);
+		buildFileGeneration++;
+		if (building) {
+			// The build discovers source roots before walking them; a rescan afterwards picks up the change.
+			rescanAfterBuild = true;
+			return;
+		}
+		if (!discoverSourceRoots().equals(sourceRoots)) {
+			logger.info("Source directories of {} changed; rescanning", rootPaths());
+			rescan();
+		}
+	}
+
+	private List<SourceRootDiscovery.SourceRoot> discoverSourceRoots() {
+		List<SourceRootDiscovery.SourceRoot> discovered = new ArrayList<>();
+		for (Path root : rootPaths()) {
+			discovered.addAll(indexer.discovery().sourceRoots(root));
+		}
+		return discovered;
+	}
+
+	/** Number of indexed files that declare at least one type. */
+	synchronized int fileCount() throws IOException {
+		awaitBuild();
+		return types.fileCount();
+	}
+
+	/** Current value of the counter that moves whenever a pom below the roots may have changed. */
+	long buildFileGeneration() {
+		return buildFileGeneration;
+	}
+
+	/** Approximate heap bytes held by the index; safe to call without the lock. */
+	long estimatedBytes() {
+		return estimatedBytes;
+	}
+
+	@Override
+	public void close() {
+		indexer.cancel();
+		WorkspaceWatcher current;
+		synchronized (this) {
+			current = watcher;
+			watcher = null;
+		}
+		if (current != null) {
+			current.close();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.refactoring.extractsuperclass;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Coordinates the MCP server's calls per project root, whatever session serves them. A call's roots are collapsed
+ * like {@link SourceRootDiscovery#collapseRoots} does, and two calls meet when a root of one is a root of the other or
+ * lies inside it, so {@code [A]} meets {@code [A, B]} and a call on a module meets a call on the project above it. A
+ * dry run with other index settings than a write still meets it here although it plans against another
+ * {@link WorkspaceIndex}.
+ * <p>
+ * A refactoring that writes files holds its roots exclusively and a dry run shares them (see {@link #lock}), and calls
+ * that write files start in the order they arrived (see {@link #queueWrite}). A call takes all of its roots at once,
+ * so calls on overlapping roots cannot deadlock, and a dry run waits behind a write that is waiting for its roots. The
+ * root locks are taken before a workspace index's own request lock.
+ */
+final class WorkspaceLocks {
+	/** Calls holding their roots; guarded by this, which is notified whenever one releases them. */
+	private final List<Held> holders = new ArrayList<>();
+	/** Calls waiting for their roots; guarded by this. */
+	private final List<Held> waiting = new ArrayList<>();
+	/** Last queued write of every root; guarded by this. */
+	private final Map<Path, CompletableFuture<?>> lastWrites = new HashMap<>();
+
+	/** Collapsed, sorted roots a call on {@code roots} locks and queues on. */
+	static List<Path> keysFor(List<File> roots) {
+		List<Path> keys = new ArrayList<>(SourceRootDiscovery.collapseRoots(roots));
+		Collections.sort(keys);
+		return keys;
+	}
+
+	/** Whether a root of {@code a} is a root of {@code b}, or lies inside or around one. */
+	static boolean overlap(List<Path> a, List<Path> b) {
+		for (Path x : a) {
+			for (Path y : b) {
+				if (x.startsWith(y) || y.startsWith(x)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Locks every root of {@code roots}, exclusively for a call that writes files and shared otherwise, waiting for
+	 * calls on overlapping roots that hold them the other way. The locks are released by closing the result.
+	 */
+	synchronized Held lock(List<File> roots, boolean exclusive) {
+		Held held = new Held(keysFor(roots), exclusive);
+		waiting.add(held);
+		boolean interrupted = false;
+		try {
+			while (blocked(held)) {
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			waiting.remove(held);
+		}
+		holders.add(held);
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return held;
+	}
+
+	private boolean blocked(Held call) {
+		for (Held holder : holders) {
+			if ((call.exclusive || holder.exclusive) && overlap(call.keys, holder.keys)) {
+				return true;
+			}
+		}
+		if (!call.exclusive) {
+			for (Held writer : waiting) {
+				if (writer.exclusive && overlap(call.keys, writer.keys)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs {@code call} on {@code executor} once every write queued earlier on overlapping roots has finished, failed
+	 * or not, and queues it in their place.
+	 */
+	synchronized <T> CompletableFuture<T> queueWrite(List<File> roots, Supplier<T> call, Executor executor) {
+		List<Path> keys = keysFor(roots);
+		Set<CompletableFuture<?>> previous = new LinkedHashSet<>();
+		for (Map.Entry<Path, CompletableFuture<?>> entry : lastWrites.entrySet()) {
+			if (overlap(keys, Collections.singletonList(entry.getKey()))) {
+				previous.add(entry.getValue().handle((ignored, failure) -> null));
+			}
+		}
+		CompletableFuture<T> queued = CompletableFuture.allOf(previous.toArray(new CompletableFuture<?>[0]))
+			.thenApplyAsync(ignored -> call.get(), executor);
+		for (Path key : keys) {
+			lastWrites.put(key, queued);
+		}
+		queued.whenComplete((ignored, failure) -> {
+			synchronized (this) {
+				for (Path key : keys) {
+					lastWrites.remove(key, queued);
+				}
+			}
+		});
+		return queued;
+	}
+
+	/** The last queued write of every root; they finish only after everything queued before them. */
+	synchronized List<CompletableFuture<?>> pendingWrites() {
+		return new ArrayList<>(new LinkedHashSet<>(lastWrites.values()));
+	}
+
+	/** Number of roots with a lock held or waited for, or a write queued. */
+	synchronized int size() {
+		Set<Path> roots = new LinkedHashSet<>(lastWrites.keySet());
+		for (Held held : holders) {
+			roots.addAll(held.keys);
+		}
+		for (Held held : waiting) {
+			roots.addAll(held.keys);
+		}
+		return roots.size();
+	}
+
+	/** Root locks held by one call; closing releases them. */
+	final class Held implements AutoCloseable {
+		private final List<Path> keys;
+		private final boolean exclusive;
+
+		private Held(List<Path> keys, boolean exclusive) {
+			this.keys = keys;
+			this.exclusive = exclusive;
+		}
+
+		@Override
+		public void close() {
+			synchronized (WorkspaceLocks.this) {
+				holders.remove(this);
+				WorkspaceLocks.this.notifyAll();
+			}
+		}
+	}
+}
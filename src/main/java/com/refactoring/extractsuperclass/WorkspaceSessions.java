@@ -0,0 +1,302 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warm workspace sessions of the MCP server, least recently used first, keyed by the normalized set of project roots
+ * and the {@linkplain IndexOptions#indexSettings() index settings} of the call that opened them, so a call that
+ * indexes differently, say with other ignored directories or a smaller size budget, gets its own session rather than
+ * another call's index. Dry runs and writes get separate sessions too, as a session's index saves its snapshot on
+ * every rescan unless it is {@linkplain IndexOptions#readOnly() read-only}. Sessions for overlapping roots or other settings coordinate through the shared
+ * {@link WorkspaceLocks}, keyed by root rather than by session. A session keeps the live {@link WorkspaceIndex}
+ * together with the refactorer that plans against it, whose module scan and class index stay warm between calls; the
+ * classpath is cached per set of roots by {@link ClasspathBuilder}.
+ * <p>
+ * Sessions not in use are evicted once they have been idle for longer than the idle limit, and least recently used
+ * first while there are more sessions, or more estimated index bytes, than allowed. Under memory pressure the
+ * {@link MemoryGovernor} drops every session not in use. The limits default to 30 idle minutes, 8 sessions and a
+ * quarter of the maximum heap and can be changed with the {@value #IDLE_MINUTES_PROPERTY},
+ * {@value #MAX_SESSIONS_PROPERTY} and {@value #MAX_BYTES_PROPERTY} system properties.
+ */
+final class WorkspaceSessions implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(WorkspaceSessions.class);
+	static final String IDLE_MINUTES_PROPERTY = "extractsuperclass.sessionIdleMinutes";
+	static final String MAX_SESSIONS_PROPERTY = "extractsuperclass.maxSessions";
+	static final String MAX_BYTES_PROPERTY = "extractsuperclass.sessionMaxBytes";
+	private static final long DEFAULT_IDLE_MINUTES = 30;
+	private static final int DEFAULT_MAX_SESSIONS = 8;
+
+	/** Project roots, index settings and read-only flag a session was opened for. */
+	static final class Key {
+		final List<Path> roots;
+		final List<Object> settings;
+		final boolean readOnly;
+
+		Key(List<File> roots, IndexOptions options) {
+			this.roots = WorkspaceIndex.keyFor(roots);
+			this.settings = options.indexSettings();
+			this.readOnly = options.readOnly();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return roots.equals(other.roots) && settings.equals(other.settings) && readOnly == other.readOnly;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * roots.hashCode() + settings.hashCode()) + Boolean.hashCode(readOnly);
+		}
+
+		@Override
+		public String toString() {
+			return roots + " " + settings + (readOnly ? " read-only" : "");
+		}
+	}
+
+	/** One warm workspace; {@link #acquire} hands it out and {@link #release} returns it. */
+	static final class Session {
+		final Key key;
+		final WorkspaceIndex index;
+		final ExtractSuperclassRefactorer refactorer;
+		// Guarded by the owning WorkspaceSessions.
+		private int users;
+		private long lastUsed;
+
+		private Session(Key key, List<File> roots, WorkspaceIndex index, WorkspaceLocks locks) {
+			this.key = key;
+			this.index = index;
+			this.refactorer = new ExtractSuperclassRefactorer(roots, index, locks);
+		}
+	}
+
+	private final int maxSessions;
+	private final long maxBytes;
+	private final long idleMillis;
+	/** Access-ordered, so iteration starts at the least recently used session. Guarded by this. */
+	private final Map<Key, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+	/** Root locks and write queues shared by every session, whose roots may overlap. */
+	private final WorkspaceLocks locks = new WorkspaceLocks();
+	private final MemoryGovernor.Sheddable idleSessions = new IdleSessions();
+	private ScheduledExecutorService sweeper;
+
+	/** Sessions limited by the system properties, or the defaults where they are not set. */
+	static WorkspaceSessions fromSystemProperties() {
+		return new WorkspaceSessions(
+			Integer.getInteger(MAX_SESSIONS_PROPERTY, DEFAULT_MAX_SESSIONS),
+			Long.getLong(MAX_BYTES_PROPERTY, Runtime.getRuntime().maxMemory() / 4),
+			TimeUnit.MINUTES.toMillis(Long.getLong(IDLE_MINUTES_PROPERTY, DEFAULT_IDLE_MINUTES)));
+	}
+
+	WorkspaceSessions(int maxSessions, long maxBytes, long idleMillis) {
+		if (maxSessions < 1) {
+			throw new IllegalArgumentException("maxSessions must be at least 1");
+		}
+		if (maxBytes < 0 || idleMillis < 0) {
+			throw new IllegalArgumentException("Session limits cannot be negative");
+		}
+		this.maxSessions = maxSessions;
+		this.maxBytes = maxBytes;
+		this.idleMillis = idleMillis;
+	}
+
+	/** Registers with the memory governor and starts evicting idle sessions in the background. */
+	synchronized void start() {
+		if (sweeper != null) {
+			return;
+		}
+		MemoryGovernor.get().register(idleSessions);
+		sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "workspace-session-sweeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1000, Math.min(idleMillis / 4, TimeUnit.MINUTES.toMillis(1)));
+		sweeper.scheduleWithFixedDelay(() -> evictIdle(System.currentTimeMillis()), period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * The warm session for these roots and index settings, opened with {@code options} on a miss. The session is in
+	 * use, and so never evicted, until it is passed to {@link #release}.
+	 */
+	Session acquire(List<File> roots, IndexOptions options) throws IOException {
+		Key key = new Key(roots, options);
+		synchronized (this) {
+			Session session = sessions.get(key);
+			if (session != null) {
+				session.users++;
+				logger.info("Workspace session hit for {} ({} session(s) warm)", key, sessions.size());
+				return session;
+			}
+		}
+		// Opened outside the lock so other workspaces are served while a first scan starts.
+		Session opened = new Session(key, roots, WorkspaceIndex.open(roots, options), locks);
+		Session session;
+		boolean raced;
+		synchronized (this) {
+			session = sessions.get(key);
+			raced = session != null;
+			if (!raced) {
+				session = opened;
+				sessions.put(key, session);
+			}
+			session.users++;
+			if (!raced) {
+				logger.info("Workspace session miss for {}; opened a new session ({} session(s) warm)", key, sessions.size());
+			}
+		}
+		if (raced) {
+			opened.index.close();
+		}
+		return session;
+	}
+
+	/** Marks the session as no longer in use and applies the size limits. */
+	void release(Session session) {
+		synchronized (this) {
+			session.users--;
+			session.lastUsed = System.currentTimeMillis();
+		}
+		evictOverLimit();
+	}
+
+	/** Locks and write queues per project root that calls on any of these sessions go through. */
+	WorkspaceLocks locks() {
+		return locks;
+	}
+
+	synchronized int size() {
+		return sessions.size();
+	}
+
+	synchronized boolean contains(List<File> roots, IndexOptions options) {
+		return sessions.containsKey(new Key(roots, options));
+	}
+
+	/** Estimated heap bytes held by every warm session. */
+	synchronized long estimatedBytes() {
+		long bytes = 0;
+		for (Session session : sessions.values()) {
+			bytes += session.index.estimatedBytes();
+		}
+		return bytes;
+	}
+
+	/** Evicts every session not in use that was last released more than the idle limit before {@code now}. */
+	void evictIdle(long now) {
+		List<Session> evicted = new ArrayList<>();
+		synchronized (this) {
+			Iterator<Session> it = sessions.values().iterator();
+			while (it.hasNext()) {
+				Session session = it.next();
+				if (session.users == 0 && now - session.lastUsed > idleMillis) {
+					it.remove();
+					evicted.add(session);
+				}
+			}
+		}
+		close(evicted, "idle for more than " + TimeUnit.MILLISECONDS.toSeconds(idleMillis) + "s");
+	}
+
+	/** Evicts least recently used sessions not in use while the count or the estimated bytes exceed the limits. */
+	void evictOverLimit() {
+		List<Session> evicted = new ArrayList<>();
+		synchronized (this) {
+			long bytes = estimatedBytes();
+			Iterator<Session> it = sessions.values().iterator();
+			while (it.hasNext() && (sessions.size() > maxSessions || bytes > maxBytes)) {
+				Session session = it.next();
+				if (session.users == 0) {
+					it.remove();
+					bytes -= session.index.estimatedBytes();
+					evicted.add(session);
+				}
+			}
+		}
+		close(evicted, "over the limit of " + maxSessions + " session(s) or " + maxBytes + " bytes");
+	}
+
+	@Override
+	public void close() {
+		List<Session> all;
+		synchronized (this) {
+			if (sweeper != null) {
+				sweeper.shutdownNow();
+				sweeper = null;
+				MemoryGovernor.get().unregister(idleSessions);
+			}
+			all = new ArrayList<>(sessions.values());
+			sessions.clear();
+		}
+		for (Session session : all) {
+			session.index.close();
+		}
+	}
+
+	private static void close(List<Session> evicted, String reason) {
+		for (Session session : evicted) {
+			logger.info("Evicted workspace session for {} (~{} bytes): {}", session.key, session.index.estimatedBytes(), reason);
+			session.index.close();
+		}
+	}
+
+	/** Closes and forgets every session not in use; a later request opens it again. */
+	private final class IdleSessions implements MemoryGovernor.Sheddable {
+		@Override
+		public String name() {
+			return "workspace sessions";
+		}
+
+		@Override
+		public MemoryGovernor.Tier tier() {
+			return MemoryGovernor.Tier.INACTIVE_WORKSPACES;
+		}
+
+		@Override
+		public long estimatedBytes() {
+			return WorkspaceSessions.this.estimatedBytes();
+		}
+
+		@Override
+		public long shed() {
+			List<Session> dropped = new ArrayList<>();
+			synchronized (WorkspaceSessions.this) {
+				Iterator<Session> it = sessions.values().iterator();
+				while (it.hasNext()) {
+					Session session = it.next();
+					if (session.users == 0) {
+						dropped.add(session);
+						it.remove();
+					}
+				}
+			}
+			long released = 0;
+			for (Session session : dropped) {
+				released += session.index.estimatedBytes();
+			}
+			close(dropped, "memory pressure");
+			return released;
+		}
+	}
+}
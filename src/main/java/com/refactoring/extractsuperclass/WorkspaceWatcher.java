@@ -0,0 +1,237 @@
+package com.refactoring.extractsuperclass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link WorkspaceIndex} current from {@link WatchService} events. Bursts of events (a branch switch, a
+ * build) are coalesced until the tree has been quiet for {@link #DEBOUNCE_MS} or {@link #MAX_DELAY_MS} has passed,
+ * then only the touched {@code .java} files are re-parsed. A lost-events overflow triggers a full rescan.
+ * <p>
+ * Lock order is always the index's request lock, then the index, then the watcher: the background thread applies
+ * changes while holding the request write lock and the index lock, and {@link #flush()} is called by the index with
+ * both already held.
+ */
+final class WorkspaceWatcher implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(WorkspaceWatcher.class);
+	static final long DEBOUNCE_MS = 200;
+	static final long MAX_DELAY_MS = 2000;
+
+	private final WorkspaceIndex index;
+	private final WatchService service;
+	private final Set<String> ignoredDirs;
+	private final Map<WatchKey, Path> keys = new HashMap<>();
+	private final Set<Path> directories = new HashSet<>();
+	private final Thread thread;
+	private volatile boolean closed;
+
+	// Pending changes, guarded by this.
+	private Set<Path> changedFiles = new LinkedHashSet<>();
+	private Set<Path> removedDirectories = new LinkedHashSet<>();
+	private boolean buildFileChanged;
+	private boolean overflow;
+
+	private WorkspaceWatcher(WorkspaceIndex index, WatchService service, Set<String> ignoredDirs) {
+		this.index = index;
+		this.service = service;
+		this.ignoredDirs = ignoredDirs;
+		this.thread = new Thread(this::run, "workspace-watcher");
+		this.thread.setDaemon(true);
+	}
+
+	static WorkspaceWatcher start(WorkspaceIndex index, List<Path> roots, Set<String> ignoredDirs) throws IOException {
+		WatchService service = FileSystems.getDefault().newWatchService();
+		WorkspaceWatcher watcher = new WorkspaceWatcher(index, service, ignoredDirs);
+		try {
+			synchronized (watcher) {
+				for (Path root : roots) {
+					watcher.registerTree(root, null);
+				}
+			}
+		} catch (IOException ex) {
+			service.close();
+			throw ex;
+		}
+		watcher.thread.start();
+		return watcher;
+	}
+
+	/** Applies every event the watch service has already queued. Called by the index with its lock held. */
+	void flush() {
+		if (closed) {
+			return;
+		}
+		try {
+			WatchKey key;
+			while ((key = service.poll()) != null) {
+				process(key);
+			}
+		} catch (ClosedWatchServiceException ex) {
+			return;
+		}
+		apply();
+	}
+
+	private void run() {
+		try {
+			while (!closed) {
+				WatchKey key = service.take();
+				process(key);
+				long deadline = System.currentTimeMillis() + MAX_DELAY_MS;
+				while (System.currentTimeMillis() < deadline && (key = service.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+					process(key);
+				}
+				index.requestLock().writeLock().lock();
+				try {
+					synchronized (index) {
+						apply();
+					}
+				} finally {
+					index.requestLock().writeLock().unlock();
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException ex) {
+			// closed while waiting
+		} catch (RuntimeException ex) {
+			logger.warn("Workspace watcher stopped; the index will no longer track file changes", ex);
+		}
+	}
+
+	private synchronized void process(WatchKey key) {
+		Path dir = keys.get(key);
+		if (dir != null) {
+			for (WatchEvent<?> event : key.pollEvents()) {
+				WatchEvent.Kind<?> kind = event.kind();
+				if (kind == StandardWatchEventKinds.OVERFLOW) {
+					overflow = true;
+					continue;
+				}
+				Path child = dir.resolve((Path) event.context());
+				String name = child.getFileName().toString();
+				if (name.endsWith(".java")) {
+					changedFiles.add(child);
+				} else if ("pom.xml".equals(name)) {
+					buildFileChanged = true;
+				} else if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child) && !isIgnored(child)) {
+					try {
+						registerTree(child, changedFiles);
+					} catch (IOException ex) {
+						logger.debug("Could not watch new directory {}: {}", child, ex.getMessage());
+						overflow = true;
+					}
+				} else if (kind == StandardWatchEventKinds.ENTRY_DELETE && directories.contains(child)) {
+					removedDirectories.add(child);
+				}
+			}
+		} else {
+			key.pollEvents();
+		}
+		if (!key.reset()) {
+			Path gone = keys.remove(key);
+			if (gone != null) {
+				directories.remove(gone);
+				removedDirectories.add(gone);
+			}
+		}
+	}
+
+	/** Hands pending changes to the index; callers must hold the index lock. */
+	private void apply() {
+		Set<Path> files;
+		Set<Path> removed;
+		boolean rebuild;
+		boolean classpathStale;
+		synchronized (this) {
+			if (!overflow && !buildFileChanged && changedFiles.isEmpty() && removedDirectories.isEmpty()) {
+				return;
+			}
+			files = changedFiles;
+			removed = removedDirectories;
+			rebuild = overflow;
+			classpathStale = buildFileChanged;
+			changedFiles = new LinkedHashSet<>();
+			removedDirectories = new LinkedHashSet<>();
+			overflow = false;
+			buildFileChanged = false;
+		}
+		if (classpathStale && !rebuild) {
+			try {
+				index.buildFileChanged();
+			} catch (IOException ex) {
+				logger.warn("Workspace rescan failed: {}", ex.getMessage());
+			}
+		}
+		if (rebuild) {
+			logger.info("File watcher overflowed; rescanning workspace");
+			try {
+				index.rescan();
+			} catch (IOException ex) {
+				logger.warn("Workspace rescan failed: {}", ex.getMessage());
+			}
+			return;
+		}
+		for (Path dir : removed) {
+			index.removeUnder(dir);
+		}
+		index.refresh(files);
+	}
+
+	/** Registers a directory tree; when {@code found} is given, source files already inside it are added to it. */
+	private void registerTree(Path start, Set<Path> found) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(start) && isIgnored(dir)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				keys.put(key, dir);
+				directories.add(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (found != null && file.toString().endsWith(".java")) {
+					found.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private boolean isIgnored(Path dir) {
+		Path name = dir.getFileName();
+		return name != null && ignoredDirs.contains(name.toString());
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			service.close();
+		} catch (IOException ex) {
+			logger.debug("Failed to close watch service: {}", ex.getMessage());
+		}
+		thread.interrupt();
+	}
+}
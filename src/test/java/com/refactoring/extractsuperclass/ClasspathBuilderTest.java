@@ -0,0 +1,39 @@
+package com.refactoring.extractsuperclass;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClasspathBuilderTest {
+    @Test
+    public void classpathIsDeduplicatedAndCachedUntilBuildOutputChanges(@TempDir Path tmp) throws Exception {
+        Path moduleA = tmp.resolve("module-a");
+        Path moduleB = tmp.resolve("module-b");
+        Files.createDirectories(moduleA.resolve("lib"));
+        Files.createDirectories(moduleB.resolve("lib"));
+        Path sharedJar = moduleA.resolve("lib/shared.jar");
+        Files.write(sharedJar, new byte[0]);
+        Files.createSymbolicLink(moduleB.resolve("lib/shared.jar"), sharedJar);
+        List<File> roots = Arrays.asList(moduleA.toFile(), moduleB.toFile());
+
+        String[] first = ClasspathBuilder.classpathFor(roots);
+        assertEquals(first.length, new HashSet<>(Arrays.asList(first)).size(), "Entries should be unique");
+        assertEquals(1, Arrays.stream(first).filter(e -> e.endsWith("shared.jar")).count(), "Symlinked jar should appear once");
+        assertFalse(Arrays.stream(first).anyMatch(e -> e.endsWith(".jmod")), "JDK comes from the running VM image");
+        assertSame(first, ClasspathBuilder.classpathFor(roots), "Unchanged build output should reuse the cached classpath");
+
+        Files.createDirectories(moduleB.resolve("target"));
+        Files.write(moduleB.resolve("target/module-b.jar"), new byte[0]);
+        String[] second = ClasspathBuilder.classpathFor(roots);
+        assertNotSame(first, second);
+        assertTrue(Arrays.stream(second).anyMatch(e -> e.endsWith("module-b.jar")), "New jar should be picked up");
+    }
+}
@@ -1,13 +1,45 @@
 package com.refactoring.extractsuperclass;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 import org.slf4j.LoggerFactory;
 
@@ -87,6 +119,52 @@ public class ExtractSuperclassRefactorerTest {
         assertTrue(res.isSuccess());
     }
 
+    @Test
+    public void singleTypeImportsShadowSamePackageSuperclasses(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("src");
+        Path pkgDir = src.resolve("com/example");
+        Files.createDirectories(pkgDir);
+        Files.createDirectories(src.resolve("com/other"));
+        Files.writeString(pkgDir.resolve("Base.java"), "package com.example;\n\npublic class Base { }\n", StandardCharsets.UTF_8);
+        Files.writeString(src.resolve("com/other/Base.java"), "package com.other;\n\npublic class Base { }\n", StandardCharsets.UTF_8);
+        Files.writeString(pkgDir.resolve("A.java"),
+            "package com.example;\n\nimport com.other.Base;\n\npublic class A extends Base { }\n", StandardCharsets.UTF_8);
+        Path bFile = pkgDir.resolve("B.java");
+        Files.writeString(bFile, "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+
+        ExtractSuperclassRefactorer ref = new ExtractSuperclassRefactorer(Arrays.asList(src.toFile()));
+        ExtractSuperclassResult res = ref.performRefactoring(
+            new ExtractSuperclassRequest(Arrays.asList("com.example.A", "com.example.B"), null, false, true));
+        assertTrue(res.isSuccess(), () -> "refactoring failed: " + res.getErrorMessage());
+        String bAfter = Files.readString(bFile, StandardCharsets.UTF_8);
+        assertTrue(bAfter.contains("com.other.Base"), bAfter);
+        assertFalse(bAfter.contains("com.example.Base"), bAfter);
+    }
+
+    @Test
+    public void ambiguousSimpleSuperclassNamesStayUnqualified(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("src");
+        Path pkgDir = src.resolve("com/example");
+        Files.createDirectories(pkgDir);
+        Files.createDirectories(src.resolve("com/a"));
+        Files.createDirectories(src.resolve("com/b"));
+        Files.writeString(src.resolve("com/a/Base.java"), "package com.a;\n\npublic class Base { }\n", StandardCharsets.UTF_8);
+        Files.writeString(src.resolve("com/b/Base.java"), "package com.b;\n\npublic class Base { }\n", StandardCharsets.UTF_8);
+        // Base comes from neither workspace package, so guessing one of them would change what A and B extend.
+        Files.writeString(pkgDir.resolve("A.java"), "package com.example;\n\npublic class A extends Base { }\n", StandardCharsets.UTF_8);
+        Path bFile = pkgDir.resolve("B.java");
+        Files.writeString(bFile, "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+
+        ExtractSuperclassRefactorer ref = new ExtractSuperclassRefactorer(Arrays.asList(src.toFile()));
+        ExtractSuperclassResult res = ref.performRefactoring(
+            new ExtractSuperclassRequest(Arrays.asList("com.example.A", "com.example.B"), null, false, true));
+        assertTrue(res.isSuccess(), () -> "refactoring failed: " + res.getErrorMessage());
+        assertEquals("Base", res.getSuperclassQualifiedName());
+        String bAfter = Files.readString(bFile, StandardCharsets.UTF_8);
+        assertTrue(bAfter.contains("extends Base"), bAfter);
+        assertFalse(bAfter.contains("com.a.Base") || bAfter.contains("com.b.Base"), bAfter);
+    }
+
     @Test
     public void bothHaveDistinctSuperclasses_createsStandaloneClass(@TempDir Path tmp) throws Exception {
         Path src = tmp.resolve("src");
@@ -215,6 +293,894 @@ public class ExtractSuperclassRefactorerTest {
         assertFalse(betaAfter.contains("extends ExistingBase"), "Beta should no longer extend the original base");
     }
 
+    @Test
+    public void parallelAndBatchedIndexMatchSequentialIndex(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("src");
+        for (int i = 0; i < 40; i++) {
+            Path pkgDir = src.resolve("com/example/p" + (i % 5));
+            Files.createDirectories(pkgDir);
+            String body = "package com.example.p" + (i % 5) + ";\n\npublic class Type" + i + " {\n\tstatic class Nested" + i + " { }\n}\n";
+            Files.writeString(pkgDir.resolve("Type" + i + ".java"), body, StandardCharsets.UTF_8);
+        }
+        // Same FQN declared twice: the later file in walk order must win in both modes.
+        Files.writeString(src.resolve("com/example/p0/Duplicate.java"), "package com.example.p0;\n\nclass Type5 { }\n", StandardCharsets.UTF_8);
+
+        ExtractSuperclassRefactorer.RefEnv sequential = ExtractSuperclassRefactorer.RefEnv.build(
+            Arrays.asList(src.toFile()), IndexOptions.builder().parallelism(1).mode(IndexOptions.Mode.PER_FILE).build());
+        IndexOptions[] variants = {
+            IndexOptions.builder().parallelism(4).mode(IndexOptions.Mode.HEADERS).build(),
+            IndexOptions.builder().parallelism(4).mode(IndexOptions.Mode.PER_FILE).build(),
+            IndexOptions.builder().parallelism(1).mode(IndexOptions.Mode.BATCHED).build(),
+            IndexOptions.builder().parallelism(3).mode(IndexOptions.Mode.BATCHED).batchSize(7).build()
+        };
+
+        for (IndexOptions variant : variants) {
+            ExtractSuperclassRefactorer.RefEnv other = ExtractSuperclassRefactorer.RefEnv.build(Arrays.asList(src.toFile()), variant);
+            assertEquals(sequential.fqnToType.keySet(), other.fqnToType.keySet());
+            for (Map.Entry<String, ExtractSuperclassRefactorer.TargetType> entry : sequential.fqnToType.entrySet()) {
+                ExtractSuperclassRefactorer.TargetType type = other.fqnToType.get(entry.getKey());
+                assertEquals(entry.getValue().filePath, type.filePath, "Mismatched source for " + entry.getKey());
+                assertEquals(entry.getValue().simpleName, type.simpleName);
+                assertEquals(entry.getValue().packageName, type.packageName);
+            }
+        }
+    }
+
+    @Test
+    public void workerJvmsProduceTheSameIndexAsInProcessParsing(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("src");
+        for (int i = 0; i < 12; i++) {
+            Path pkgDir = src.resolve("com/example/p" + (i % 3));
+            Files.createDirectories(pkgDir);
+            String body = "package com.example.p" + (i % 3) + ";\n\npublic class Type" + i + " extends Base" + i + " {\n\tint f;\n}\n";
+            Files.writeString(pkgDir.resolve("Type" + i + ".java"), body, StandardCharsets.UTF_8);
+        }
+        List<File> roots = Arrays.asList(src.toFile());
+        TypeIndex local = new TypeIndexer(IndexOptions.builder().persistentIndex(false).build()).index(roots);
+
+        TypeIndex sharded = new TypeIndexer(IndexOptions.builder().workers(3).build()).index(roots);
+        assertEquals(local.types().keySet(), sharded.types().keySet());
+        for (Map.Entry<String, ExtractSuperclassRefactorer.TargetType> entry : local.types().entrySet()) {
+            ExtractSuperclassRefactorer.TargetType type = sharded.get(entry.getKey());
+            assertEquals(entry.getValue().filePath, type.filePath);
+            assertEquals(entry.getValue().superclassName, type.superclassName);
+            assertEquals(entry.getValue().typeStart, type.typeStart);
+            assertEquals(entry.getValue().typeLength, type.typeLength);
+            assertEquals(entry.getValue().headerLength, type.headerLength);
+        }
+
+        // Hashes sent back by the workers must make the saved snapshot reusable in-process.
+        Map<Path, IndexSnapshot.Entry> snapshot = IndexSnapshot.load(src.toAbsolutePath().normalize());
+        assertEquals(12, snapshot.size());
+        for (IndexSnapshot.Entry entry : snapshot.values()) {
+            assertArrayEquals(SourceLoader.hash(entry.file), entry.hash);
+        }
+    }
+
+    @Test
+    public void indexSnapshotReusesUnchangedFilesAndRecoversFromCorruption(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("src");
+        Path pkgDir = src.resolve("com/example");
+        Files.createDirectories(pkgDir);
+        Path aFile = pkgDir.resolve("A.java");
+        Path bFile = pkgDir.resolve("B.java");
+        Files.writeString(aFile, "package com.example;\n\npublic class A extends Base { }\n", StandardCharsets.UTF_8);
+        Files.writeString(bFile, "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+        // Old timestamps keep the files outside the racy window, so an unchanged stamp is trusted.
+        FileTime oldStamp = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000L);
+        Files.setLastModifiedTime(aFile, oldStamp);
+        IndexOptions options = IndexOptions.builder().mode(IndexOptions.Mode.HEADERS).build();
+
+        ExtractSuperclassRefactorer.RefEnv first = ExtractSuperclassRefactorer.RefEnv.build(Arrays.asList(src.toFile()), options);
+        Path snapshot = IndexSnapshot.location(src.toAbsolutePath().normalize());
+        assertTrue(Files.exists(snapshot), "Snapshot should be written after the first build");
+
+        // Same size and stamp: only a snapshot hit can still report the old superclass text.
+        Files.writeString(aFile, "package com.example;\n\npublic class A extends Bxse { }\n", StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(aFile, oldStamp);
+        ExtractSuperclassRefactorer.RefEnv second = ExtractSuperclassRefactorer.RefEnv.build(Arrays.asList(src.toFile()), options);
+        ExtractSuperclassRefactorer.TargetType restored = second.fqnToType.get("com.example.A");
+        assertEquals("Base", restored.superclassName, "Unchanged stamp should come from the snapshot");
+        assertEquals(first.fqnToType.get("com.example.A").typeStart, restored.typeStart);
+        assertEquals(first.fqnToType.get("com.example.A").typeLength, restored.typeLength);
+        assertEquals(first.fqnToType.get("com.example.A").headerLength, restored.headerLength);
+
+        Files.writeString(bFile, "package com.example;\n\npublic class B { }\nclass C { }\n", StandardCharsets.UTF_8);
+        ExtractSuperclassRefactorer.RefEnv third = ExtractSuperclassRefactorer.RefEnv.build(Arrays.asList(src.toFile()), options);
+        assertNotNull(third.fqnToType.get("com.example.C"), "Changed file should be re-parsed");
+        assertEquals("Base", third.fqnToType.get("com.example.A").superclassName);
+
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length - 1] ^= 0x5A;
+        Files.write(snapshot, bytes);
+        ExtractSuperclassRefactorer.RefEnv rebuilt = ExtractSuperclassRefactorer.RefEnv.build(Arrays.asList(src.toFile()), options);
+        assertEquals(third.fqnToType.keySet(), rebuilt.fqnToType.keySet());
+        assertEquals("Bxse", rebuilt.fqnToType.get("com.example.A").superclassName, "Corrupt snapshot should trigger a full rebuild");
+    }
+
+    @Test
+    public void dryRunsLeaveTheProjectRootUntouched(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("src");
+        Path pkgDir = src.resolve("com/example");
+        Files.createDirectories(pkgDir);
+        Files.writeString(pkgDir.resolve("A.java"), "package com.example;\n\npublic class A { }\n", StandardCharsets.UTF_8);
+        Files.writeString(pkgDir.resolve("B.java"), "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+        Files.writeString(pkgDir.resolve("Huge.java"), largeClass("Huge", 4096), StandardCharsets.UTF_8);
+        List<File> roots = Arrays.asList(src.toFile());
+        // A budget the large file exceeds, so the run has a quarantine it could save as well as a snapshot.
+        IndexOptions options = IndexOptions.builder().maxFileBytes(1024).build();
+        List<String> classes = Arrays.asList("com.example.A", "com.example.B");
+        Map<String, String> before = treeContents(tmp);
+
+        ExtractSuperclassResult planned = new ExtractSuperclassRefactorer(roots).performRefactoring(
+            new ExtractSuperclassRequest(classes, "com.example.Base", true, false, options));
+        assertTrue(planned.isSuccess(), planned.getErrorMessage());
+        try (WorkspaceSessions sessions = new WorkspaceSessions(8, Long.MAX_VALUE, TimeUnit.MINUTES.toMillis(5))) {
+            ExtractSuperclassRequest request = new ExtractSuperclassRequest(classes, "com.example.Base", true, false, options);
+            WorkspaceSessions.Session session = sessions.acquire(roots, request.indexOptions());
+            assertTrue(session.refactorer.performRefactoring(request).isSuccess());
+            // Wait for the whole workspace, the large file included, to be indexed.
+            session.index.fileCount();
+            sessions.release(session);
+        }
+        assertEquals(before, treeContents(tmp), "A dry run writes neither a snapshot nor a quarantine");
+
+        try (WorkspaceIndex index = WorkspaceIndex.open(roots, options)) {
+            index.fileCount();
+        }
+        assertTrue(Files.exists(IndexSnapshot.location(SourceRootDiscovery.realPath(src))));
+        assertTrue(Files.exists(Quarantine.location(SourceRootDiscovery.realPath(src))));
+    }
+
+    /** Every regular file under {@code dir} by relative path, with its content. */
+    private static Map<String, String> treeContents(Path dir) throws IOException {
+        Map<String, String> contents = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                contents.put(dir.relativize(file).toString(), new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1));
+            }
+        }
+        return contents;
+    }
+
+    @Test
+    public void gitInvalidationReusesCleanFilesByBlobId(@TempDir Path tmp) throws Exception {
+        Path repo = tmp.resolve("repo");
+        Path src = repo.resolve("src");
+        Path pkgDir = src.resolve("com/example");
+        Files.createDirectories(pkgDir);
+        Path aFile = pkgDir.resolve("A.java");
+        String original = "package com.example;\n\npublic class A extends Base { }\n";
+        String edited = "package com.example;\n\npublic class A extends Bxse { }\n";
+        Files.writeString(aFile, original, StandardCharsets.UTF_8);
+        FileTime oldStamp = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000L);
+        Files.setLastModifiedTime(aFile, oldStamp);
+        Path gitDir = repo.resolve(".git");
+        Files.createDirectories(gitDir);
+        writeGitIndex(gitDir, repo, aFile, original);
+
+        GitIndex git = GitIndex.open(src);
+        assertNotNull(git, "Hand-written index should be readable");
+        assertTrue(git.isClean(git.entry(aFile), Files.readAttributes(aFile, BasicFileAttributes.class)));
+
+        IndexOptions options = IndexOptions.builder().invalidation(IndexOptions.Invalidation.GIT).build();
+        assertEquals("Base", ExtractSuperclassRefactorer.RefEnv.build(Arrays.asList(src.toFile()), options)
+            .fqnToType.get("com.example.A").superclassName);
+
+        // A checkout moved the mtime and git still vouches for the old blob: reused without hashing the content.
+        Files.writeString(aFile, edited, StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(aFile, FileTime.fromMillis(oldStamp.toMillis() + 60_000L));
+        writeGitIndex(gitDir, repo, aFile, original);
+        assertEquals("Base", ExtractSuperclassRefactorer.RefEnv.build(Arrays.asList(src.toFile()), options)
+            .fqnToType.get("com.example.A").superclassName, "Clean file should be reused by blob id");
+
+        // Same stamp, new blob: the blob id decides.
+        writeGitIndex(gitDir, repo, aFile, edited);
+        assertEquals("Bxse", ExtractSuperclassRefactorer.RefEnv.build(Arrays.asList(src.toFile()), options)
+            .fqnToType.get("com.example.A").superclassName, "Changed blob should be re-parsed");
+
+        Path plain = tmp.resolve("plain");
+        Files.createDirectories(plain.resolve("com/example"));
+        Files.writeString(plain.resolve("com/example/B.java"), "package com.example;\n\npublic class B extends A { }\n", StandardCharsets.UTF_8);
+        assertNull(GitIndex.open(plain));
+        assertEquals("A", ExtractSuperclassRefactorer.RefEnv.build(Arrays.asList(plain.toFile()), options)
+            .fqnToType.get("com.example.B").superclassName, "Roots outside git fall back to stamps");
+    }
+
+    @Test
+    public void overBudgetFilesAreQuarantinedAndGeneratedFilesSkipped(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("src");
+        Path pkgDir = src.resolve("com/example");
+        Files.createDirectories(pkgDir);
+        Files.writeString(pkgDir.resolve("A.java"), "package com.example;\n\npublic class A { }\n", StandardCharsets.UTF_8);
+        Files.writeString(pkgDir.resolve("Gen.java"),
+            "package com.example;\n\n@javax.annotation.processing.Generated(\"tool\")\npublic class Gen { }\n", StandardCharsets.UTF_8);
+        Path big = pkgDir.resolve("Big.java");
+        Path slow = pkgDir.resolve("Slow.java");
+        Files.writeString(big, largeClass("Big", 300_000), StandardCharsets.UTF_8);
+        Files.writeString(slow, largeClass("Slow", 200_000), StandardCharsets.UTF_8);
+        FileTime oldStamp = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000L);
+        Files.setLastModifiedTime(slow, oldStamp);
+        List<File> roots = Arrays.asList(src.toFile());
+
+        IndexOptions tight = IndexOptions.builder().maxFileBytes(250_000).parseTimeoutMillis(1).build();
+        ExtractSuperclassRefactorer.RefEnv env = ExtractSuperclassRefactorer.RefEnv.build(roots, tight);
+        assertNotNull(env.fqnToType.get("com.example.A"));
+        assertNull(env.fqnToType.get("com.example.Gen"), "@Generated files are skipped by default");
+        assertNull(env.fqnToType.get("com.example.Big"));
+        assertNull(env.fqnToType.get("com.example.Slow"));
+        assertEquals(Arrays.asList(big, slow), new ArrayList<>(env.quarantined.keySet()), "Generated files are not reported");
+        assertTrue(env.quarantined.get(big).contains("size budget"), env.quarantined.get(big));
+        assertTrue(env.quarantined.get(slow).contains("time budget"), env.quarantined.get(slow));
+        assertEquals(3, Files.readAllLines(Quarantine.location(src)).size());
+
+        // Later runs skip quarantined files without parsing them, whatever their budgets.
+        ExtractSuperclassRefactorer.RefEnv again = ExtractSuperclassRefactorer.RefEnv.build(roots, IndexOptions.defaults());
+        assertNull(again.fqnToType.get("com.example.Slow"));
+        assertEquals(2, again.quarantined.size());
+
+        // Editing a file releases it from quarantine; including generated files releases those.
+        Files.setLastModifiedTime(slow, FileTime.fromMillis(oldStamp.toMillis() + 60_000L));
+        ExtractSuperclassRefactorer.RefEnv released = ExtractSuperclassRefactorer.RefEnv.build(roots,
+            IndexOptions.builder().skipGenerated(false).build());
+        assertNotNull(released.fqnToType.get("com.example.Slow"));
+        assertNotNull(released.fqnToType.get("com.example.Gen"));
+        assertEquals(Arrays.asList(big), new ArrayList<>(released.quarantined.keySet()));
+        assertEquals(1, Files.readAllLines(Quarantine.location(src)).size());
+
+        // Batched parsing honours the size budget too, and a file that cannot even be stat'ed is skipped, not fatal.
+        Path small = pkgDir.resolve("Small.java");
+        Files.writeString(small, largeClass("Small", 2_000), StandardCharsets.UTF_8);
+        Path dangling = pkgDir.resolve("Gone.java");
+        Files.createSymbolicLink(dangling, tmp.resolve("missing.java"));
+        ExtractSuperclassRefactorer.RefEnv batched = ExtractSuperclassRefactorer.RefEnv.build(roots,
+            IndexOptions.builder().mode(IndexOptions.Mode.BATCHED).maxFileBytes(1_000).build());
+        assertNotNull(batched.fqnToType.get("com.example.A"));
+        assertNull(batched.fqnToType.get("com.example.Small"));
+        assertTrue(batched.quarantined.get(small).contains("size budget"), String.valueOf(batched.quarantined.get(small)));
+        assertTrue(batched.quarantined.get(dangling).startsWith("unreadable"), String.valueOf(batched.quarantined.get(dangling)));
+
+        // Without the snapshot the quarantine is only kept in memory, by the indexer, and nothing is written to the root.
+        Path plain = tmp.resolve("plain");
+        Files.createDirectories(plain.resolve("com/example"));
+        Files.writeString(plain.resolve("com/example/A.java"), "package com.example;\n\npublic class A { }\n", StandardCharsets.UTF_8);
+        Path huge = plain.resolve("com/example/Huge.java");
+        Files.writeString(huge, largeClass("Huge", 2_000), StandardCharsets.UTF_8);
+        Path gen = plain.resolve("com/example/Gen.java");
+        Files.writeString(gen, "package com.example;\n\n@javax.annotation.processing.Generated(\"x\")\npublic class Gen { }\n",
+            StandardCharsets.UTF_8);
+        List<File> plainRoots = Arrays.asList(plain.toFile());
+        TypeIndexer unsaved = new TypeIndexer(IndexOptions.builder().persistentIndex(false).maxFileBytes(1_000).build());
+        unsaved.indexFiles(plainRoots);
+        assertEquals(Arrays.asList(huge), new ArrayList<>(unsaved.quarantined().keySet()));
+        assertFalse(Files.exists(plain.resolve(IndexSnapshot.DIRECTORY)), "Neither snapshot nor quarantine is saved");
+        Map<Path, List<ExtractSuperclassRefactorer.TargetType>> rebuilt = unsaved.indexFiles(plainRoots);
+        assertEquals(Arrays.asList(huge), new ArrayList<>(unsaved.quarantined().keySet()));
+        assertTrue(rebuilt.get(huge).isEmpty() && rebuilt.get(gen).isEmpty(), "The indexer's later builds still skip them");
+        assertFalse(Files.exists(plain.resolve(IndexSnapshot.DIRECTORY)));
+        ExtractSuperclassRefactorer.RefEnv fresh = ExtractSuperclassRefactorer.RefEnv.build(plainRoots,
+            IndexOptions.builder().persistentIndex(false).build());
+        assertNotNull(fresh.fqnToType.get("com.example.Huge"), "Nothing is carried over to another run");
+        assertNotNull(fresh.fqnToType.get("com.example.A"));
+    }
+
+    @Test
+    public void sourceFilterLimitsIndexingToPackagesAndPaths(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("src/main/java");
+        String[][] files = {
+            { "com/example/billing/Invoice.java", "package com.example.billing;\n\npublic class Invoice { }\n" },
+            { "com/example/billing/Receipt.java", "package com.example.billing;\n\npublic class Receipt { }\n" },
+            { "com/example/billing/SkipMe.java", "package com.example.billing;\n\npublic class SkipMe { }\n" },
+            { "com/example/billing/legacy/OldInvoice.java", "package com.example.billing.legacy;\n\npublic class OldInvoice { }\n" },
+            { "com/example/shipping/Parcel.java", "package com.example.shipping;\n\npublic class Parcel { }\n" },
+        };
+        for (String[] file : files) {
+            Path path = src.resolve(file[0]);
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, file[1], StandardCharsets.UTF_8);
+        }
+        List<File> roots = Arrays.asList(tmp.toFile());
+        SourceFilter filter = SourceFilter.builder()
+            .includePackages(Arrays.asList("com.example.billing.*"))
+            .excludePackages(Arrays.asList("com.example.billing.legacy"))
+            .excludePaths(Arrays.asList("**/Skip*.java"))
+            .build();
+
+        ExtractSuperclassRefactorer.RefEnv env = ExtractSuperclassRefactorer.RefEnv.build(roots, IndexOptions.defaults(), filter);
+        assertEquals(Arrays.asList("com.example.billing.Invoice", "com.example.billing.Receipt"),
+            new ArrayList<>(new TreeSet<>(env.fqnToType.keySet())));
+
+        // A filtered run keeps the snapshot entries of everything it did not look at.
+        ExtractSuperclassRefactorer.RefEnv full = ExtractSuperclassRefactorer.RefEnv.build(roots, IndexOptions.defaults());
+        assertEquals(5, full.fqnToType.size());
+
+        ExtractSuperclassRequest request = new ExtractSuperclassRequest(
+            Arrays.asList("com.example.billing.Invoice", "com.example.billing.Receipt"),
+            "com.example.billing.Document", false, false, IndexOptions.defaults(), filter);
+        ExtractSuperclassResult result = new ExtractSuperclassRefactorer(roots).performRefactoring(request);
+        assertTrue(result.isSuccess(), result.getErrorMessage());
+        String invoice = Files.readString(src.resolve("com/example/billing/Invoice.java"));
+        assertTrue(invoice.contains("extends Document") || invoice.contains("extends com.example.billing.Document"), invoice);
+
+        ExtractSuperclassRequest outside = new ExtractSuperclassRequest(
+            Arrays.asList("com.example.billing.Invoice", "com.example.shipping.Parcel"),
+            null, true, false, IndexOptions.defaults(), filter);
+        assertFalse(new ExtractSuperclassRefactorer(roots).performRefactoring(outside).isSuccess(),
+            "Classes outside the filter are not resolved");
+    }
+
+    @Test
+    public void externalSuperclassesResolveFromTheClassIndex(@TempDir Path tmp) throws Exception {
+        // A library jar in a local repository of its own, declared by the project's pom but not on JDT's classpath.
+        Path classes = tmp.resolve("lib-classes");
+        Path baseSource = tmp.resolve("lib-src/com/lib/Base.java");
+        Files.createDirectories(baseSource.getParent());
+        Files.createDirectories(classes);
+        Files.writeString(baseSource, "package com.lib;\n\npublic abstract class Base implements Runnable { }\n", StandardCharsets.UTF_8);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, "-d", classes.toString(), baseSource.toString()));
+        Path repository = tmp.resolve("m2");
+        Path jar = repository.resolve("com/lib/base-lib/1.2.0/base-lib-1.2.0.jar");
+        Files.createDirectories(jar.getParent());
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("com/lib/Base.class"));
+            out.write(Files.readAllBytes(classes.resolve("com/lib/Base.class")));
+            out.closeEntry();
+        }
+
+        Path project = tmp.resolve("project");
+        Path pkg = project.resolve("src/main/java/com/example");
+        Files.createDirectories(pkg);
+        Files.writeString(project.resolve("pom.xml"), "<project><modelVersion>4.0.0</modelVersion>"
+            + "<groupId>com.example</groupId><artifactId>app</artifactId><version>1.0</version>"
+            + "<properties><lib.version>1.2.0</lib.version></properties>"
+            + "<dependencies><dependency><groupId>com.lib</groupId><artifactId>base-lib</artifactId>"
+            + "<version>${lib.version}</version></dependency></dependencies></project>", StandardCharsets.UTF_8);
+        Files.writeString(pkg.resolve("A.java"), "package com.example;\n\nimport com.lib.*;\n\npublic class A extends Base {\n    public void run() { }\n}\n", StandardCharsets.UTF_8);
+        Files.writeString(pkg.resolve("B.java"), "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+
+        String previousRepository = System.getProperty("maven.repo.local");
+        String previousIndexDir = System.getProperty(ClassIndex.DIRECTORY_PROPERTY);
+        System.setProperty("maven.repo.local", repository.toString());
+        System.setProperty(ClassIndex.DIRECTORY_PROPERTY, tmp.resolve("class-index").toString());
+        try {
+            List<File> roots = Arrays.asList(project.toFile());
+            assertEquals(Arrays.asList(jar), ClasspathBuilder.dependencyJars(roots));
+
+            ExtractSuperclassResult result = new ExtractSuperclassRefactorer(roots).performRefactoring(
+                new ExtractSuperclassRequest(Arrays.asList("com.example.A", "com.example.B"), null, true, false));
+            assertTrue(result.isSuccess(), result.getErrorMessage());
+            assertEquals("com.lib.Base", result.getSuperclassQualifiedName());
+
+            ClassIndex index = new ClassIndex(roots);
+            assertEquals("java.lang.Object", index.superclassOf("com.lib.Base"));
+            assertEquals(Arrays.asList("java.lang.Runnable"), index.interfacesOf("com.lib.Base"));
+            assertEquals("java.awt.Container", index.superclassOf("javax.swing.JComponent"));
+            assertTrue(index.isInterface("java.util.Map.Entry"));
+            try (Stream<Path> stored = Files.list(tmp.resolve("class-index"))) {
+                assertTrue(stored.anyMatch(file -> file.toString().endsWith(".idx")), "The library jar's index is stored");
+            }
+        } finally {
+            restoreProperty("maven.repo.local", previousRepository);
+            restoreProperty(ClassIndex.DIRECTORY_PROPERTY, previousIndexDir);
+        }
+    }
+
+    private static void restoreProperty(String name, String value) {
+        if (value == null) {
+            System.clearProperty(name);
+        } else {
+            System.setProperty(name, value);
+        }
+    }
+
+    private static String largeClass(String name, int minimumChars) {
+        StringBuilder source = new StringBuilder("package com.example;\n\npublic class ").append(name).append(" {\n");
+        for (int i = 0; source.length() < minimumChars; i++) {
+            source.append("    int field").append(i).append(" = ").append(i).append(" * 31 + 7;\n");
+            source.append("    int method").append(i).append("(int x) { return x + field").append(i).append("; }\n");
+        }
+        return source.append("}\n").toString();
+    }
+
+    /** Writes a version 2 {@code .git/index} tracking {@code file} with the blob id of {@code content} and the file's stat. */
+    private static void writeGitIndex(Path gitDir, Path workTree, Path file, String content) throws Exception {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        sha1.update(("blob " + bytes.length + "\0").getBytes(StandardCharsets.US_ASCII));
+        byte[] blob = sha1.digest(bytes);
+        long mtimeNanos = Files.getLastModifiedTime(file).to(TimeUnit.NANOSECONDS);
+        byte[] name = workTree.relativize(file).toString().replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8);
+        int entryLength = (62 + name.length + 8) & ~7;
+        ByteBuffer out = ByteBuffer.allocate(12 + entryLength + 20);
+        out.putInt(0x44495243).putInt(2).putInt(1);
+        out.putLong(0); // ctime
+        out.putInt((int) (mtimeNanos / 1_000_000_000L)).putInt((int) (mtimeNanos % 1_000_000_000L));
+        out.putLong(0); // dev, ino
+        out.putInt(0100644).putLong(0); // mode, uid, gid
+        out.putInt(bytes.length).put(blob).putShort((short) name.length).put(name);
+        out.position(12 + entryLength);
+        out.put(MessageDigest.getInstance("SHA-1").digest(Arrays.copyOf(out.array(), 12 + entryLength)));
+        Files.write(gitDir.resolve("index"), out.array());
+    }
+
+    @Test
+    public void indexKeepsNoAstsAndMaterializesOnlyTargets(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("src");
+        Path pkgDir = src.resolve("com/example");
+        Files.createDirectories(pkgDir);
+        Files.writeString(pkgDir.resolve("Base.java"), "package com.example;\n\npublic class Base { }\n", StandardCharsets.UTF_8);
+        Files.writeString(pkgDir.resolve("A.java"),
+            "package com.example;\n\npublic class A<T extends Comparable<T>> extends Base implements Runnable {\n\tpublic void run() { }\n}\n",
+            StandardCharsets.UTF_8);
+        Files.writeString(pkgDir.resolve("B.java"), "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+
+        for (IndexOptions.Mode mode : IndexOptions.Mode.values()) {
+            IndexOptions options = IndexOptions.builder().mode(mode).persistentIndex(false).build();
+            ExtractSuperclassRefactorer.RefEnv env = ExtractSuperclassRefactorer.RefEnv.build(Arrays.asList(src.toFile()), options);
+            for (ExtractSuperclassRefactorer.TargetType type : env.fqnToType.values()) {
+                assertNull(type.typeDecl, "Index entry should not pin an AST in " + mode + ": " + type.fqn);
+            }
+            ExtractSuperclassRefactorer.TargetType a = env.fqnToType.get("com.example.A");
+            String source = Files.readString(a.filePath, StandardCharsets.UTF_8);
+            assertTrue(source.substring(a.typeStart, a.typeStart + a.headerLength).endsWith("Runnable"));
+
+            List<ExtractSuperclassRefactorer.TargetType> bound = env.bindTargets(
+                Arrays.asList(a, env.fqnToType.get("com.example.B")));
+            assertNotNull(bound.get(0).typeDecl);
+            assertNotNull(bound.get(1).typeDecl);
+            assertEquals("com.example.Base", bound.get(0).typeDecl.getSuperclassType().resolveBinding().getQualifiedName());
+            assertNull(env.fqnToType.get("com.example.Base").typeDecl, "Non-target types stay unmaterialized");
+        }
+    }
+
+    @Test
+    public void workspaceIndexTracksFileChangesWithoutRescanning(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("src");
+        Path pkgDir = src.resolve("com/example");
+        Files.createDirectories(pkgDir);
+        Path aFile = pkgDir.resolve("A.java");
+        Path bFile = pkgDir.resolve("B.java");
+        Files.writeString(aFile, "package com.example;\n\npublic class A { }\n", StandardCharsets.UTF_8);
+        Files.writeString(bFile, "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+        IndexOptions options = IndexOptions.builder().persistentIndex(false).build();
+
+        try (WorkspaceIndex index = WorkspaceIndex.open(Arrays.asList(src.toFile()), options)) {
+            assertEquals(2, index.env().fqnToType.size());
+
+            Path subDir = src.resolve("com/example/sub");
+            Files.createDirectories(subDir);
+            Files.writeString(subDir.resolve("C.java"), "package com.example.sub;\n\npublic class C { }\n", StandardCharsets.UTF_8);
+            Files.delete(bFile);
+            long deadline = System.currentTimeMillis() + 10_000;
+            Map<String, ExtractSuperclassRefactorer.TargetType> types = index.env().fqnToType;
+            while ((!types.containsKey("com.example.sub.C") || types.containsKey("com.example.B")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+                types = index.env().fqnToType;
+            }
+            assertTrue(types.containsKey("com.example.sub.C"), "File created in a new directory should be indexed");
+            assertFalse(types.containsKey("com.example.B"), "Deleted file should leave the index");
+
+            ExtractSuperclassRefactorer refactorer = new ExtractSuperclassRefactorer(Arrays.asList(src.toFile()), index);
+            ExtractSuperclassResult result = refactorer.performRefactoring(new ExtractSuperclassRequest(
+                    Arrays.asList("com.example.A", "com.example.sub.C"), "com.example.Base", false, false, options));
+            assertTrue(result.isSuccess(), () -> "Refactoring failed: " + result.getErrorMessage());
+            ExtractSuperclassRefactorer.TargetType a = index.env().fqnToType.get("com.example.A");
+            assertTrue(a.hasSuperclass() && a.superclassName.endsWith("Base"), "Files written by the refactoring should be re-indexed immediately");
+            assertNotNull(index.env().fqnToType.get("com.example.Base"));
+        }
+    }
+
+    @Test
+    public void dryRunsShareAWorkspaceWhileWritesWaitForIt(@TempDir Path tmp) throws Exception {
+        Path pkgDir = tmp.resolve("src/com/example");
+        Files.createDirectories(pkgDir);
+        Files.writeString(pkgDir.resolve("A.java"), "package com.example;\n\npublic class A { }\n", StandardCharsets.UTF_8);
+        Files.writeString(pkgDir.resolve("B.java"), "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+        List<File> roots = Arrays.asList(tmp.resolve("src").toFile());
+        IndexOptions options = IndexOptions.builder().persistentIndex(false).build();
+        List<String> classes = Arrays.asList("com.example.A", "com.example.B");
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try (WorkspaceIndex index = WorkspaceIndex.open(roots, options)) {
+            index.env();
+            ExtractSuperclassRefactorer refactorer = new ExtractSuperclassRefactorer(roots, index);
+            ReentrantReadWriteLock.ReadLock otherDryRun = index.requestLock().readLock();
+            otherDryRun.lock();
+            boolean held = true;
+            try {
+                Future<ExtractSuperclassResult> dryRun = pool.submit(() -> refactorer.performRefactoring(
+                    new ExtractSuperclassRequest(classes, "com.example.Base", true, false, options)));
+                assertTrue(dryRun.get(30, TimeUnit.SECONDS).isSuccess(), "A dry run does not wait for another one");
+
+                Future<ExtractSuperclassResult> write = pool.submit(() -> refactorer.performRefactoring(
+                    new ExtractSuperclassRequest(classes, "com.example.Base", false, false, options)));
+                Thread.sleep(300);
+                assertFalse(write.isDone(), "A write waits until no dry run is reading the workspace");
+                otherDryRun.unlock();
+                held = false;
+                assertTrue(write.get(30, TimeUnit.SECONDS).isSuccess());
+                assertTrue(Files.exists(pkgDir.resolve("Base.java")));
+            } finally {
+                if (held) {
+                    otherDryRun.unlock();
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void writesExcludeCallsOnOverlappingRootsWhateverTheirIndexSettings(@TempDir Path tmp) throws Exception {
+        Path pkgDir = tmp.resolve("ws/com/example");
+        Files.createDirectories(pkgDir);
+        Files.writeString(pkgDir.resolve("A.java"), "package com.example;\n\npublic class A { }\n", StandardCharsets.UTF_8);
+        Files.writeString(pkgDir.resolve("B.java"), "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+        Files.createDirectories(tmp.resolve("other/com/other"));
+        Files.writeString(tmp.resolve("other/com/other/X.java"), "package com.other;\n\npublic class X { }\n", StandardCharsets.UTF_8);
+        List<File> roots = Arrays.asList(tmp.resolve("ws").toFile());
+        List<File> overlapping = Arrays.asList(tmp.resolve("other").toFile(), tmp.resolve("ws").toFile());
+        IndexOptions options = IndexOptions.builder().persistentIndex(false).build();
+        IndexOptions budgeted = IndexOptions.builder().persistentIndex(false).maxFileBytes(1_000_000).build();
+        List<String> classes = Arrays.asList("com.example.A", "com.example.B");
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try (WorkspaceSessions sessions = new WorkspaceSessions(8, Long.MAX_VALUE, TimeUnit.MINUTES.toMillis(5))) {
+            WorkspaceSessions.Session writer = sessions.acquire(roots, options);
+            WorkspaceSessions.Session reader = sessions.acquire(overlapping, budgeted);
+            assertNotSame(writer.index, reader.index);
+
+            // Hold the write in the middle of its rewrite; a dry run through the other session has to wait for it.
+            CountDownLatch rewriting = new CountDownLatch(1);
+            CountDownLatch resume = new CountDownLatch(1);
+            Future<ExtractSuperclassResult> write = pool.submit(() -> writer.refactorer.performRefactoring(
+                new ExtractSuperclassRequest(classes, "com.example.Base", false, false, options),
+                new Progress((stage, done, total) -> {
+                    if (stage == Progress.Stage.REWRITING && done == 1) {
+                        rewriting.countDown();
+                        try {
+                            resume.await(30, TimeUnit.SECONDS);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                })));
+            try {
+                assertTrue(rewriting.await(30, TimeUnit.SECONDS), "The write should reach its rewrite");
+                Future<ExtractSuperclassResult> dryRun = pool.submit(() -> reader.refactorer.performRefactoring(
+                    new ExtractSuperclassRequest(classes, "com.example.Other", true, false, budgeted)));
+                Thread.sleep(300);
+                assertFalse(dryRun.isDone(), "A dry run with other index settings on overlapping roots waits for the write");
+                resume.countDown();
+                assertTrue(write.get(30, TimeUnit.SECONDS).isSuccess());
+                assertNotNull(dryRun.get(30, TimeUnit.SECONDS));
+            } finally {
+                resume.countDown();
+            }
+
+            // Writes queue behind earlier writes on any of their roots.
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<String> first = sessions.locks().queueWrite(roots, () -> {
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return "first";
+            }, pool);
+            CompletableFuture<String> second = sessions.locks().queueWrite(overlapping, () -> first.isDone() ? "after" : "overlapped", pool);
+            Thread.sleep(300);
+            assertFalse(second.isDone(), "A write on [other, ws] waits for the one queued on [ws]");
+            release.countDown();
+            assertEquals("after", second.get(30, TimeUnit.SECONDS));
+
+            // A module root meets the project root above it, whether the project or the module comes first.
+            List<File> project = Arrays.asList(tmp.toFile());
+            WorkspaceLocks.Held projectWrite = sessions.locks().lock(project, true);
+            Future<ExtractSuperclassResult> moduleDryRun;
+            try {
+                moduleDryRun = pool.submit(() -> writer.refactorer.performRefactoring(
+                    new ExtractSuperclassRequest(classes, "com.example.Other", true, false, options)));
+                Thread.sleep(300);
+                assertFalse(moduleDryRun.isDone(), "A dry run on a module waits for a write holding the project above it");
+            } finally {
+                projectWrite.close();
+            }
+            assertNotNull(moduleDryRun.get(30, TimeUnit.SECONDS));
+            CountDownLatch releaseModule = new CountDownLatch(1);
+            CompletableFuture<String> moduleQueued = sessions.locks().queueWrite(roots, () -> {
+                try {
+                    releaseModule.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return "module";
+            }, pool);
+            CompletableFuture<String> projectQueued = sessions.locks().queueWrite(project,
+                () -> moduleQueued.isDone() ? "after" : "overlapped", pool);
+            Thread.sleep(300);
+            assertFalse(projectQueued.isDone(), "A write on the project waits for the one queued on its module");
+            releaseModule.countDown();
+            assertEquals("after", projectQueued.get(30, TimeUnit.SECONDS));
+            sessions.release(writer);
+            sessions.release(reader);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cancelledRefactoringsStopAndRestoreTheFilesTheyWrote(@TempDir Path tmp) throws Exception {
+        Path pkgDir = tmp.resolve("src/com/example");
+        Files.createDirectories(pkgDir);
+        List<String> classes = new ArrayList<>();
+        Map<Path, String> originals = new TreeMap<>();
+        for (String name : Arrays.asList("A", "B", "C")) {
+            String source = "package com.example;\n\npublic class " + name + " {\n}\n";
+            Files.writeString(pkgDir.resolve(name + ".java"), source, StandardCharsets.UTF_8);
+            originals.put(pkgDir.resolve(name + ".java"), source);
+            classes.add("com.example." + name);
+        }
+        List<File> roots = Arrays.asList(tmp.resolve("src").toFile());
+        IndexOptions options = IndexOptions.builder().persistentIndex(false).parallelism(1).build();
+
+        List<String> indexed = new CopyOnWriteArrayList<>();
+        LinkedHashMap<Path, List<ExtractSuperclassRefactorer.TargetType>> files = new TypeIndexer(options,
+            new Progress((stage, done, total) -> indexed.add(stage + " " + done + "/" + total))).indexFiles(roots);
+        assertEquals(3, files.size());
+        assertEquals("INDEXING 3/3", indexed.get(indexed.size() - 1));
+        Progress stopped = new Progress(null);
+        stopped.cancel();
+        assertThrows(CancellationException.class, () -> new TypeIndexer(options, stopped).indexFiles(roots));
+
+        // Cancel once the first target has been rewritten: the next checkpoint stops the rewrite loop.
+        ExtractSuperclassRefactorer refactorer = new ExtractSuperclassRefactorer(roots);
+        List<String> reports = new CopyOnWriteArrayList<>();
+        Progress[] holder = new Progress[1];
+        holder[0] = new Progress((stage, done, total) -> {
+            reports.add(stage + " " + done + "/" + total);
+            if (stage == Progress.Stage.REWRITING && done == 1) {
+                holder[0].cancel();
+            }
+        });
+        ExtractSuperclassResult cancelled = refactorer.performRefactoring(
+            new ExtractSuperclassRequest(classes, "com.example.Base", false, false, options), holder[0]);
+        assertFalse(cancelled.isSuccess());
+        assertTrue(cancelled.getErrorMessage().contains("cancelled"), cancelled.getErrorMessage());
+        assertTrue(reports.contains("REWRITING 1/3"), reports.toString());
+        assertFalse(reports.contains("REWRITING 2/3"), reports.toString());
+        assertFalse(Files.exists(pkgDir.resolve("Base.java")), "The created superclass is deleted");
+        for (Map.Entry<Path, String> original : originals.entrySet()) {
+            assertEquals(original.getValue(), Files.readString(original.getKey(), StandardCharsets.UTF_8));
+        }
+
+        List<String> completed = new CopyOnWriteArrayList<>();
+        ExtractSuperclassResult result = refactorer.performRefactoring(
+            new ExtractSuperclassRequest(classes, "com.example.Base", false, false, options),
+            new Progress((stage, done, total) -> completed.add(stage + " " + done + "/" + total)));
+        assertTrue(result.isSuccess(), result.getErrorMessage());
+        assertTrue(completed.contains("REWRITING 3/3"), completed.toString());
+        assertTrue(Files.readString(pkgDir.resolve("C.java"), StandardCharsets.UTF_8).contains("extends com.example.Base"));
+    }
+
+    @Test
+    public void batchRequestsRunTogetherAndAnswerWithOneArray(@TempDir Path tmp) throws Exception {
+        List<String> calls = new ArrayList<>();
+        for (String workspace : Arrays.asList("first", "second")) {
+            Path pkgDir = tmp.resolve(workspace).resolve("src/com/example");
+            Files.createDirectories(pkgDir);
+            Files.writeString(pkgDir.resolve("A.java"), "package com.example;\n\npublic class A { }\n", StandardCharsets.UTF_8);
+            Files.writeString(pkgDir.resolve("B.java"), "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+            calls.add("{\"jsonrpc\":\"2.0\",\"id\":\"" + workspace + "\",\"method\":\"tools/call\",\"params\":{\"name\":\"extract_superclass\","
+                + "\"arguments\":{\"projectRoot\":\"" + tmp.resolve(workspace).toString().replace("\\", "\\\\") + "\","
+                + "\"classNames\":[\"com.example.A\",\"com.example.B\"],\"superQualifiedName\":\"com.example.Base\",\"dryRun\":true,"
+                + "\"indexSnapshot\":false}}}");
+        }
+        String input = "[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"tools/list\"}," + calls.get(0) + ","
+            + "{\"jsonrpc\":\"2.0\",\"method\":\"notifications/initialized\"},7," + calls.get(1) + "]\n"
+            + "[]\n";
+
+        InputStream stdin = System.in;
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            System.setIn(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+            System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+            new ExtractSuperclassMcpServer().run();
+        } finally {
+            System.setIn(stdin);
+            System.setOut(stdout);
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length, out.toString(StandardCharsets.UTF_8));
+        // The empty batch is usually answered first, since the other one waits for its slowest call.
+        JsonNode empty = mapper.readTree(lines[0]);
+        JsonNode batch = mapper.readTree(lines[1]);
+        if (empty.isArray()) {
+            JsonNode swap = empty;
+            empty = batch;
+            batch = swap;
+        }
+        assertTrue(batch.isArray());
+        assertEquals(4, batch.size(), "The notification gets no entry");
+        assertEquals(1, batch.get(0).path("id").asInt());
+        assertEquals("first", batch.get(1).path("id").asText());
+        assertEquals(-32600, batch.get(2).path("error").path("code").asInt());
+        assertTrue(batch.get(2).path("id").isNull());
+        assertEquals("second", batch.get(3).path("id").asText());
+        for (JsonNode call : Arrays.asList(batch.get(1), batch.get(3))) {
+            assertFalse(call.path("result").path("isError").asBoolean(true), call.toString());
+            assertEquals("com.example.Base", call.path("result").path("superclassQualifiedName").asText());
+        }
+        assertTrue(empty.isObject());
+        assertEquals(-32600, empty.path("error").path("code").asInt());
+    }
+
+    @Test
+    public void sourceRootDiscoveryFollowsModulesAndSkipsBuildOutput(@TempDir Path tmp) throws Exception {
+        Path root = tmp.resolve("reactor");
+        Path moduleA = root.resolve("module-a");
+        Files.createDirectories(moduleA.resolve("src/main/java/com/example"));
+        Files.createDirectories(moduleA.resolve("src/gen/com/example"));
+        Files.createDirectories(moduleA.resolve("target/generated-sources/com/example"));
+        Files.createDirectories(root.resolve("test-scenarios/src/main/java/com/example"));
+        Files.writeString(root.resolve("pom.xml"),
+            "<project><modules><module>module-a</module></modules></project>", StandardCharsets.UTF_8);
+        Files.writeString(moduleA.resolve("pom.xml"),
+            "<project><build><sourceDirectory>${project.basedir}/src/gen</sourceDirectory></build></project>", StandardCharsets.UTF_8);
+        Files.writeString(moduleA.resolve("src/main/java/com/example/A.java"), "package com.example;\npublic class A { }\n", StandardCharsets.UTF_8);
+        Files.writeString(moduleA.resolve("src/gen/com/example/G.java"), "package com.example;\npublic class G { }\n", StandardCharsets.UTF_8);
+        Files.writeString(moduleA.resolve("target/generated-sources/com/example/Stale.java"), "package com.example;\npublic class Stale { }\n", StandardCharsets.UTF_8);
+        Files.writeString(root.resolve("test-scenarios/src/main/java/com/example/Fixture.java"), "package com.example;\npublic class Fixture { }\n", StandardCharsets.UTF_8);
+
+        TypeIndexer indexer = new TypeIndexer(IndexOptions.builder().persistentIndex(false).build());
+        Map<Path, List<ExtractSuperclassRefactorer.TargetType>> files =
+            indexer.indexFiles(Arrays.asList(root.toFile(), moduleA.toFile()));
+        assertEquals(2, files.size(), () -> "Overlapping roots should be indexed once: " + files.keySet());
+        TypeIndex index = TypeIndex.of(files);
+        assertNotNull(index.get("com.example.A"));
+        assertNotNull(index.get("com.example.G"), "Custom sourceDirectory should be indexed");
+        assertNull(index.get("com.example.Stale"), "Build output should not be indexed");
+        assertNull(index.get("com.example.Fixture"), "Directories outside the module list should not be indexed");
+
+        // Full and live environments resolve against the discovered source directories, not the project root.
+        List<File> reactor = Arrays.asList(root.toFile());
+        IndexOptions options = IndexOptions.builder().persistentIndex(false).build();
+        ExtractSuperclassRefactorer.RefEnv full = ExtractSuperclassRefactorer.RefEnv.build(reactor, options);
+        assertEquals(new TreeSet<>(Arrays.asList(SourceRootDiscovery.realPath(moduleA.resolve("src/main/java")).toString(),
+                SourceRootDiscovery.realPath(moduleA.resolve("src/gen")).toString())),
+            new TreeSet<>(Arrays.asList(full.sourcepaths)));
+        try (WorkspaceIndex live = WorkspaceIndex.open(reactor, options)) {
+            assertArrayEquals(full.sourcepaths, live.env().sourcepaths);
+        }
+
+        Path loose = tmp.resolve("loose");
+        Files.createDirectories(loose.resolve("pkg"));
+        Files.createDirectories(loose.resolve("build/pkg"));
+        Files.writeString(loose.resolve("pkg/Loose.java"), "package pkg;\npublic class Loose { }\n", StandardCharsets.UTF_8);
+        Files.writeString(loose.resolve("build/pkg/Copy.java"), "package pkg;\npublic class Copy { }\n", StandardCharsets.UTF_8);
+        TypeIndex fallback = indexer.index(Arrays.asList(loose.toFile()));
+        assertNotNull(fallback.get("pkg.Loose"), "A root without a build layout should be walked");
+        assertNull(fallback.get("pkg.Copy"), "Ignored directories should be pruned from the fallback walk");
+    }
+
+    @Test
+    public void indexingIsScopedToTheTargetsDependencyClosure(@TempDir Path tmp) throws Exception {
+        Path root = tmp.resolve("reactor");
+        String[][] modules = { { "core", "" }, { "app", "core" }, { "other", "" } };
+        StringBuilder moduleList = new StringBuilder();
+        for (String[] module : modules) {
+            Path dir = root.resolve(module[0]);
+            Files.createDirectories(dir.resolve("src/main/java/com/example/" + module[0]));
+            String deps = module[1].isEmpty() ? ""
+                : "<dependencies><dependency><groupId>com.example</groupId><artifactId>" + module[1] + "</artifactId></dependency></dependencies>";
+            Files.writeString(dir.resolve("pom.xml"), "<project><groupId>com.example</groupId><artifactId>" + module[0]
+                + "</artifactId><version>1.0.0</version>" + deps + "</project>", StandardCharsets.UTF_8);
+            moduleList.append("<module>").append(module[0]).append("</module>");
+        }
+        Files.writeString(root.resolve("pom.xml"), "<project><groupId>com.example</groupId><artifactId>parent</artifactId>"
+            + "<version>1.0.0</version><packaging>pom</packaging><modules>" + moduleList + "</modules></project>", StandardCharsets.UTF_8);
+        Files.writeString(root.resolve("core/src/main/java/com/example/core/Core.java"), "package com.example.core;\n\npublic class Core { }\n", StandardCharsets.UTF_8);
+        Files.writeString(root.resolve("app/src/main/java/com/example/app/App.java"), "package com.example.app;\n\npublic class App { }\n", StandardCharsets.UTF_8);
+        Files.writeString(root.resolve("other/src/main/java/com/example/other/Other.java"), "package com.example.other;\n\npublic class Other { }\n", StandardCharsets.UTF_8);
+        List<File> roots = Arrays.asList(root.toFile());
+        ModuleDependencyManager manager = new ModuleDependencyManager(roots, LoggerFactory.getLogger("test-scope"));
+        IndexOptions options = IndexOptions.builder().persistentIndex(false).build();
+
+        ExtractSuperclassRefactorer.RefEnv scoped = ExtractSuperclassRefactorer.RefEnv.buildScoped(
+            roots, options, Arrays.asList("com.example.app.App", "com.example.core.Core"), manager);
+        assertTrue(scoped.scoped);
+        assertNotNull(scoped.findTypeByFqn("com.example.app.App"));
+        assertNotNull(scoped.findTypeByFqn("com.example.core.Core"));
+        assertNull(scoped.findTypeByFqn("com.example.other.Other"), "Modules outside the closure should not be indexed");
+        assertEquals(2, scoped.sourcepaths.length);
+
+        ExtractSuperclassRefactorer.RefEnv bySimpleName = ExtractSuperclassRefactorer.RefEnv.buildScoped(
+            roots, options, Arrays.asList("App", "Core"), manager);
+        assertTrue(bySimpleName.scoped, "Unambiguous simple names are located by the prescan");
+        assertNull(bySimpleName.findTypeByFqn("com.example.other.Other"));
+
+        // Other extends a class from a module app does not depend on; resolution has to widen the scope.
+        Files.writeString(root.resolve("other/src/main/java/com/example/other/Base.java"), "package com.example.other;\n\npublic class Base { }\n", StandardCharsets.UTF_8);
+        Files.writeString(root.resolve("app/src/main/java/com/example/app/App.java"),
+            "package com.example.app;\n\nimport com.example.other.*;\n\npublic class App extends Base { }\n", StandardCharsets.UTF_8);
+        ExtractSuperclassResult result = new ExtractSuperclassRefactorer(roots).performRefactoring(new ExtractSuperclassRequest(
+            Arrays.asList("com.example.app.App", "com.example.core.Core"), null, true, false, options));
+        assertTrue(result.isSuccess(), () -> "Refactoring failed: " + result.getErrorMessage());
+        assertEquals("com.example.other.Base", result.getSuperclassQualifiedName());
+    }
+
+    @Test
+    public void qualifiedNamesAreLocatedWithoutIndexingTheWorkspace(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("project/src/main/java/com/example");
+        Files.createDirectories(src);
+        Files.writeString(src.resolve("Direct.java"), "package com.example;\n\npublic class Direct { }\n", StandardCharsets.UTF_8);
+        Files.writeString(src.resolve("Outer.java"),
+            "package com.example;\n\npublic class Outer {\n\tstatic class Nested { }\n}\n\nclass Secondary { }\n", StandardCharsets.UTF_8);
+        Files.writeString(src.resolve("Mention.java"),
+            "package com.example;\n\n// the class Nested lives elsewhere\npublic class Mention { }\n", StandardCharsets.UTF_8);
+        Files.writeString(src.resolve("Unrelated.java"), "package com.example;\n\npublic class Unrelated { }\n", StandardCharsets.UTF_8);
+        List<File> roots = Arrays.asList(tmp.resolve("project").toFile());
+        ModuleDependencyManager manager = new ModuleDependencyManager(roots, LoggerFactory.getLogger("test-locate"));
+        IndexOptions options = IndexOptions.builder().persistentIndex(false).build();
+
+        ExtractSuperclassRefactorer.RefEnv env = ExtractSuperclassRefactorer.RefEnv.buildScoped(
+            roots, options, Arrays.asList("com.example.Direct", "com.example.Nested", "com.example.Secondary"), manager);
+        assertTrue(env.scoped);
+        assertNotNull(env.findTypeByFqn("com.example.Direct"));
+        assertNotNull(env.findTypeByFqn("com.example.Nested"), "Nested classes are found by the prescan");
+        assertNotNull(env.findTypeByFqn("com.example.Secondary"), "Secondary classes are found by the prescan");
+        assertNull(env.findTypeByFqn("com.example.Unrelated"), "Files that cannot declare the targets are not parsed");
+        assertNull(env.findTypeByFqn("com.example.Mention"), "Prescan matches that do not declare a target are dropped");
+
+        ExtractSuperclassRefactorer.RefEnv full = ExtractSuperclassRefactorer.RefEnv.buildScoped(
+            roots, options, Arrays.asList("com.example.Direct", "com.example.Missing"), manager);
+        assertFalse(full.scoped, "An unknown class falls back to the full index");
+        assertNotNull(full.findTypeByFqn("com.example.Unrelated"));
+
+        byte[][] names = { "Bar".getBytes(StandardCharsets.UTF_8) };
+        assertTrue(SourcePrescan.declaresAny(ByteBuffer.wrap("final class\n  Bar{".getBytes(StandardCharsets.UTF_8)), names));
+        assertFalse(SourcePrescan.declaresAny(ByteBuffer.wrap("class BarX { } subclass Bar".getBytes(StandardCharsets.UTF_8)), names));
+        assertFalse(SourcePrescan.declaresAny(ByteBuffer.wrap("Bar.class".getBytes(StandardCharsets.UTF_8)), names));
+    }
+
+    @Test
+    public void simpleNamesAreResolvedTargetFirstWhenUnambiguous(@TempDir Path tmp) throws Exception {
+        Path src = tmp.resolve("project/src/main/java/com/example");
+        Files.createDirectories(src.resolve("other"));
+        Files.writeString(src.resolve("Alpha.java"), "package com.example;\n\npublic class Alpha { }\n", StandardCharsets.UTF_8);
+        Files.writeString(src.resolve("Beta.java"), "package com.example;\n\npublic class Beta { }\n", StandardCharsets.UTF_8);
+        Files.writeString(src.resolve("Dup.java"), "package com.example;\n\npublic class Dup { }\n", StandardCharsets.UTF_8);
+        Files.writeString(src.resolve("other/Dup.java"), "package com.example.other;\n\npublic class Dup { }\n", StandardCharsets.UTF_8);
+        List<File> roots = Arrays.asList(tmp.resolve("project").toFile());
+        ModuleDependencyManager manager = new ModuleDependencyManager(roots, LoggerFactory.getLogger("test-target-first"));
+        IndexOptions options = IndexOptions.builder().persistentIndex(false).build();
+
+        ExtractSuperclassRefactorer.RefEnv env = ExtractSuperclassRefactorer.RefEnv.buildScoped(
+            roots, options, Arrays.asList("Alpha", "com.example.Beta"), manager);
+        assertTrue(env.scoped);
+        assertNotNull(env.findTypeByFqn("com.example.Alpha"));
+        assertNull(env.findTypeByFqn("com.example.Dup"), "Files that cannot declare the targets are not parsed");
+
+        ExtractSuperclassRefactorer.RefEnv full = ExtractSuperclassRefactorer.RefEnv.buildScoped(
+            roots, options, Arrays.asList("Alpha", "Dup"), manager);
+        assertFalse(full.scoped, "An ambiguous simple name needs the whole index to pick a candidate");
+
+        // A request arriving while the workspace index still builds plans from the target-first environment.
+        try (WorkspaceIndex index = WorkspaceIndex.open(roots, options)) {
+            ExtractSuperclassResult result = new ExtractSuperclassRefactorer(roots, index).performRefactoring(
+                new ExtractSuperclassRequest(Arrays.asList("Alpha", "Beta"), "com.example.AbstractAB", false, false, options));
+            assertTrue(result.isSuccess(), () -> "Refactoring failed: " + result.getErrorMessage());
+            Map<String, ExtractSuperclassRefactorer.TargetType> types = index.env().fqnToType;
+            assertNotNull(types.get("com.example.AbstractAB"), "Files written before the build finished are replayed into it");
+            assertTrue(types.get("com.example.Alpha").hasSuperclass());
+            assertEquals(5, types.size());
+        }
+    }
+
     @Test
     public void autoPlacementChoosesUpstreamModule(@TempDir Path tmp) throws Exception {
         Path projectRoot = tmp.resolve("project");
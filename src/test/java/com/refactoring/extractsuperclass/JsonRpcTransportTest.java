@@ -0,0 +1,52 @@
+package com.refactoring.extractsuperclass;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonRpcTransportTest {
+    @Test
+    public void readsFramedAndLineMessagesAndWritesOneLineEach() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        StringBuilder large = new StringBuilder();
+        while (large.length() < 40_000) {
+            large.append("com.example.Padding");
+        }
+        String big = "{\"id\":3,\"method\":\"big\",\"params\":{\"text\":\"" + large + "\"}}";
+        String first = "{\"id\":1,\"method\":\"initialize\"}";
+        String input = "Content-Length: " + first.length() + "\r\nContent-Type: application/json\r\n\r\n" + first
+            + "  {\"id\":2,\"method\":\"tools/list\"}  \n"
+            + "not a header\n"
+            + "content-length: 9\n\n{\"id\": 4,"
+            + "Content-Length: " + big.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n" + big
+            + "Content-Length: 40\r\n\r\n{\"id\":5}";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonRpcTransport transport = new JsonRpcTransport(
+            new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out, mapper);
+
+        assertEquals("initialize", transport.read().path("method").asText());
+        assertEquals("tools/list", transport.read().path("method").asText());
+        assertThrows(JsonProcessingException.class, transport::read, "A malformed payload fails on its own");
+        JsonNode bigRequest = transport.read();
+        assertEquals(3, bigRequest.path("id").asInt());
+        assertEquals(large.toString(), bigRequest.path("params").path("text").asText());
+        IOException truncated = assertThrows(IOException.class, transport::read);
+        assertTrue(truncated.getMessage().contains("Unexpected end of stream"));
+        assertNull(transport.read());
+
+        transport.write(mapper.readTree("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{\"text\":\"Gr\u00FC\u00DFe\\nzwei\"}}"));
+        transport.write(bigRequest);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("Gr\u00FC\u00DFe\nzwei", mapper.readTree(lines[0]).path("result").path("text").asText());
+        assertEquals(bigRequest, mapper.readTree(lines[1]));
+    }
+}
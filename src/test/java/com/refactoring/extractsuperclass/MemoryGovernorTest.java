@@ -0,0 +1,63 @@
+package com.refactoring.extractsuperclass;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryGovernorTest {
+    @Test
+    public void shedsTiersInOrderAndReportsHeldBytes() {
+        MemoryGovernor governor = new MemoryGovernor();
+        List<String> shed = new ArrayList<>();
+        for (MemoryGovernor.Tier tier : MemoryGovernor.Tier.values()) {
+            governor.register(new MemoryGovernor.Sheddable() {
+                long held = 1000L * (tier.ordinal() + 1);
+
+                @Override
+                public String name() {
+                    return tier.name();
+                }
+
+                @Override
+                public MemoryGovernor.Tier tier() {
+                    return tier;
+                }
+
+                @Override
+                public long estimatedBytes() {
+                    return held;
+                }
+
+                @Override
+                public long shed() {
+                    shed.add(tier.name());
+                    long released = held;
+                    held = 0;
+                    return released;
+                }
+            });
+        }
+        assertEquals(Long.valueOf(3000), governor.report().get("POM_MODELS"));
+
+        governor.evaluate(0.5);
+        assertTrue(shed.isEmpty());
+        assertFalse(governor.constrained());
+
+        governor.evaluate(0.82);
+        assertEquals(Arrays.asList("PARSER_BUFFERS", "CLASS_INDEXES", "POM_MODELS"), shed);
+        assertFalse(governor.constrained());
+        assertEquals(Long.valueOf(0), governor.report().get("POM_MODELS"));
+        assertEquals(Long.valueOf(4000), governor.report().get("INACTIVE_WORKSPACES"));
+
+        shed.clear();
+        governor.evaluate(0.95);
+        assertEquals(Arrays.asList("PARSER_BUFFERS", "CLASS_INDEXES", "POM_MODELS", "INACTIVE_WORKSPACES"), shed);
+        assertTrue(governor.constrained());
+        governor.evaluate(0.3);
+        assertFalse(governor.constrained());
+    }
+}
@@ -0,0 +1,24 @@
+package com.refactoring.extractsuperclass;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PomCacheTest {
+    @Test
+    public void sharesParsedPomsUntilTheFileChanges(@TempDir Path tmp) throws Exception {
+        Path pom = tmp.resolve("pom.xml");
+        Files.writeString(pom, "<project><artifactId>a</artifactId></project>", StandardCharsets.UTF_8);
+        Document first = PomCache.document(pom);
+        assertSame(first, PomCache.document(pom));
+        assertNotSame(first, PomCache.parse(pom));
+        Files.writeString(pom, "<project><artifactId>renamed</artifactId></project>", StandardCharsets.UTF_8);
+        assertEquals("renamed", PomCache.document(pom).getDocumentElement().getTextContent());
+    }
+}
@@ -0,0 +1,41 @@
+package com.refactoring.extractsuperclass;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedIndexerTest {
+    @Test
+    public void cancellingDestroysTheWorkersStillRunning(@TempDir Path tmp) throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Path file = tmp.resolve("Type" + i + ".java");
+            Files.writeString(file, "package com.example;\n\npublic class Type" + i + " { }\n", StandardCharsets.UTF_8);
+            files.add(file);
+        }
+        List<List<ExtractSuperclassRefactorer.TargetType>> parsed = new ArrayList<>(Collections.nCopies(files.size(), null));
+        List<String> failures = new ArrayList<>(Collections.nCopies(files.size(), null));
+        IndexOptions options = IndexOptions.builder().workers(2).persistentIndex(false).build();
+
+        // Cancelled as soon as a worker runs, long before a fresh JVM could have parsed its shard.
+        assertThrows(CancellationException.class, () -> ShardedIndexer.parse(options,
+            () -> ProcessHandle.current().children().anyMatch(ProcessHandle::isAlive), files, parsed, null, failures));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (ProcessHandle.current().children().anyMatch(ProcessHandle::isAlive) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(ProcessHandle.current().children().anyMatch(ProcessHandle::isAlive), "Workers should be destroyed");
+        assertTrue(parsed.stream().allMatch(types -> types == null), "No shard should have fallen back to this process");
+    }
+}
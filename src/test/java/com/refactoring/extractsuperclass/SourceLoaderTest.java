@@ -0,0 +1,50 @@
+package com.refactoring.extractsuperclass;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SourceLoaderTest {
+    @Test
+    public void sourceLoaderDecodesSmallAndLargeFilesLikeReadString(@TempDir Path tmp) throws Exception {
+        StringBuilder large = new StringBuilder("package com.example;\n\n/** Gr\u00F6\u00DFe \uD83D\uDE00 */\npublic class Large {\n");
+        while (large.length() < 200_000) {
+            large.append("\t// \u00FCn\u00EFc\u00F6d\u00E9 padding line\n");
+        }
+        large.append("}\n");
+        Path small = tmp.resolve("Small.java");
+        Path big = tmp.resolve("Large.java");
+        Files.writeString(small, "package com.example;\n\n/** Gr\u00FC\u00DFe */\npublic class Small { }\n", StandardCharsets.UTF_8);
+        Files.writeString(big, large.toString(), StandardCharsets.UTF_8);
+
+        for (Path file : Arrays.asList(small, big, small)) {
+            MessageDigest digest = IndexSnapshot.newDigest();
+            char[] chars = SourceLoader.read(file, digest);
+            assertEquals(Files.readString(file, StandardCharsets.UTF_8), new String(chars));
+            byte[] expected = IndexSnapshot.newDigest().digest(Files.readAllBytes(file));
+            assertArrayEquals(expected, digest.digest());
+            assertArrayEquals(expected, SourceLoader.hash(file));
+        }
+
+        // Nothing stays mapped after loading, so the file can be rewritten right away (Windows refuses while mapped).
+        SourceLoader.Cache sources = new SourceLoader.Cache();
+        String text = sources.text(big);
+        SourceLoader.hash(big);
+        Files.writeString(big, text.replace("class Large", "class Large extends Base"), StandardCharsets.UTF_8);
+        assertTrue(Files.readString(big, StandardCharsets.UTF_8).contains("class Large extends Base"));
+
+        // Text to be rewritten is decoded strictly: a Cp1252 file fails instead of being saved with U+FFFD.
+        Path latin = tmp.resolve("Latin.java");
+        Files.write(latin, "package com.example;\n\n/** Gr\u00FC\u00DFe */\npublic class Latin { }\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertThrows(CharacterCodingException.class, () -> new SourceLoader.Cache().text(latin));
+        assertTrue(new String(SourceLoader.read(latin)).contains("\uFFFD"), "Indexing still reads the file leniently");
+    }
+}
@@ -0,0 +1,103 @@
+package com.refactoring.extractsuperclass;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TypeIndexTest {
+    @Test
+    public void typeIndexLookupsStayConsistentUnderIncrementalUpdates(@TempDir Path tmp) {
+        Path a = tmp.resolve("src/com/example/A.java");
+        Path b = tmp.resolve("src/com/example/B.java");
+        Path dup = tmp.resolve("other/com/example/A.java");
+        Path c = tmp.resolve("src/com/example/util/C.java");
+        List<ExtractSuperclassRefactorer.TargetType> aTypes = Arrays.asList(type("com.example.A", a));
+        List<ExtractSuperclassRefactorer.TargetType> bTypes = Arrays.asList(type("com.example.B", b));
+        List<ExtractSuperclassRefactorer.TargetType> dupTypes = Arrays.asList(type("com.example.A", dup));
+        List<ExtractSuperclassRefactorer.TargetType> cTypes = Arrays.asList(type("com.example.util.C", c), type("com.example.util.A", c));
+
+        Map<Path, List<ExtractSuperclassRefactorer.TargetType>> perFile = new LinkedHashMap<>();
+        perFile.put(a, aTypes);
+        perFile.put(b, bTypes);
+        perFile.put(dup, dupTypes);
+        perFile.put(c, cTypes);
+        TypeIndex index = TypeIndex.of(perFile);
+
+        assertEquals(dup, index.get("com.example.A").filePath, "Later declaration of a duplicate FQN wins");
+        assertEquals(Arrays.asList("com.example.A", "com.example.util.A"), index.fqnsForSimpleName("A"));
+        assertEquals(2, index.packageTypeCount("com.example"));
+        assertEquals(a.getParent(), index.packageDirectory("com.example"));
+        assertEquals(c.getParent(), index.packageDirectory("com.example.util"));
+
+        index.removeFile(dup);
+        assertEquals(a, index.get("com.example.A").filePath, "Shadowed declaration comes back when the winner goes away");
+        assertEquals(2, index.packageTypeCount("com.example"));
+
+        index.replaceFile(c, Arrays.asList(type("com.example.util.C", c)));
+        assertEquals(Arrays.asList("com.example.A"), index.fqnsForSimpleName("A"));
+        assertEquals("com.example", index.mostFrequentPackage());
+
+        index.removeFile(a);
+        index.removeFile(b);
+        assertNull(index.packageDirectory("com.example"));
+        assertEquals(0, index.packageTypeCount("com.example"));
+        assertTrue(index.fqnsForSimpleName("A").isEmpty());
+        assertEquals("com.example.util", index.mostFrequentPackage());
+        assertEquals(1, index.types().size());
+    }
+
+    @Test
+    public void columnarTypeIndexMatchesAMapModelUnderChurn(@TempDir Path tmp) {
+        TypeIndex index = new TypeIndex();
+        Map<Path, String> model = new HashMap<>();
+        Random random = new Random(42);
+        int mostPooled = 0;
+        for (int step = 0; step < 20000; step++) {
+            Path file = tmp.resolve("d" + random.nextInt(40)).resolve("F" + random.nextInt(100) + ".java");
+            if (random.nextInt(3) == 0) {
+                assertEquals(model.remove(file) != null, index.removeFile(file));
+            } else {
+                // Unique FQN per file keeps the model simple; shadowing is covered by the lookup test.
+                String fqn = "p" + random.nextInt(30) + ".T" + Math.abs(file.hashCode()) + "x" + step;
+                model.put(file, fqn);
+                index.replaceFile(file, Arrays.asList(type(fqn, file)));
+            }
+            if (step % 5000 == 4999) {
+                index.removeUnder(tmp.resolve("d7"));
+                model.keySet().removeIf(p -> p.startsWith(tmp.resolve("d7")));
+            }
+            mostPooled = Math.max(mostPooled, index.pooledStrings());
+        }
+        // Every step names a new type, yet names of removed types leave the pool instead of piling up in it.
+        assertTrue(mostPooled < 2 * (model.size() + 200) + 1024, "String pool grew to " + mostPooled + " strings");
+        assertEquals(model.size(), index.size());
+        assertEquals(model.size(), index.fileCount());
+        for (Map.Entry<Path, String> entry : model.entrySet()) {
+            ExtractSuperclassRefactorer.TargetType type = index.get(entry.getValue());
+            assertNotNull(type, entry.getValue());
+            assertEquals(entry.getKey(), type.filePath);
+            String simple = entry.getValue().substring(entry.getValue().indexOf('.') + 1);
+            assertEquals(Arrays.asList(entry.getValue()), index.fqnsForSimpleName(simple));
+        }
+        int total = 0;
+        for (int p = 0; p < 30; p++) {
+            total += index.packageTypeCount("p" + p);
+        }
+        assertEquals(model.size(), total);
+        assertEquals(model.size(), index.types().entrySet().size());
+    }
+
+    private static ExtractSuperclassRefactorer.TargetType type(String fqn, Path file) {
+        int dot = fqn.lastIndexOf('.');
+        return new ExtractSuperclassRefactorer.TargetType(fqn, fqn.substring(0, dot), fqn.substring(dot + 1), file, 0, 0, 0, null);
+    }
+}
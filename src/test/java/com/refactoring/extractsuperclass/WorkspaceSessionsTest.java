@@ -0,0 +1,130 @@
+package com.refactoring.extractsuperclass;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorkspaceSessionsTest {
+    @Test
+    public void sessionsStayWarmAndEvictLeastRecentlyUsedAndIdle(@TempDir Path tmp) throws Exception {
+        List<List<File>> workspaces = new ArrayList<>();
+        for (String name : new String[] { "one", "two", "three" }) {
+            Path pkgDir = tmp.resolve(name).resolve("com/example");
+            Files.createDirectories(pkgDir);
+            Files.writeString(pkgDir.resolve("A.java"), "package com.example;\n\npublic class A { }\n", StandardCharsets.UTF_8);
+            Files.writeString(pkgDir.resolve("B.java"), "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+            workspaces.add(Arrays.asList(tmp.resolve(name).toFile()));
+        }
+        Files.createDirectories(tmp.resolve("one/gen/com/example"));
+        Files.writeString(tmp.resolve("one/gen/com/example/G.java"), "package com.example;\n\npublic class G { }\n", StandardCharsets.UTF_8);
+        IndexOptions options = IndexOptions.builder().persistentIndex(false).build();
+
+        try (WorkspaceSessions sessions = new WorkspaceSessions(2, Long.MAX_VALUE, TimeUnit.MINUTES.toMillis(5))) {
+            WorkspaceSessions.Session first = sessions.acquire(workspaces.get(0), options);
+            ExtractSuperclassResult result = first.refactorer.performRefactoring(new ExtractSuperclassRequest(
+                Arrays.asList("com.example.A", "com.example.B"), null, true, false, options));
+            assertTrue(result.isSuccess(), result.getErrorMessage());
+            sessions.release(first);
+
+            // The same roots, however they are spelled, get the same warm session back.
+            WorkspaceSessions.Session again = sessions.acquire(Arrays.asList(tmp.resolve("one/.").toFile()), options);
+            assertSame(first, again);
+            sessions.release(again);
+
+            // Options that change what is indexed get their own session; ones that only change speed share it.
+            IndexOptions ignoring = IndexOptions.builder().persistentIndex(false).ignoredDirectories(Arrays.asList("gen")).build();
+            IndexOptions budgeted = IndexOptions.builder().persistentIndex(false).maxFileBytes(10).build();
+            IndexOptions faster = IndexOptions.builder().persistentIndex(false).parallelism(3).mode(IndexOptions.Mode.HEADERS).build();
+            WorkspaceSessions.Session withoutGen = sessions.acquire(workspaces.get(0), ignoring);
+            WorkspaceSessions.Session tinyBudget = sessions.acquire(workspaces.get(0), budgeted);
+            WorkspaceSessions.Session sameIndex = sessions.acquire(workspaces.get(0), faster);
+            assertNotSame(first, withoutGen);
+            assertNotSame(first, tinyBudget);
+            assertNotSame(withoutGen, tinyBudget);
+            assertSame(first, sameIndex);
+            assertTrue(first.index.env().index.contains("com.example.G"));
+            assertFalse(withoutGen.index.env().index.contains("com.example.G"), "The ignored directory stays out of its index");
+            assertFalse(tinyBudget.index.env().index.contains("com.example.A"), "Files over the call's budget are quarantined");
+            sessions.release(withoutGen);
+            sessions.release(tinyBudget);
+            sessions.release(sameIndex);
+
+            WorkspaceSessions.Session second = sessions.acquire(workspaces.get(1), options);
+            sessions.release(second);
+            sessions.release(sessions.acquire(workspaces.get(0), options));
+            WorkspaceSessions.Session third = sessions.acquire(workspaces.get(2), options);
+            sessions.release(third);
+            assertEquals(2, sessions.size());
+            assertFalse(sessions.contains(workspaces.get(1), options), "The least recently used session is evicted first");
+            assertTrue(sessions.contains(workspaces.get(0), options));
+
+            // Sessions in use are never evicted for being idle.
+            WorkspaceSessions.Session busy = sessions.acquire(workspaces.get(2), options);
+            sessions.evictIdle(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10));
+            assertEquals(1, sessions.size());
+            assertTrue(sessions.contains(workspaces.get(2), options));
+            sessions.release(busy);
+        }
+
+        try (WorkspaceSessions sessions = new WorkspaceSessions(8, 0, TimeUnit.MINUTES.toMillis(5))) {
+            WorkspaceSessions.Session session = sessions.acquire(workspaces.get(0), options);
+            session.index.env();
+            sessions.release(session);
+            assertEquals(0, sessions.size(), "Sessions holding more than the byte budget are evicted");
+        }
+    }
+
+    @Test
+    public void dryRunsAndWritesGetSessionsOfTheirOwnSoOnlyWritesSaveTheSnapshot(@TempDir Path tmp) throws Exception {
+        List<List<File>> workspaces = new ArrayList<>();
+        for (String name : new String[] { "dry-first", "write-first" }) {
+            Path pkgDir = tmp.resolve(name).resolve("com/example");
+            Files.createDirectories(pkgDir);
+            Files.writeString(pkgDir.resolve("A.java"), "package com.example;\n\npublic class A { }\n", StandardCharsets.UTF_8);
+            Files.writeString(pkgDir.resolve("B.java"), "package com.example;\n\npublic class B { }\n", StandardCharsets.UTF_8);
+            workspaces.add(Arrays.asList(tmp.resolve(name).toFile()));
+        }
+        IndexOptions options = IndexOptions.builder().build();
+        List<String> classes = Arrays.asList("com.example.A", "com.example.B");
+        ExtractSuperclassRequest dryRun = new ExtractSuperclassRequest(classes, "com.example.Base", true, false, options);
+        ExtractSuperclassRequest write = new ExtractSuperclassRequest(classes, "com.example.Base", false, false, options);
+
+        try (WorkspaceSessions sessions = new WorkspaceSessions(8, Long.MAX_VALUE, TimeUnit.MINUTES.toMillis(5))) {
+            // A dry run, then a write: the write does not inherit the dry run's read-only index.
+            Path snapshot = tmp.resolve("dry-first/.extractsuperclass/index.bin");
+            WorkspaceSessions.Session dry = sessions.acquire(workspaces.get(0), dryRun.indexOptions());
+            assertTrue(dry.refactorer.performRefactoring(dryRun).isSuccess());
+            sessions.release(dry);
+            assertFalse(Files.exists(snapshot), "A dry run saves no snapshot");
+            WorkspaceSessions.Session writing = sessions.acquire(workspaces.get(0), write.indexOptions());
+            assertNotSame(dry, writing);
+            assertTrue(writing.refactorer.performRefactoring(write).isSuccess());
+            sessions.release(writing);
+            assertTrue(Files.exists(snapshot), "The write's session saves the snapshot");
+
+            // A write, then a dry run whose session rescans the workspace: the rescan saves nothing.
+            snapshot = tmp.resolve("write-first/.extractsuperclass/index.bin");
+            writing = sessions.acquire(workspaces.get(1), write.indexOptions());
+            assertTrue(writing.refactorer.performRefactoring(write).isSuccess());
+            sessions.release(writing);
+            assertTrue(Files.exists(snapshot));
+            Files.delete(snapshot);
+            dry = sessions.acquire(workspaces.get(1), dryRun.indexOptions());
+            assertNotSame(writing, dry);
+            dry.index.rescan();
+            assertTrue(dry.refactorer.performRefactoring(dryRun).isSuccess());
+            sessions.release(dry);
+            assertFalse(Files.exists(snapshot), "A dry run's rescan saves no snapshot");
+        }
+    }
+}